@@ -0,0 +1,389 @@
+import java.util.Arrays;
+
+/**
+ * AstArena holds an AST in columns of primitive arrays instead of one
+ * Parser.Node object per node. A node is an int handle: its index in the
+ * columns, with NIL standing for a missing child. Each node has a kind, the
+ * handles of its two children and the index of its value.
+ *
+ * Values are interned, so every identifier, integer and string is stored
+ * once however many leaves use it. Interior nodes have no value. The name
+ * of an Identifier leaf also gets a dense id in the SymbolTable of the
+ * arena, which Parser.Node trees carry along for later passes.
+ *
+ * A node is always made after its children, so a child's handle is lower
+ * than its parent's. That lets toNode build Parser.Node trees in one loop
+ * with no recursion, however deep the tree is.
+ *
+ * An arena can also hash-cons its nodes: making a node that is the same as
+ * one already made, the same kind, children and value, gives back the
+ * handle of the old one. Since children are shared first, identical
+ * subtrees are then always one handle, memory grows with the number of
+ * distinct subtrees, and a pass can keep its results for each distinct
+ * subtree in an array indexed by handle. The Node trees toNode builds from
+ * such an arena share Node objects the same way, so they must not be
+ * changed in place.
+ */
+class AstArena {
+    // Handle of a missing node, what null is for Parser.Node
+    static final int NIL = -1;
+    private static final Parser.NodeType[] NODE_TYPES = Parser.NodeType.values();
+
+    private byte[] kinds;
+    private int[] lefts;
+    private int[] rights;
+    private int[] values;
+    private int size;
+
+    // interned values: value v is pool[starts[v]] up to pool[starts[v + 1]]
+    private char[] pool;
+    private int poolLength;
+    private int[] starts;
+    private int valueCount;
+    private String[] strings;
+    // id + 1 in the symbol table of each value an Identifier leaf has, 0 for none
+    private int[] symbolIds;
+    private final SymbolTable symbols = new SymbolTable();
+    // open addressing table of value index + 1, 0 for an empty slot
+    private int[] slots;
+    // open addressing table of node handle + 1 when nodes are shared, null when they are not
+    private int[] nodeSlots;
+
+    /**
+     * Constructs an empty AstArena.
+     */
+    AstArena() {
+        this(256);
+    }
+
+    /**
+     * Constructs an empty AstArena with room for the given number of nodes.
+     * @param capacity  Number of nodes to make room for
+     */
+    AstArena(int capacity) {
+        capacity = Math.max(capacity, 16);
+        this.kinds = new byte[capacity];
+        this.lefts = new int[capacity];
+        this.rights = new int[capacity];
+        this.values = new int[capacity];
+        this.pool = new char[capacity];
+        this.starts = new int[capacity / 4 + 1];
+        this.strings = new String[capacity / 4];
+        this.symbolIds = new int[capacity / 4];
+        this.slots = new int[Integer.highestOneBit(capacity / 2) * 2];
+    }
+
+    /**
+     * Constructs an empty AstArena that may share identical subtrees.
+     * @param capacity  Number of nodes to make room for
+     * @param share     True to give back the old node for a node made again
+     */
+    AstArena(int capacity, boolean share) {
+        this(capacity);
+        if (share) {
+            this.nodeSlots = new int[this.slots.length * 2];
+        }
+    }
+
+    /**
+     * Makes an interior node
+     * @param nodetype  Kind of the node
+     * @param left      Handle of the left child, or NIL
+     * @param right     Handle of the right child, or NIL
+     * @return          Handle of the new node, or of the same node made before if nodes are shared
+     */
+    int make_node(Parser.NodeType nodetype, int left, int right) {
+        return add(nodetype, left, right, NIL);
+    }
+
+    /**
+     * Makes an interior node with only a left child
+     * @param nodetype  Kind of the node
+     * @param left      Handle of the child, or NIL
+     * @return          Handle of the new node
+     */
+    int make_node(Parser.NodeType nodetype, int left) {
+        return add(nodetype, left, NIL, NIL);
+    }
+
+    /**
+     * Makes a leaf with the given value
+     * @param nodetype  Kind of the leaf
+     * @param value     Value of the leaf
+     * @return          Handle of the new leaf
+     */
+    int make_leaf(Parser.NodeType nodetype, String value) {
+        char[] chars = value.toCharArray();
+        return add(nodetype, NIL, NIL, leafValue(nodetype, chars, 0, chars.length));
+    }
+
+    /**
+     * Makes a leaf whose value is a slice of a character array, such as
+     * the text of a token stream. No String is made for the value.
+     * @param nodetype  Kind of the leaf
+     * @param src       Characters holding the value
+     * @param start     Offset of the value in src
+     * @param length    Length of the value
+     * @return          Handle of the new leaf
+     */
+    int make_leaf(Parser.NodeType nodetype, char[] src, int start, int length) {
+        return add(nodetype, NIL, NIL, leafValue(nodetype, src, start, length));
+    }
+
+    // interns the value of a leaf, and the name of an Identifier in the symbol table too
+    private int leafValue(Parser.NodeType nodetype, char[] src, int start, int length) {
+        int v = intern(src, start, length);
+        if (nodetype == Parser.NodeType.nd_Ident && this.symbolIds[v] == 0) {
+            this.symbolIds[v] = this.symbols.intern(this.pool, this.starts[v], length) + 1;
+        }
+        return v;
+    }
+
+    private int add(Parser.NodeType nodetype, int left, int right, int value) {
+        if (this.nodeSlots == null) {
+            return append(nodetype, left, right, value);
+        }
+        byte kind = (byte) nodetype.ordinal();
+        int mask = this.nodeSlots.length - 1;
+        int slot = hash(kind, left, right, value) & mask;
+        for (int n; (n = this.nodeSlots[slot]) != 0; slot = (slot + 1) & mask) {
+            n--;
+            if (this.kinds[n] == kind && this.lefts[n] == left && this.rights[n] == right && this.values[n] == value) {
+                return n;
+            }
+        }
+        int n = append(nodetype, left, right, value);
+        this.nodeSlots[slot] = n + 1;
+        if (this.size * 2 > this.nodeSlots.length) {
+            rehashNodes();
+        }
+        return n;
+    }
+
+    private static int hash(byte kind, int left, int right, int value) {
+        int h = ((kind * 31 + left) * 31 + right) * 31 + value;
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void rehashNodes() {
+        int[] slots = new int[this.nodeSlots.length * 2];
+        int mask = slots.length - 1;
+        for (int n = 0; n < this.size; n++) {
+            int slot = hash(this.kinds[n], this.lefts[n], this.rights[n], this.values[n]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = n + 1;
+        }
+        this.nodeSlots = slots;
+    }
+
+    private int append(Parser.NodeType nodetype, int left, int right, int value) {
+        if (this.size == this.kinds.length) {
+            int capacity = this.size * 2;
+            this.kinds = Arrays.copyOf(this.kinds, capacity);
+            this.lefts = Arrays.copyOf(this.lefts, capacity);
+            this.rights = Arrays.copyOf(this.rights, capacity);
+            this.values = Arrays.copyOf(this.values, capacity);
+        }
+        this.kinds[this.size] = (byte) nodetype.ordinal();
+        this.lefts[this.size] = left;
+        this.rights[this.size] = right;
+        this.values[this.size] = value;
+        return this.size++;
+    }
+
+    /**
+     * Finds a value in the table, adding it if it is not there yet
+     * @param src       Characters holding the value
+     * @param start     Offset of the value in src
+     * @param length    Length of the value
+     * @return          Index of the value
+     */
+    int intern(char[] src, int start, int length) {
+        int h = 0;
+        for (int i = start; i < start + length; i++) {
+            h = 31 * h + src[i];
+        }
+        int mask = this.slots.length - 1;
+        int slot = (h ^ (h >>> 16)) & mask;
+        for (int v; (v = this.slots[slot]) != 0; slot = (slot + 1) & mask) {
+            if (equals(v - 1, src, start, length)) {
+                return v - 1;
+            }
+        }
+
+        int v = this.valueCount++;
+        if (this.valueCount + 1 > this.starts.length) {
+            this.starts = Arrays.copyOf(this.starts, this.starts.length * 2);
+            this.strings = Arrays.copyOf(this.strings, this.starts.length);
+            this.symbolIds = Arrays.copyOf(this.symbolIds, this.starts.length);
+        }
+        if (this.poolLength + length > this.pool.length) {
+            this.pool = Arrays.copyOf(this.pool, Math.max(this.pool.length * 2, this.poolLength + length));
+        }
+        System.arraycopy(src, start, this.pool, this.poolLength, length);
+        this.poolLength += length;
+        this.starts[v + 1] = this.poolLength;
+        this.slots[slot] = v + 1;
+        if (this.valueCount * 2 > this.slots.length) {
+            rehash();
+        }
+        return v;
+    }
+
+    private boolean equals(int v, char[] src, int start, int length) {
+        int from = this.starts[v];
+        if (this.starts[v + 1] - from != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (this.pool[from + i] != src[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        int[] slots = new int[this.slots.length * 2];
+        int mask = slots.length - 1;
+        for (int v = 0; v < this.valueCount; v++) {
+            int h = 0;
+            for (int i = this.starts[v]; i < this.starts[v + 1]; i++) {
+                h = 31 * h + this.pool[i];
+            }
+            int slot = (h ^ (h >>> 16)) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = v + 1;
+        }
+        this.slots = slots;
+    }
+
+    /**
+     * Removes all the nodes, keeping the interned values and symbols for the next AST
+     */
+    void clear() {
+        this.size = 0;
+        if (this.nodeSlots != null) {
+            Arrays.fill(this.nodeSlots, 0);
+        }
+    }
+
+    int size() { return this.size; }
+    boolean shares() { return this.nodeSlots != null; }
+    int valueCount() { return this.valueCount; }
+    Parser.NodeType kind(int n) { return NODE_TYPES[this.kinds[n]]; }
+    int left(int n) { return this.lefts[n]; }
+    int right(int n) { return this.rights[n]; }
+    int valueIndex(int n) { return this.values[n]; }
+    SymbolTable symbols() { return this.symbols; }
+    // value v is valueText()[valueStart(v)] up to valueText()[valueStart(v + 1)]
+    char[] valueText() { return this.pool; }
+    int valueStart(int v) { return this.starts[v]; }
+
+    /**
+     * Gets the value of a node
+     * @param n     Handle of the node
+     * @return      Value of the node, "" for an interior node
+     */
+    String value(int n) {
+        int v = this.values[n];
+        return v == NIL ? "" : valueString(v);
+    }
+
+    /**
+     * Gets the id in the symbol table of the name of an Identifier leaf
+     * @param n     Handle of the node
+     * @return      Id of its name, or -1 if the node is not an Identifier
+     */
+    int symbol(int n) {
+        return kind(n) == Parser.NodeType.nd_Ident ? this.symbolIds[this.values[n]] - 1 : -1;
+    }
+
+    /**
+     * Gets an interned value as a String, made once and then reused
+     * @param v     Index of the value
+     * @return      The value
+     */
+    String valueString(int v) {
+        if (this.strings[v] == null) {
+            this.strings[v] = new String(this.pool, this.starts[v], this.starts[v + 1] - this.starts[v]);
+        }
+        return this.strings[v];
+    }
+
+    /**
+     * Builds the Parser.Node tree of a node. Leaves with the same value
+     * share one String.
+     * @param root  Handle of the root, or NIL
+     * @return      Root of the Node tree, or null for NIL
+     */
+    Parser.Node toNode(int root) {
+        if (root == NIL) {
+            return null;
+        }
+        // children always come before their parents, so one pass up to the root is enough
+        Parser.Node[] nodes = new Parser.Node[root + 1];
+        for (int n = 0; n <= root; n++) {
+            int l = this.lefts[n], r = this.rights[n];
+            nodes[n] = new Parser.Node(kind(n), l == NIL ? null : nodes[l], r == NIL ? null : nodes[r], value(n), symbol(n));
+        }
+        return nodes[root];
+    }
+
+    /**
+     * Builds the Parser.Node of every node in the arena, in the same single
+     * loop toNode uses
+     * @return      Node of each handle, indexed by handle
+     */
+    Parser.Node[] toNodes() {
+        Parser.Node[] nodes = new Parser.Node[this.size];
+        for (int n = 0; n < this.size; n++) {
+            int l = this.lefts[n], r = this.rights[n];
+            nodes[n] = new Parser.Node(kind(n), l == NIL ? null : nodes[l], r == NIL ? null : nodes[r], value(n), symbol(n));
+        }
+        return nodes;
+    }
+
+    /**
+     * Writes the AST of a node in the .par text format. The tree is walked
+     * with a stack of handles, not by recursion.
+     * @param root  Handle of the root, or NIL
+     * @param out   Sink to write to
+     */
+    void print(int root, TextSink out) {
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int n = stack[--top];
+            if (n == NIL) {
+                out.append(";\n");
+                continue;
+            }
+            Parser.NodeType nt = kind(n);
+            out.append(nt.toString());
+            if (nt == Parser.NodeType.nd_String) {
+                out.append(" \"").append(this.pool, this.starts[this.values[n]], valueLength(n)).append("\"\n");
+            } else if (nt == Parser.NodeType.nd_Ident || nt == Parser.NodeType.nd_Integer) {
+                out.append(' ').append(this.pool, this.starts[this.values[n]], valueLength(n)).append('\n');
+            } else {
+                out.append('\n');
+                if (top + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = this.rights[n];
+                stack[top++] = this.lefts[n];
+            }
+        }
+    }
+
+    private int valueLength(int n) {
+        int v = this.values[n];
+        return this.starts[v + 1] - this.starts[v];
+    }
+}
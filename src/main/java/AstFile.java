@@ -0,0 +1,224 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * AstFile is an AST saved in the binary .parb format, read by mapping the
+ * file into memory. Nodes are not turned into objects: kind, left, right
+ * and value read straight from the mapped file.
+ *
+ * The nodes are laid out in preorder, the order the .par text lists them,
+ * so node 0 is the root and the left child of an interior node is the
+ * node after it. Each node has a kind byte, NONE for a missing child, and
+ * an int that is the index of the right child for an interior node or the
+ * index of the value in the string table for a leaf.
+ */
+class AstFile {
+    private static final int MAGIC = 0x50415242; // "PARB"
+    private static final int VERSION = 1;
+    // Kind byte of a missing node
+    private static final byte NONE = -1;
+    private static final Parser.NodeType[] NODE_TYPES = Parser.NodeType.values();
+
+    private final ByteBuffer kinds;
+    private final IntBuffer operands;
+    private final IntBuffer offsets;
+    private final CharBuffer text;
+    private final int size;
+    private final String[] strings;
+
+    private AstFile(ByteBuffer bb, int size, int valueCount, int textLength) {
+        this.size = size;
+        this.strings = new String[valueCount];
+        this.operands = slice(bb, 20, size * 4).asIntBuffer();
+        this.offsets = slice(bb, 20 + size * 4, (valueCount + 1) * 4).asIntBuffer();
+        this.text = slice(bb, 20 + (size + valueCount + 1) * 4, textLength * 2).asCharBuffer();
+        this.kinds = slice(bb, 20 + (size + valueCount + 1) * 4 + textLength * 2, size);
+    }
+
+    private static ByteBuffer slice(ByteBuffer bb, int from, int length) {
+        ByteBuffer b = bb.duplicate();
+        b.position(from).limit(from + length);
+        return b.slice();
+    }
+
+    /**
+     * Writes an AST from an arena to a binary .parb file. The file holds a
+     * header (magic, version, node count, value count, text length), then
+     * the operand column as ints, the string table as value offsets and
+     * chars, and last the kind column as bytes.
+     * @param ast           Arena holding the AST
+     * @param root          Handle of the root, or NIL
+     * @param fileName      Name of the file to write
+     * @throws IOException  If the file cannot be written
+     */
+    static void write(AstArena ast, int root, String fileName) throws IOException {
+        // every node has two children or none, so the preorder has at most twice the nodes plus one,
+        // unless the arena shares subtrees and a shared one is listed each time it is used
+        int capacity = 2 * ast.size() + 1;
+        byte[] kinds = new byte[capacity];
+        int[] operands = new int[capacity];
+        int n = 0;
+
+        // stack of handles, each with the preorder index of the node whose right child it is, or -1
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = root;
+        stack[top++] = -1;
+        while (top > 0) {
+            int parent = stack[--top];
+            int h = stack[--top];
+            if (parent >= 0) {
+                operands[parent] = n;
+            }
+            if (n == kinds.length) {
+                kinds = Arrays.copyOf(kinds, n * 2);
+                operands = Arrays.copyOf(operands, n * 2);
+            }
+            int i = n++;
+            if (h == AstArena.NIL) {
+                kinds[i] = NONE;
+                continue;
+            }
+            Parser.NodeType nt = ast.kind(h);
+            kinds[i] = (byte) nt.ordinal();
+            if (nt == Parser.NodeType.nd_String || nt == Parser.NodeType.nd_Ident || nt == Parser.NodeType.nd_Integer) {
+                operands[i] = ast.valueIndex(h);
+            } else {
+                if (top + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = ast.right(h);
+                stack[top++] = i;
+                stack[top++] = ast.left(h);
+                stack[top++] = -1;
+            }
+        }
+
+        int valueCount = ast.valueCount();
+        int textLength = ast.valueStart(valueCount);
+        ByteBuffer bb = ByteBuffer.allocate(20 + (n + valueCount + 1) * 4 + textLength * 2 + n);
+        bb.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(valueCount).putInt(textLength);
+        bb.asIntBuffer().put(operands, 0, n);
+        bb.position(bb.position() + n * 4);
+        for (int v = 0; v <= valueCount; v++) {
+            bb.putInt(ast.valueStart(v));
+        }
+        bb.asCharBuffer().put(ast.valueText(), 0, textLength);
+        bb.position(bb.position() + textLength * 2);
+        bb.put(kinds, 0, n);
+        bb.flip();
+        try (FileChannel ch = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (bb.hasRemaining()) {
+                ch.write(bb);
+            }
+        }
+    }
+
+    /**
+     * Maps a binary .parb file written by write into memory
+     * @param fileName      Name of the file to read
+     * @return              AST in the file
+     * @throws IOException  If the file cannot be read or is not a .parb file
+     */
+    static AstFile read(String fileName) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer bb = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (bb.remaining() < 20 || bb.getInt() != MAGIC || bb.getInt() != VERSION) {
+                throw new IOException(fileName + " is not a .parb file");
+            }
+            int size = bb.getInt();
+            int valueCount = bb.getInt();
+            int textLength = bb.getInt();
+            if ((long) 20 + (size + valueCount + 1) * 4L + textLength * 2L + size != bb.capacity()) {
+                throw new IOException(fileName + " is not a .parb file");
+            }
+            return new AstFile(bb, size, valueCount, textLength);
+        }
+    }
+
+    int size() { return this.size; }
+    boolean isNone(int i) { return this.kinds.get(i) == NONE; }
+    int left(int i) { return i + 1; }
+    int right(int i) { return this.operands.get(i); }
+    int valueIndex(int i) { return this.operands.get(i); }
+
+    /**
+     * Gets the kind of a node
+     * @param i     Index of the node
+     * @return      Kind of the node, or null for a missing node
+     */
+    Parser.NodeType kind(int i) {
+        byte k = this.kinds.get(i);
+        return k == NONE ? null : NODE_TYPES[k];
+    }
+
+    /**
+     * Tells whether a node is a leaf, with a value and no children
+     * @param i     Index of the node
+     * @return      True for an identifier, integer or string
+     */
+    boolean isLeaf(int i) {
+        Parser.NodeType nt = kind(i);
+        return nt == Parser.NodeType.nd_String || nt == Parser.NodeType.nd_Ident || nt == Parser.NodeType.nd_Integer;
+    }
+
+    /**
+     * Gets the value of a node
+     * @param i     Index of the node
+     * @return      Value of a leaf, "" for any other node
+     */
+    String value(int i) {
+        if (!isLeaf(i)) {
+            return "";
+        }
+        int v = this.operands.get(i);
+        if (this.strings[v] == null) {
+            int from = this.offsets.get(v);
+            this.strings[v] = this.text.subSequence(from, this.offsets.get(v + 1)).toString();
+        }
+        return this.strings[v];
+    }
+
+    /**
+     * Writes the AST in the .par text format. Since the nodes are already
+     * in preorder this is one pass over them, with no stack.
+     * @param out       Sink to write to
+     * @param width     Width to pad the node types to, 0 for none
+     */
+    void print(TextSink out, int width) {
+        for (int i = 0; i < this.size; i++) {
+            Parser.NodeType nt = kind(i);
+            if (nt == null) {
+                out.append(";\n");
+                continue;
+            }
+            String name = nt.toString();
+            out.append(name).pad(width - name.length());
+            if (nt == Parser.NodeType.nd_String) {
+                out.append(" \"");
+                appendValue(i, out);
+                out.append("\"\n");
+            } else if (nt == Parser.NodeType.nd_Ident || nt == Parser.NodeType.nd_Integer) {
+                out.append(' ');
+                appendValue(i, out);
+                out.append('\n');
+            } else {
+                out.append('\n');
+            }
+        }
+    }
+
+    private void appendValue(int i, TextSink out) {
+        int v = this.operands.get(i);
+        for (int c = this.offsets.get(v), end = this.offsets.get(v + 1); c < end; c++) {
+            out.append(this.text.get(c));
+        }
+    }
+}
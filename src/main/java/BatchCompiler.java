@@ -0,0 +1,268 @@
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * BatchCompiler lexes and parses every source file under a directory, or
+ * every file matching a glob, each file as its own task. The .lex and .par
+ * outputs are written next to each source, and a summary with the time
+ * taken for each file is printed at the end.
+ *
+ * Tasks run on virtual threads when the JVM has them, and on a pool with
+ * one thread per processor otherwise. Reading and writing files is limited
+ * to a few tasks at a time so thousands of tasks do not all open files at
+ * once. A file with errors is reported in the summary, with every syntax
+ * error found in it, and does not stop the other files.
+ *
+ * Usage: BatchCompiler [--engine=table] dir|glob...
+ * For example: BatchCompiler src/main/resources 'src/**.c'
+ */
+class BatchCompiler {
+    // Number of tasks that may be reading or writing files at the same time
+    static final int IO_PERMITS = 16;
+
+    private final Semaphore io = new Semaphore(IO_PERMITS);
+    private final boolean table;
+
+    /**
+     * Constructs a BatchCompiler Object
+     * @param table     True to lex with the table-driven TableLexer
+     */
+    BatchCompiler(boolean table) {
+        this.table = table;
+    }
+
+    /**
+     * What happened to one source file.
+     */
+    static class Result {
+        final Path file;
+        int tokens;
+        long lexNanos, parseNanos, totalNanos;
+        String error;
+
+        Result(Path file) {
+            this.file = file;
+        }
+
+        @Override
+        public String toString() {
+            if (this.error != null) {
+                // one line for each error in the file
+                return String.format("%9s  %s: %s", "FAILED", this.file, this.error.replace("\n", "\n           "));
+            }
+            return String.format("%9.2f ms  lex %7.2f  parse %7.2f  %7d tokens  %s", this.totalNanos / 1e6,
+                    this.lexNanos / 1e6, this.parseNanos / 1e6, this.tokens, this.file);
+        }
+    }
+
+    /**
+     * Finds the source files a command line argument names. A directory
+     * gives all the .c files below it, anything else is taken as a glob,
+     * of which only the .c files are kept: the .lex and .par outputs
+     * written next to them must never be compiled as sources themselves.
+     * @param arg           Directory or glob
+     * @return              Matching files, sorted by name
+     * @throws IOException  If a directory cannot be walked
+     */
+    static List<Path> sources(String arg) throws IOException {
+        Path dir = Paths.get(arg.isEmpty() ? "." : arg);
+        String glob = "**.c";
+        if (!Files.isDirectory(dir)) {
+            // walk from the deepest directory before the first wildcard
+            int wildcard = indexOfAny(arg, "*?[{");
+            int slash = arg.lastIndexOf('/', wildcard < 0 ? arg.length() : wildcard);
+            dir = Paths.get(slash < 0 ? "." : arg.substring(0, Math.max(slash, 1)));
+            glob = arg.substring(slash + 1);
+        }
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        Path base = dir;
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(f -> f.getFileName().toString().endsWith(".c"))
+                    .filter(f -> matcher.matches(base.relativize(f)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static int indexOfAny(String s, String chars) {
+        for (int i = 0; i < s.length(); i++) {
+            if (chars.indexOf(s.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Lexes and parses one source file and writes its .lex and .par outputs
+     * @param file  Source file
+     * @return      Timing and token count for the file, or the error it gave
+     */
+    Result compile(Path file) {
+        Result r = new Result(file);
+        long start = System.nanoTime();
+        try {
+            String source;
+            this.io.acquire();
+            try {
+                source = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            } finally {
+                this.io.release();
+            }
+
+            long lexStart = System.nanoTime();
+            // a streamed Lexer, so the tokens are the same as LexerFiles gives
+            StringReader in = new StringReader(source);
+            TokenBuffer tokens = (this.table ? new TableLexer(in) : new Lexer(in)).tokenize();
+            TextSink lex = new TextSink();
+            for (int i = 0; i < tokens.size(); i++) {
+                if (i > 0) {
+                    lex.append('\n');
+                }
+                lex.token(tokens, i);
+            }
+            r.tokens = tokens.size();
+
+            long parseStart = System.nanoTime();
+            TextSink par = new TextSink();
+            // the .par text is written straight from the arena, without making Node objects
+            Parser parser = new Parser(tokens);
+            parser.recoverErrors();
+            int root = parser.parseArena();
+            parser.throwErrors();
+            parser.arena().print(root, par);
+            long parseEnd = System.nanoTime();
+
+            this.io.acquire();
+            try {
+                Files.write(output(file, ".lex"), lex.toString().getBytes(StandardCharsets.UTF_8));
+                Files.write(output(file, ".par"), par.toString().getBytes(StandardCharsets.UTF_8));
+            } finally {
+                this.io.release();
+            }
+            r.lexNanos = parseStart - lexStart;
+            r.parseNanos = parseEnd - parseStart;
+        } catch (CompileError e) {
+            r.error = e.getMessage();
+        } catch (IOException e) {
+            r.error = e.toString();
+        } catch (RuntimeException | Error e) {
+            // a bug one file runs into fails that file, not the whole batch
+            r.error = e.toString();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            r.error = "interrupted";
+        }
+        r.totalNanos = System.nanoTime() - start;
+        return r;
+    }
+
+    /**
+     * Gets the name of an output file next to a source file
+     * @param file      Source file
+     * @param ext       Extension of the output, such as ".lex"
+     * @return          Source file name with its extension replaced
+     */
+    static Path output(Path file, String ext) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return file.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + ext);
+    }
+
+    /**
+     * Compiles all the files, each as its own task
+     * @param files     Source files
+     * @return          Results in the same order as the files
+     * @throws InterruptedException  If interrupted while waiting for the tasks
+     */
+    List<Result> compileAll(List<Path> files) throws InterruptedException {
+        ExecutorService pool = newExecutor();
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (Path f : files) {
+                futures.add(pool.submit(() -> compile(f)));
+            }
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> f : futures) {
+                try {
+                    results.add(f.get());
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Makes an executor with a virtual thread per task. Virtual threads are
+     * looked up by name, so this also builds and runs on JDKs without them,
+     * or with them only as a preview, and falls back to a fixed pool there.
+     * @return      Executor to run the tasks on
+     */
+    static ExecutorService newExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    public static void main(String[] args) {
+        boolean table = false;
+        List<Path> files = new ArrayList<>();
+        try {
+            for (String arg : args) {
+                if (arg.equals("--engine=table")) {
+                    table = true;
+                } else {
+                    files.addAll(sources(arg));
+                }
+            }
+        } catch (IOException e) {
+            new CompileError("Exception: " + e.getMessage()).exit();
+        }
+        if (files.isEmpty()) {
+            new CompileError("No source files").exit();
+        }
+
+        long start = System.nanoTime();
+        List<Result> results;
+        try {
+            results = new BatchCompiler(table).compileAll(files);
+        } catch (InterruptedException e) {
+            return;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int failed = 0;
+        for (Result r : results) {
+            System.out.println(r);
+            if (r.error != null) {
+                failed++;
+            }
+        }
+        System.out.printf("%d files, %d failed, %.1f ms, %.0f files/s%n", results.size(), failed,
+                seconds * 1e3, results.size() / seconds);
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Bytecode is a program compiled for a stack machine: its instructions
+ * packed into an int array, the names of its variables, which are the data
+ * slots fetch and store use, and its string constants.
+ *
+ * Each instruction is an opcode, followed by one operand for the opcodes
+ * that take one: the slot of fetch and store, the value of push, the
+ * address of jmp and jz, and the string index of prts. Addresses are
+ * indices into the code array. Operators take their operands off the
+ * stack and push their result; jz jumps if the value it takes off is 0.
+ */
+class Bytecode {
+    static final int FETCH = 0, STORE = 1, PUSH = 2, ADD = 3, SUB = 4, MUL = 5, DIV = 6, MOD = 7,
+            LT = 8, GT = 9, LE = 10, GE = 11, EQ = 12, NE = 13, NEG = 14, NOT = 15,
+            JMP = 16, JZ = 17, PRTC = 18, PRTS = 19, PRTI = 20, HALT = 21;
+    // Number of opcodes; a VM may number its own instructions from here on
+    static final int OPCODES = 22;
+    private static final String[] NAMES = {"fetch", "store", "push", "add", "sub", "mul", "div", "mod",
+        "lt", "gt", "le", "ge", "eq", "ne", "neg", "not", "jmp", "jz", "prtc", "prts", "prti", "halt"};
+
+    final int[] code;
+    final int length;
+    // variables[s] is the name of data slot s
+    final String[] variables;
+    // string constants as they are written in the source, escapes and all
+    final String[] strings;
+
+    /**
+     * Constructs a new Bytecode Object.
+     * @param code      Instructions, from 0 up to length
+     * @param length    Number of ints of code
+     * @param variables Names of the data slots
+     * @param strings   String constants
+     */
+    Bytecode(int[] code, int length, String[] variables, String[] strings) {
+        this.code = code;
+        this.length = length;
+        this.variables = variables;
+        this.strings = strings;
+    }
+
+    /**
+     * Tells whether an opcode is followed by an operand
+     * @param op    The opcode
+     * @return      True for fetch, store, push, jmp, jz and prts
+     */
+    static boolean hasOperand(int op) {
+        return op <= PUSH || op == JMP || op == JZ || op == PRTS;
+    }
+
+    /**
+     * Gets the name an opcode is listed under
+     * @param op    The opcode
+     * @return      Its name
+     */
+    static String name(int op) {
+        return NAMES[op];
+    }
+
+    /**
+     * Writes the assembly listing: the data size and strings, then one
+     * instruction to a line with its address. A jump shows how far it
+     * jumps and where to.
+     * @param out   Sink to write to
+     */
+    void list(TextSink out) {
+        out.append("Datasize: ").append(this.variables.length, 0)
+                .append(" Strings: ").append(this.strings.length, 0).append('\n');
+        for (String s : this.strings) {
+            out.append('"').append(s).append("\"\n");
+        }
+        for (int pc = 0; pc < this.length; ) {
+            int op = this.code[pc];
+            String name = NAMES[op];
+            out.append(pc, 5).append(' ').append(name);
+            if (hasOperand(op)) {
+                int operand = this.code[pc + 1];
+                out.pad(6 - name.length()).append(' ');
+                if (op == FETCH || op == STORE) {
+                    out.append('[').append(operand, 0).append(']');
+                } else if (op == JMP || op == JZ) {
+                    out.append('(').append(operand - (pc + 1), 0).append(") ").append(operand, 0);
+                } else if (op == PRTS) {
+                    out.append('"').append(this.strings[operand]).append('"');
+                } else {
+                    out.append(operand, 0);
+                }
+                pc += 2;
+            } else {
+                pc++;
+            }
+            out.append('\n');
+        }
+    }
+}
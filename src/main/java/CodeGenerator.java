@@ -0,0 +1,266 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * CodeGenerator compiles a Parser.Node tree to Bytecode for a stack
+ * machine. Each variable gets a data slot and each string constant an
+ * index, in the order they first come up. The tree is walked with a stack
+ * of frames, not by recursion, so deeply nested programs compile on a small
+ * thread stack.
+ *
+ * if and while become jz and jmp around their branches and bodies. && and
+ * || jump over their right side when the left side decides the result, the
+ * way the Interpreter works them out, and leave 1 or 0.
+ */
+class CodeGenerator {
+    private int[] code = new int[256];
+    private int length;
+    private final SymbolTable.Slots slots = new SymbolTable.Slots();
+    private final Map<String, Integer> strings = new LinkedHashMap<>();
+
+    /**
+     * Compiles a program
+     * @param tree  Root of the AST of the program
+     * @return      The program, ending with halt
+     */
+    static Bytecode generate(Parser.Node tree) {
+        CodeGenerator g = new CodeGenerator();
+        g.statement(tree);
+        g.emit(Bytecode.HALT);
+        return new Bytecode(g.code, g.length, g.slots.names(),
+                g.strings.keySet().toArray(new String[0]));
+    }
+
+    private void emit(int op) {
+        if (this.length + 2 > this.code.length) {
+            this.code = Arrays.copyOf(this.code, this.code.length * 2);
+        }
+        this.code[this.length++] = op;
+    }
+
+    /**
+     * Emits an instruction with an operand
+     * @return      Address of the operand, for a jump to be patched later
+     */
+    private int emit(int op, int operand) {
+        emit(op);
+        this.code[this.length] = operand;
+        return this.length++;
+    }
+
+    // points the jump whose operand is at address at to the next instruction
+    private void patch(int at) {
+        this.code[at] = this.length;
+    }
+
+    /**
+     * Emits the code for a tree. A frame is a node, how far its code has
+     * got, and two saved addresses: jumps waiting to be patched or the top
+     * of a loop.
+     * @param tree  Root of the tree, or null
+     */
+    private void statement(Parser.Node tree) {
+        Parser.Node[] nodes = new Parser.Node[64];
+        int[] states = new int[64];
+        int[] marks = new int[128];
+        int top = 0;
+        if (tree != null) {
+            nodes[top] = tree;
+            states[top++] = 0;
+        }
+
+        while (top > 0) {
+            int f = top - 1;
+            Parser.Node n = nodes[f];
+            int state = states[f]++;
+            // the child to emit next, or null if there is none right now
+            Parser.Node next = null;
+            switch (n.nt) {
+                case nd_Sequence:
+                    if (state == 0) {
+                        next = n.left;
+                    } else if (state == 1) {
+                        next = n.right;
+                    } else {
+                        top--;
+                    }
+                    break;
+                case nd_Integer:
+                    emit(Bytecode.PUSH, Interpreter.integer(n.value));
+                    top--;
+                    break;
+                case nd_Ident:
+                    emit(Bytecode.FETCH, this.slots.slot(n));
+                    top--;
+                    break;
+                case nd_Assign:
+                    if (state == 0) {
+                        next = n.right;
+                    } else {
+                        emit(Bytecode.STORE, this.slots.slot(n.left));
+                        top--;
+                    }
+                    break;
+                case nd_If: {
+                    // the right child is an If holding the two branches
+                    Parser.Node branches = n.right;
+                    if (state == 0) {
+                        next = n.left;
+                    } else if (state == 1) {
+                        marks[2 * f] = emit(Bytecode.JZ, 0);
+                        next = branches == null ? null : branches.left;
+                    } else if (state == 2 && branches != null && branches.right != null) {
+                        int end = emit(Bytecode.JMP, 0);
+                        patch(marks[2 * f]);
+                        marks[2 * f] = end;
+                        next = branches.right;
+                    } else {
+                        patch(marks[2 * f]);
+                        top--;
+                    }
+                    break;
+                }
+                case nd_While:
+                    if (state == 0) {
+                        marks[2 * f + 1] = this.length;
+                        next = n.left;
+                    } else if (state == 1) {
+                        marks[2 * f] = emit(Bytecode.JZ, 0);
+                        next = n.right;
+                    } else {
+                        emit(Bytecode.JMP, marks[2 * f + 1]);
+                        patch(marks[2 * f]);
+                        top--;
+                    }
+                    break;
+                case nd_Prtc:
+                case nd_Prti:
+                    if (state == 0) {
+                        next = n.left;
+                    } else {
+                        emit(n.nt == Parser.NodeType.nd_Prtc ? Bytecode.PRTC : Bytecode.PRTI);
+                        top--;
+                    }
+                    break;
+                case nd_Prts:
+                    emit(Bytecode.PRTS, this.strings.computeIfAbsent(n.left.value, k -> this.strings.size()));
+                    top--;
+                    break;
+                case nd_Negate:
+                case nd_Not:
+                    if (state == 0) {
+                        next = n.left;
+                    } else {
+                        emit(n.nt == Parser.NodeType.nd_Negate ? Bytecode.NEG : Bytecode.NOT);
+                        top--;
+                    }
+                    break;
+                case nd_And:
+                    // left; jz F; right; push 0; ne; jmp E; F: push 0; E:
+                    if (state == 0) {
+                        next = n.left;
+                    } else if (state == 1) {
+                        marks[2 * f] = emit(Bytecode.JZ, 0);
+                        next = n.right;
+                    } else {
+                        emit(Bytecode.PUSH, 0);
+                        emit(Bytecode.NE);
+                        int end = emit(Bytecode.JMP, 0);
+                        patch(marks[2 * f]);
+                        emit(Bytecode.PUSH, 0);
+                        patch(end);
+                        top--;
+                    }
+                    break;
+                case nd_Or:
+                    // left; jz R; push 1; jmp E; R: right; push 0; ne; E:
+                    if (state == 0) {
+                        next = n.left;
+                    } else if (state == 1) {
+                        int right = emit(Bytecode.JZ, 0);
+                        emit(Bytecode.PUSH, 1);
+                        marks[2 * f] = emit(Bytecode.JMP, 0);
+                        patch(right);
+                        next = n.right;
+                    } else {
+                        emit(Bytecode.PUSH, 0);
+                        emit(Bytecode.NE);
+                        patch(marks[2 * f]);
+                        top--;
+                    }
+                    break;
+                default:
+                    // a binary operator
+                    if (state == 0) {
+                        next = n.left;
+                    } else if (state == 1) {
+                        next = n.right;
+                    } else {
+                        emit(operator(n.nt));
+                        top--;
+                    }
+                    break;
+            }
+            if (next != null) {
+                if (top == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, top * 2);
+                    states = Arrays.copyOf(states, top * 2);
+                    marks = Arrays.copyOf(marks, top * 4);
+                }
+                nodes[top] = next;
+                states[top++] = 0;
+            }
+        }
+    }
+
+    private static int operator(Parser.NodeType nt) {
+        switch (nt) {
+            case nd_Add: return Bytecode.ADD;
+            case nd_Sub: return Bytecode.SUB;
+            case nd_Mul: return Bytecode.MUL;
+            case nd_Div: return Bytecode.DIV;
+            case nd_Mod: return Bytecode.MOD;
+            case nd_Lss: return Bytecode.LT;
+            case nd_Gtr: return Bytecode.GT;
+            case nd_Leq: return Bytecode.LE;
+            case nd_Geq: return Bytecode.GE;
+            case nd_Eql: return Bytecode.EQ;
+            case nd_Neq: return Bytecode.NE;
+            default: throw new IllegalArgumentException(nt.name());
+        }
+    }
+
+    /**
+     * Compiles a source file and writes its assembly listing.
+     * @param args      Source file name, and optionally the output filename.
+     */
+    public static void main(String[] args) {
+        try {
+            if (args.length == 0) {
+                Parser.error(-1, -1, "No args");
+            }
+            String outFileName = args.length > 1 ? args[1] : "src/main/resources/hello.asm";
+            TokenBuffer tokens;
+            try (Lexer lexer = Lexer.open(args[0])) {
+                tokens = lexer.tokenize();
+            }
+            Parser parser = new Parser(tokens);
+            parser.recoverErrors();
+            Parser.Node tree = parser.parse();
+            parser.throwErrors();
+            Bytecode program = generate(tree);
+            TextSink echo = TextSink.console();
+            if (echo != null) {
+                program.list(echo);
+                echo.flush();
+            }
+            Parser.outputToFile(outFileName, program::list);
+        } catch (IOException e) {
+            new CompileError("Exception: " + e.getMessage()).exit();
+        } catch (CompileError e) {
+            e.exit();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CompileClient sends compile requests to a CompileServer over its Unix
+ * domain socket and hands back the token and AST text it replies with.
+ * One client keeps its connection open for any number of requests.
+ *
+ * Usage: CompileClient [--socket=path] [--outputs=lex,par] file...
+ */
+class CompileClient implements Closeable {
+    private final SocketChannel ch;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * Constructs a CompileClient Object connected to a server
+     * @param socket        Path of the server's socket file
+     * @throws IOException  If the server cannot be reached
+     */
+    CompileClient(Path socket) throws IOException {
+        this.ch = SocketChannel.open(StandardProtocolFamily.UNIX);
+        this.ch.connect(UnixDomainSocketAddress.of(socket));
+        this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(this.ch)));
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(this.ch)));
+    }
+
+    /**
+     * Compiles a source file the server can read
+     * @param outputs   Outputs wanted, such as "lex,par"
+     * @param fileName  Name of the source file
+     * @return          The outputs, in the order asked for
+     * @throws IOException      If the server cannot be reached
+     * @throws CompileError     With every error the server found
+     */
+    List<String> compileFile(String outputs, String fileName) throws IOException {
+        return request(outputs + " file " + fileName);
+    }
+
+    /**
+     * Compiles source text sent along with the request
+     * @param outputs   Outputs wanted, such as "lex,par"
+     * @param source    Source code
+     * @return          The outputs, in the order asked for
+     * @throws IOException      If the server cannot be reached
+     * @throws CompileError     With every error the server found
+     */
+    List<String> compileText(String outputs, String source) throws IOException {
+        return request(outputs + " text\n" + source);
+    }
+
+    private List<String> request(String request) throws IOException {
+        CompileServer.writeMessage(this.out, request);
+        this.out.flush();
+        String status = CompileServer.readMessage(this.in);
+        if (status.equals("error")) {
+            throw new CompileError(CompileServer.readMessage(this.in));
+        }
+        int n = request.substring(0, request.indexOf(' ')).split(",").length;
+        List<String> outputs = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            outputs.add(CompileServer.readMessage(this.in));
+        }
+        return outputs;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.ch.close();
+    }
+
+    public static void main(String[] args) {
+        Path socket = CompileServer.defaultSocket();
+        String outputs = "lex,par";
+        List<String> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--socket=")) {
+                socket = Paths.get(arg.substring("--socket=".length()));
+            } else if (arg.startsWith("--outputs=")) {
+                outputs = arg.substring("--outputs=".length());
+            } else {
+                files.add(arg);
+            }
+        }
+        if (files.isEmpty()) {
+            new CompileError("No args").exit();
+        }
+        boolean failed = false;
+        try (CompileClient client = new CompileClient(socket)) {
+            for (String f : files) {
+                try {
+                    for (String output : client.compileFile(outputs, Paths.get(f).toAbsolutePath().toString())) {
+                        System.out.println(output);
+                    }
+                } catch (CompileError e) {
+                    System.out.println(f + ": " + e.getMessage());
+                    failed = true;
+                }
+            }
+        } catch (IOException e) {
+            new CompileError("Exception: " + e.getMessage()).exit();
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
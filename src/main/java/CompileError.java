@@ -0,0 +1,67 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown by Lexer.error and Parser.error when a compile cannot go on, and
+ * by Parser.throwErrors with every error a recovering parse found.
+ * The message is the text the error methods used to print before exiting,
+ * one line for each error, so a caller compiling many files in one JVM can
+ * report it and carry on with the next file.
+ */
+class CompileError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    private final List<Diagnostic> diagnostics;
+
+    /**
+     * Constructs a new CompileError Object.
+     * @param msg   Error message, with the line and position if there is one
+     */
+    CompileError(String msg) {
+        this(new Diagnostic(-1, -1, msg));
+    }
+
+    /**
+     * Constructs a new CompileError Object for one error.
+     * @param d     The error
+     */
+    CompileError(Diagnostic d) {
+        super(d.toString());
+        this.diagnostics = Collections.singletonList(d);
+    }
+
+    /**
+     * Constructs a new CompileError Object for several errors.
+     * @param diagnostics   The errors, in the order they were found
+     */
+    CompileError(List<Diagnostic> diagnostics) {
+        super(join(diagnostics));
+        this.diagnostics = Collections.unmodifiableList(diagnostics);
+    }
+
+    private static String join(List<Diagnostic> diagnostics) {
+        StringBuilder sb = new StringBuilder();
+        for (Diagnostic d : diagnostics) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(d);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Gets the errors this was thrown for
+     * @return      One or more errors, in the order they were found
+     */
+    List<Diagnostic> diagnostics() {
+        return this.diagnostics;
+    }
+
+    /**
+     * Prints the message and exits, as the command line tools do on an error
+     */
+    void exit() {
+        System.out.println(getMessage());
+        System.exit(1);
+    }
+}
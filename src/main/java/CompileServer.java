@@ -0,0 +1,267 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * CompileServer keeps the Lexer and Parser warm in one long-running JVM and
+ * compiles sources sent to it over a Unix domain socket, so a compile pays
+ * for no JVM startup and runs on code the JIT has already compiled.
+ *
+ * Each connection is served on a thread of its own, since it holds the
+ * thread until the client hangs up, and may send any number of requests
+ * one after another. A
+ * message either way is a 4-byte length and that many bytes of UTF-8 text.
+ * A request is the outputs wanted, "lex", "par" or "lex,par", then a space
+ * and either "file" and the path of a source file, or "text", a newline and
+ * the source itself. The reply is "ok" and one message for each output in
+ * the order asked for, or "error" and one message with every error found.
+ * The outputs are the same text LexerFiles and Parser.main write.
+ *
+ * Usage: CompileServer [socket]
+ */
+class CompileServer implements Closeable {
+    // Longest message read, so a bad length cannot ask for any amount of memory
+    static final int MAX_MESSAGE = 1 << 26;
+
+    private final Path socket;
+    private final ServerSocketChannel server;
+    // a thread for each open connection, kept for the next one when it closes
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+
+    /**
+     * Constructs a CompileServer Object listening on a socket. A socket file
+     * left behind by a server that did not shut down is replaced, but
+     * anything else already at the path is left alone.
+     * @param socket        Path of the socket file
+     * @throws IOException  If the path holds something other than a stale
+     *                      socket, or the socket cannot be bound
+     */
+    CompileServer(Path socket) throws IOException {
+        this.socket = socket;
+        removeStaleSocket(socket);
+        this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        this.server.bind(UnixDomainSocketAddress.of(socket));
+    }
+
+    /**
+     * Deletes a socket file no server is listening on any more. A path that
+     * is a regular file, a directory or a link, or a socket a server still
+     * answers on, is an error, so a mistyped path never deletes anything.
+     * @param socket        Path of the socket file
+     * @throws IOException  If the path is there and is not a stale socket
+     */
+    private static void removeStaleSocket(Path socket) throws IOException {
+        if (!Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        if (!Files.readAttributes(socket, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) {
+            throw new IOException(socket + " is there and is not a socket");
+        }
+        try (SocketChannel ch = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            ch.connect(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            // nothing answers, so it was left behind
+            Files.delete(socket);
+            return;
+        }
+        throw new IOException("A server is already listening on " + socket);
+    }
+
+    /**
+     * Gets the socket file a server listens on when none is given
+     * @return      Path of the socket file in the temporary directory
+     */
+    static Path defaultSocket() {
+        return Paths.get(System.getProperty("java.io.tmpdir"), "minicompiler.sock");
+    }
+
+    /**
+     * Accepts connections and serves each on its own thread until the
+     * server is closed
+     * @throws IOException  If accepting a connection fails
+     */
+    void serve() throws IOException {
+        while (true) {
+            SocketChannel ch;
+            try {
+                ch = this.server.accept();
+            } catch (AsynchronousCloseException e) {
+                return;
+            }
+            this.pool.submit(() -> serve(ch));
+        }
+    }
+
+    /**
+     * Answers the requests on one connection until the client closes it
+     * @param ch    Connection to a client
+     */
+    private void serve(SocketChannel ch) {
+        try (SocketChannel c = ch) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(c)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(c)));
+            while (true) {
+                String request;
+                try {
+                    request = readMessage(in);
+                } catch (EOFException e) {
+                    return;
+                }
+                List<String> reply;
+                try {
+                    reply = compile(request);
+                    reply.add(0, "ok");
+                } catch (CompileError e) {
+                    reply = new ArrayList<>();
+                    reply.add("error");
+                    reply.add(e.getMessage());
+                } catch (RuntimeException e) {
+                    // a bug on one request is reported to the client, and the connection goes on
+                    reply = new ArrayList<>();
+                    reply.add("error");
+                    reply.add("Exception: " + e);
+                }
+                for (String s : reply) {
+                    writeMessage(out, s);
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the client went away; nothing to answer
+        }
+    }
+
+    /**
+     * Compiles the source a request names into the outputs it asks for
+     * @param request   Request text
+     * @return          The outputs, in the order asked for
+     * @throws CompileError     With every error in the source, or if the request is bad
+     */
+    static List<String> compile(String request) {
+        int nl = request.indexOf('\n');
+        String[] head = (nl < 0 ? request : request.substring(0, nl)).split(" ", 3);
+        if (head.length < 2) {
+            throw new CompileError("Bad request: " + request);
+        }
+        TokenBuffer tokens;
+        try {
+            if (head[1].equals("file") && head.length == 3) {
+                // closed even when lexing stops on an error, as the server runs for a long time
+                try (Lexer lexer = Lexer.open(head[2])) {
+                    tokens = lexer.tokenize();
+                }
+            } else if (head[1].equals("text") && nl >= 0) {
+                // a streamed Lexer, so the tokens are the same as for a file holding the text
+                tokens = new Lexer(new StringReader(request.substring(nl + 1))).tokenize();
+            } else {
+                throw new CompileError("Bad request: " + request.substring(0, nl < 0 ? request.length() : nl));
+            }
+        } catch (IOException e) {
+            throw new CompileError("Exception: " + e.getMessage());
+        } catch (UncheckedIOException e) {
+            // a streamed Lexer wraps what goes wrong reading, such as bytes that are not UTF-8
+            throw new CompileError("Exception: " + e.getCause());
+        }
+
+        List<String> outputs = new ArrayList<>();
+        // a new arena for each request, so the values and names of one are not kept for the next
+        AstArena ast = null;
+        int root = AstArena.NIL;
+        for (String output : head[0].split(",")) {
+            TextSink text = new TextSink();
+            if (output.equals("lex")) {
+                for (int i = 0; i < tokens.size(); i++) {
+                    if (i > 0) {
+                        text.append('\n');
+                    }
+                    text.token(tokens, i);
+                }
+            } else if (output.equals("par")) {
+                if (ast == null) {
+                    Parser parser = new Parser(tokens);
+                    parser.recoverErrors();
+                    root = parser.parseArena();
+                    parser.throwErrors();
+                    ast = parser.arena();
+                }
+                ast.print(root, text);
+            } else {
+                throw new CompileError("Unknown output: " + output);
+            }
+            outputs.add(text.toString());
+        }
+        return outputs;
+    }
+
+    /**
+     * Reads one message: a 4-byte length and that many bytes of UTF-8
+     * @param in    Stream to read from
+     * @return      Text of the message
+     * @throws IOException  If the stream ends or cannot be read, or the length is bad
+     */
+    static String readMessage(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_MESSAGE) {
+            throw new IOException("Bad message length: " + length);
+        }
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes one message: a 4-byte length and that many bytes of UTF-8
+     * @param out   Stream to write to
+     * @param s     Text of the message
+     * @throws IOException  If the stream cannot be written
+     */
+    static void writeMessage(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    /**
+     * Stops accepting connections, lets the ones open finish and removes
+     * the socket file
+     * @throws IOException  If the socket file cannot be removed
+     */
+    @Override
+    public void close() throws IOException {
+        this.server.close();
+        this.pool.shutdown();
+        Files.deleteIfExists(this.socket);
+    }
+
+    public static void main(String[] args) {
+        Path socket = args.length > 0 ? Paths.get(args[0]) : defaultSocket();
+        try (CompileServer server = new CompileServer(socket)) {
+            System.out.println("Listening on " + socket);
+            server.serve();
+        } catch (IOException e) {
+            new CompileError("Exception: " + e.getMessage()).exit();
+        }
+    }
+}
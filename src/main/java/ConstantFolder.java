@@ -0,0 +1,359 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * ConstantFolder simplifies a Parser.Node tree before it is run. It folds
+ * arithmetic, comparisons and logic on integer literals the way C does it
+ * on 32-bit ints, applies identities such as x * 1, x + 0 and -(-x), drops
+ * !!x where only the truth of x matters, prunes if and while statements
+ * whose condition is a constant, and drops empty statements from sequences.
+ *
+ * A division or remainder by zero is left in the tree, so it fails when the
+ * program runs, as it would have before. The tree it is given is not
+ * changed: nodes that change are copied, and nodes that do not are shared
+ * with the new tree, so trees from an arena that shares subtrees are safe
+ * to fold. The tree is walked with a stack of nodes, not by recursion.
+ */
+class ConstantFolder {
+
+    /**
+     * The rewrites the folder makes, each counted separately.
+     */
+    static enum Rule {
+        FOLD("constant folding"), IDENTITY("identity"), DOUBLE_NEGATION("double negation"),
+        DEAD_BRANCH("dead branch"), EMPTY_STATEMENT("empty statement");
+
+        private final String name;
+
+        Rule(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() { return this.name; }
+    }
+
+    // What a stack entry is waiting for: its children to be visited, or to be put back together
+    private static final int VISIT = 0, COMBINE = 1;
+    // The same for the inner If of an if statement, which holds the branches and is not itself a statement
+    private static final int VISIT_BRANCHES = 2, COMBINE_BRANCHES = 3;
+
+    // Nodes removed by each rule
+    private final int[] removed = new int[Rule.values().length];
+
+    /**
+     * Simplifies a tree
+     * @param root  Root of the tree
+     * @return      Root of the simplified tree, null if nothing is left of it
+     */
+    Parser.Node fold(Parser.Node root) {
+        Parser.Node[] stack = new Parser.Node[64];
+        int[] states = new int[64];
+        int top = 0;
+        Parser.Node[] results = new Parser.Node[64];
+        int count = 0;
+
+        stack[top] = root;
+        states[top++] = VISIT;
+        while (top > 0) {
+            Parser.Node n = stack[--top];
+            int state = states[top];
+            if (state == VISIT || state == VISIT_BRANCHES) {
+                if (n == null || isLeaf(n)) {
+                    if (count == results.length) {
+                        results = Arrays.copyOf(results, count * 2);
+                    }
+                    results[count++] = n;
+                    continue;
+                }
+                if (top + 3 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                    states = Arrays.copyOf(states, stack.length);
+                }
+                stack[top] = n;
+                states[top++] = state + 1;
+                stack[top] = n.right;
+                states[top++] = n.nt == Parser.NodeType.nd_If && state == VISIT ? VISIT_BRANCHES : VISIT;
+                stack[top] = n.left;
+                states[top++] = VISIT;
+                continue;
+            }
+            Parser.Node r = results[--count];
+            Parser.Node l = results[--count];
+            results[count++] = state == COMBINE ? simplify(n, l, r) : copy(n, l, r);
+        }
+        return results[0];
+    }
+
+    /**
+     * Gets the number of nodes a rule removed, over all the trees folded
+     * @param rule  Rule to ask about
+     * @return      Number of nodes removed
+     */
+    int removed(Rule rule) {
+        return this.removed[rule.ordinal()];
+    }
+
+    /**
+     * Lists the number of nodes each rule removed, one rule to a line
+     * @return      The report
+     */
+    String report() {
+        TextSink out = new TextSink();
+        int total = 0;
+        for (Rule rule : Rule.values()) {
+            String name = rule.toString();
+            out.append(name).pad(18 - name.length()).append(Integer.toString(removed(rule))).append('\n');
+            total += removed(rule);
+        }
+        out.append("total").pad(13).append(Integer.toString(total)).append('\n');
+        return out.toString();
+    }
+
+    /**
+     * Simplifies a node whose children are already simplified
+     * @param n     The node as it was
+     * @param l     Its simplified left child
+     * @param r     Its simplified right child
+     * @return      The simplified node
+     */
+    private Parser.Node simplify(Parser.Node n, Parser.Node l, Parser.Node r) {
+        switch (n.nt) {
+            case nd_Sequence:
+                if (l == null || r == null) {
+                    count(Rule.EMPTY_STATEMENT, 1);
+                    return l == null ? r : l;
+                }
+                break;
+            case nd_If: {
+                l = truth(l);
+                if (isConstant(l)) {
+                    // r is the inner If holding the branches
+                    boolean taken = constant(l) != 0;
+                    Parser.Node kept = taken ? r.left : r.right;
+                    count(Rule.DEAD_BRANCH, 2 + size(l) + size(taken ? r.right : r.left));
+                    return kept;
+                }
+                break;
+            }
+            case nd_While:
+                l = truth(l);
+                if (isConstant(l) && constant(l) == 0) {
+                    count(Rule.DEAD_BRANCH, 1 + size(l) + size(r));
+                    return null;
+                }
+                break;
+            case nd_Negate:
+                if (isConstant(l)) {
+                    count(Rule.FOLD, 1);
+                    return integer(-constant(l));
+                }
+                if (l != null && l.nt == Parser.NodeType.nd_Negate) {
+                    count(Rule.DOUBLE_NEGATION, 2);
+                    return l.left;
+                }
+                break;
+            case nd_Not:
+                l = truth(l);
+                if (isConstant(l)) {
+                    count(Rule.FOLD, 1);
+                    return integer(constant(l) == 0 ? 1 : 0);
+                }
+                break;
+            case nd_And:
+            case nd_Or:
+                l = truth(l);
+                r = truth(r);
+                if (isConstant(l)) {
+                    boolean left = constant(l) != 0;
+                    // the right side is not looked at: 0 && x is 0 and 1 || x is 1
+                    if (left == (n.nt == Parser.NodeType.nd_Or)) {
+                        count(Rule.FOLD, 1 + size(r));
+                        return integer(left ? 1 : 0);
+                    }
+                    if (isConstant(r)) {
+                        count(Rule.FOLD, 2);
+                        return integer(constant(r) != 0 ? 1 : 0);
+                    }
+                }
+                break;
+            case nd_Mul: case nd_Div: case nd_Mod: case nd_Add: case nd_Sub:
+            case nd_Lss: case nd_Leq: case nd_Gtr: case nd_Geq: case nd_Eql: case nd_Neq:
+                if (isConstant(l) && isConstant(r)) {
+                    int a = constant(l), b = constant(r);
+                    if (b != 0 || (n.nt != Parser.NodeType.nd_Div && n.nt != Parser.NodeType.nd_Mod)) {
+                        count(Rule.FOLD, 2);
+                        return integer(evaluate(n.nt, a, b));
+                    }
+                }
+                Parser.Node same = identity(n.nt, l, r);
+                if (same != null) {
+                    count(Rule.IDENTITY, 2);
+                    return same;
+                }
+                break;
+            default:
+                break;
+        }
+        return copy(n, l, r);
+    }
+
+    /**
+     * Finds what x + 0, 0 + x, x - 0, x * 1, 1 * x and x / 1 come to
+     * @param nt    Kind of the operation
+     * @param l     Left operand
+     * @param r     Right operand
+     * @return      The operand the operation comes to, or null if it is not an identity
+     */
+    private static Parser.Node identity(Parser.NodeType nt, Parser.Node l, Parser.Node r) {
+        if (l == null || r == null) {
+            return null;
+        }
+        switch (nt) {
+            case nd_Add:
+                return is(r, 0) ? l : is(l, 0) ? r : null;
+            case nd_Sub:
+                return is(r, 0) ? l : null;
+            case nd_Mul:
+                return is(r, 1) ? l : is(l, 1) ? r : null;
+            case nd_Div:
+                return is(r, 1) ? l : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Works out a binary operation on two ints as C does. Division and
+     * remainder truncate toward zero, and results wrap around on overflow.
+     * @param nt    Kind of the operation
+     * @param a     Left operand
+     * @param b     Right operand, not 0 for division and remainder
+     * @return      The result, 1 or 0 for a comparison
+     */
+    static int evaluate(Parser.NodeType nt, int a, int b) {
+        switch (nt) {
+            case nd_Mul: return a * b;
+            case nd_Div: return a / b;
+            case nd_Mod: return a % b;
+            case nd_Add: return a + b;
+            case nd_Sub: return a - b;
+            case nd_Lss: return a < b ? 1 : 0;
+            case nd_Leq: return a <= b ? 1 : 0;
+            case nd_Gtr: return a > b ? 1 : 0;
+            case nd_Geq: return a >= b ? 1 : 0;
+            case nd_Eql: return a == b ? 1 : 0;
+            case nd_Neq: return a != b ? 1 : 0;
+            case nd_And: return a != 0 && b != 0 ? 1 : 0;
+            case nd_Or: return a != 0 || b != 0 ? 1 : 0;
+            default: throw new IllegalArgumentException(nt.name());
+        }
+    }
+
+    /**
+     * Drops pairs of ! from an expression whose value only matters as
+     * true or false, such as a condition: !!x is then the same as x
+     * @param e     The expression
+     * @return      The expression without the pairs of !
+     */
+    private Parser.Node truth(Parser.Node e) {
+        while (e != null && e.nt == Parser.NodeType.nd_Not && e.left != null && e.left.nt == Parser.NodeType.nd_Not) {
+            count(Rule.DOUBLE_NEGATION, 2);
+            e = e.left.left;
+        }
+        return e;
+    }
+
+    private void count(Rule rule, int nodes) {
+        this.removed[rule.ordinal()] += nodes;
+    }
+
+    /**
+     * Gives back the node if its children are the same ones, and a copy
+     * with the new children otherwise
+     */
+    private static Parser.Node copy(Parser.Node n, Parser.Node l, Parser.Node r) {
+        if (l == n.left && r == n.right) {
+            return n;
+        }
+        return new Parser.Node(n.nt, l, r, n.value);
+    }
+
+    private static boolean isLeaf(Parser.Node n) {
+        return n.nt == Parser.NodeType.nd_String || n.nt == Parser.NodeType.nd_Ident || n.nt == Parser.NodeType.nd_Integer;
+    }
+
+    /**
+     * Tells whether a node is an integer literal that fits in an int
+     * @param n     The node, or null
+     * @return      True if constant can be called on it
+     */
+    private static boolean isConstant(Parser.Node n) {
+        if (n == null || n.nt != Parser.NodeType.nd_Integer) {
+            return false;
+        }
+        try {
+            Integer.parseInt(n.value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static int constant(Parser.Node n) {
+        return Integer.parseInt(n.value);
+    }
+
+    private static boolean is(Parser.Node n, int value) {
+        return isConstant(n) && constant(n) == value;
+    }
+
+    private static Parser.Node integer(int value) {
+        return Parser.Node.make_leaf(Parser.NodeType.nd_Integer, Integer.toString(value));
+    }
+
+    /**
+     * Counts the nodes of a tree
+     * @param t     Root of the tree, or null
+     * @return      Number of nodes, not counting missing children
+     */
+    static int size(Parser.Node t) {
+        int[] n = new int[1];
+        Parser.preorder(t, node -> {
+            if (node != null) {
+                n[0]++;
+            }
+        });
+        return n[0];
+    }
+
+    /**
+     * Folds the AST of a source file and writes it in the .par text format,
+     * printing how many nodes each rule removed.
+     * @param args      Source file name, and optionally the output filename.
+     */
+    public static void main(String[] args) {
+        try {
+            if (args.length == 0) {
+                Parser.error(-1, -1, "No args");
+            }
+            String outFileName = args.length > 1 ? args[1] : "src/main/resources/hello.par";
+            TokenBuffer tokens;
+            try (Lexer lexer = Lexer.open(args[0])) {
+                tokens = lexer.tokenize();
+            }
+            Parser parser = new Parser(tokens);
+            parser.recoverErrors();
+            Parser.Node tree = parser.parse();
+            parser.throwErrors();
+            ConstantFolder folder = new ConstantFolder();
+            Parser.Node folded = folder.fold(tree);
+            System.out.print(folder.report());
+            Parser.outputToFile(outFileName, out -> Parser.appendAST(folded, out));
+        } catch (IOException e) {
+            new CompileError("Exception: " + e.getMessage()).exit();
+        } catch (CompileError e) {
+            e.exit();
+        }
+    }
+}
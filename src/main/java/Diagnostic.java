@@ -0,0 +1,31 @@
+/**
+ * Diagnostic is one error found in a source: where it is and what is wrong.
+ * Its text is the message the error methods have always printed, so a
+ * caller can report it as before or use the line and position itself.
+ */
+class Diagnostic {
+    // Line and position of the error, -1 when it is not at a place in the source
+    final int line;
+    final int pos;
+    final String message;
+
+    /**
+     * Constructs a new Diagnostic Object.
+     * @param line      Line number where the error is, or -1
+     * @param pos       Position where the error is, or -1
+     * @param message   What is wrong, without the line and position
+     */
+    Diagnostic(int line, int pos, String message) {
+        this.line = line;
+        this.pos = pos;
+        this.message = message;
+    }
+
+    @Override
+    public String toString() {
+        if (this.line > 0 && this.pos > 0) {
+            return this.message + " in line " + this.line + ", pos " + this.pos;
+        }
+        return this.message;
+    }
+}
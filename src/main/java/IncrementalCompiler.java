@@ -0,0 +1,464 @@
+import java.util.Arrays;
+
+/**
+ * IncrementalCompiler keeps the tokens and AST of a source that is being
+ * edited, and brings them up to date after each edit by lexing and parsing
+ * again only the part of the source the edit touches.
+ *
+ * Lexing starts again at the last token before the edit and stops at the
+ * first token past the edit that starts where an old token started and has
+ * the same type. The old tokens from there on are kept and only moved to
+ * their new lines and positions.
+ *
+ * Parsing starts again at the innermost { } block whose braces the edit
+ * left alone. The new block is copied into the old block's Node, so the
+ * tree around it does not change. If there is no such block, parsing
+ * starts at the top-level statement the edit is in and goes on until it
+ * reaches the start of an old statement again. The new statements are
+ * spliced into the top-level Sequence chain.
+ *
+ * An edit that leaves the source with an error falls back to lexing and
+ * parsing all of it, so the error is the same one a full run gives. The
+ * tokens are the ones new Lexer(" " + source) gives, so positions count
+ * from 1 as they do for source files.
+ */
+class IncrementalCompiler {
+    // the source with a leading space, buf[0] up to buf[length]
+    private char[] buf;
+    private int length;
+    // lineStarts[l] is the offset of the newline that starts line l, 0 for line 1
+    private int[] lineStarts;
+    private int lines;
+
+    private TokenBuffer tokens;
+    private Parser.Node tree;
+    private final AstArena ast = new AstArena();
+
+    // top-level statement i starts at token stmtStarts[i] and is spine[i].right;
+    // stmtStarts[stmtCount] is the End_of_input token
+    private int[] stmtStarts;
+    private Parser.Node[] spine;
+    private int stmtCount;
+
+    // blocks sorted by their first token, each running up to its end token
+    private int[] blockStarts;
+    private int[] blockEnds;
+    private Parser.Node[] blockNodes;
+    private int blockCount;
+
+    private int relexed;
+    private int reparsed;
+
+    /**
+     * Constructs an IncrementalCompiler Object and compiles the whole source
+     * @param source    Source code
+     */
+    IncrementalCompiler(String source) {
+        this.buf = new char[source.length() + 1 + 64];
+        this.buf[0] = ' ';
+        source.getChars(0, source.length(), this.buf, 1);
+        this.length = source.length() + 1;
+        this.lineStarts = new int[16];
+        this.lines = countLines(0, this.length, 1);
+        rebuild();
+    }
+
+    String text() { return new String(this.buf, 1, this.length - 1); }
+    TokenBuffer tokens() { return this.tokens; }
+    Parser.Node tree() { return this.tree; }
+    // number of tokens the last edit lexed again
+    int relexed() { return this.relexed; }
+    // number of tokens the last edit parsed again
+    int reparsed() { return this.reparsed; }
+
+    /**
+     * Records the newlines in part of buf as the starts of lines
+     * @param from      Offset to start at
+     * @param to        Offset to stop at
+     * @param line      Number of the line from is on
+     * @return          Number of the line to is on
+     */
+    private int countLines(int from, int to, int line) {
+        if (line == 1) {
+            this.lineStarts[1] = 0;
+        }
+        for (int i = from; i < to; i++) {
+            if (this.buf[i] == '\n') {
+                line++;
+                if (line >= this.lineStarts.length) {
+                    this.lineStarts = Arrays.copyOf(this.lineStarts, this.lineStarts.length * 2);
+                }
+                this.lineStarts[line] = i;
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Lexes and parses the whole source again
+     */
+    private void rebuild() {
+        this.tokens = null;
+        this.tree = null;
+        this.stmtStarts = new int[] {0};
+        this.spine = new Parser.Node[0];
+        this.stmtCount = 0;
+        this.blockStarts = new int[0];
+        this.blockEnds = new int[0];
+        this.blockNodes = new Parser.Node[0];
+        this.blockCount = 0;
+
+        TokenBuffer all = new TokenBuffer();
+        Lexer lx = new Lexer(this.buf, 0, this.length, 1, 0);
+        Token t;
+        do {
+            t = lx.nextToken();
+            t.addTo(all);
+        } while (t.tokentype != TokenType.End_of_input);
+        this.tokens = all;
+        this.relexed = all.size();
+        try {
+            parseTop(0, 0, Integer.MAX_VALUE, 0);
+        } catch (CompileError e) {
+            // the next edit starts from scratch again
+            this.tokens = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces part of the source and brings the tokens and AST up to date
+     * @param offset    Offset in the source where the edit starts
+     * @param removed   Number of characters removed there
+     * @param inserted  Text put in their place
+     */
+    void edit(int offset, int removed, String inserted) {
+        if (offset < 0 || removed < 0 || offset + removed > this.length - 1) {
+            throw new IndexOutOfBoundsException("edit " + offset + "+" + removed + " of " + (this.length - 1));
+        }
+        int start = offset + 1, end = start + removed;
+        int delta = inserted.length() - removed;
+        if (this.length + delta > this.buf.length) {
+            this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length * 2, this.length + delta));
+        }
+        System.arraycopy(this.buf, end, this.buf, end + delta, this.length - end);
+        inserted.getChars(0, inserted.length(), this.buf, start);
+        this.length += delta;
+
+        int[] oldLineStarts = this.lineStarts;
+        int oldLines = this.lines;
+        this.lineStarts = oldLineStarts.clone();
+        // lines that start before the edit stay, the ones after it move by delta
+        int kept = lineOf(oldLineStarts, oldLines, start - 1);
+        int line = countLines(start, start + inserted.length(), kept);
+        int after = lineOf(oldLineStarts, oldLines, end - 1) + 1;
+        int count = line + oldLines - after + 1;
+        if (count >= this.lineStarts.length) {
+            this.lineStarts = Arrays.copyOf(this.lineStarts, count + 16);
+        }
+        for (int l = after; l <= oldLines; l++) {
+            this.lineStarts[line + l - after + 1] = oldLineStarts[l] + delta;
+        }
+        this.lines = count;
+
+        if (this.tokens == null) {
+            rebuild();
+            return;
+        }
+        try {
+            update(start, start + inserted.length(), delta, oldLineStarts);
+        } catch (CompileError e) {
+            // report the error a full run gives
+            rebuild();
+        }
+    }
+
+    /**
+     * Finds the line an offset is on
+     * @param starts    Starts of the lines
+     * @param count     Number of lines
+     * @param offset    Offset in buf
+     * @return          Last line starting at or before the offset
+     */
+    private static int lineOf(int[] starts, int count, int offset) {
+        int lo = 1, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= offset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    private int offset(int[] starts, int i) {
+        return starts[this.tokens.line(i)] + this.tokens.pos(i);
+    }
+
+    /**
+     * Lexes the edited part of the source again, then parses the part of
+     * the token stream that changed
+     * @param start         Offset in buf where the edit starts
+     * @param end           Offset in buf where the inserted text ends
+     * @param delta         Change in the length of the source
+     * @param oldStarts     Line starts from before the edit, for the old tokens
+     */
+    private void update(int start, int end, int delta, int[] oldStarts) {
+        TokenBuffer old = this.tokens;
+        int size = old.size();
+        // k is the last token starting before the edit
+        int lo = 0, hi = size - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (offset(oldStarts, mid) < start) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        int k = lo;
+        Lexer lx = offset(oldStarts, k) < start
+                ? new Lexer(this.buf, offset(oldStarts, k), this.length, old.line(k), old.pos(k))
+                : new Lexer(this.buf, 0, this.length, 1, 0);
+        lx.prevToken = k > 0 ? old.type(k - 1) : null;
+
+        TokenBuffer fresh = new TokenBuffer(16);
+        int j = k;
+        while (true) {
+            Token t = lx.nextToken();
+            int at = this.lineStarts[t.line] + t.pos;
+            if (at >= end) {
+                // past the edit: the same text as before, so the old tokens are good again once one lines up
+                int was = at - delta;
+                while (j < size && offset(oldStarts, j) < was) {
+                    j++;
+                }
+                if (j < size && offset(oldStarts, j) == was && old.type(j) == t.tokentype) {
+                    old.shift(j, old.line(j), t.pos - old.pos(j), t.line - old.line(j));
+                    break;
+                }
+            }
+            t.addTo(fresh);
+            if (t.tokentype == TokenType.End_of_input) {
+                j = size;
+                break;
+            }
+        }
+        int m = fresh.size();
+        this.relexed = m;
+        boolean same = m == j - k;
+        for (int i = 0; same && i < m; i++) {
+            same = fresh.type(i) == old.type(k + i) && sameValue(fresh, i, old, k + i);
+        }
+        old.splice(k, j, fresh);
+        if (same) {
+            // only lines and positions moved, which the AST does not hold
+            this.reparsed = 0;
+            return;
+        }
+
+        int tokenDelta = m - (j - k);
+        // the innermost block with the changed tokens strictly inside its braces
+        int b = lastBefore(this.blockStarts, this.blockCount, k);
+        for (; b >= 0; b--) {
+            if (this.blockEnds[b] > j && this.blockNodes[b] != null && reparseBlock(b, tokenDelta)) {
+                return;
+            }
+        }
+        int a = Math.max(lastBefore(this.stmtStarts, this.stmtCount, k + 1), 0);
+        parseTop(a, this.stmtStarts[a], k + m, tokenDelta);
+    }
+
+    private static boolean sameValue(TokenBuffer x, int i, TokenBuffer y, int j) {
+        int n = x.valueLength(i);
+        if (y.valueLength(j) != n) {
+            return false;
+        }
+        char[] a = x.text(), b = y.text();
+        for (int c = 0, p = x.valueStart(i), q = y.valueStart(j); c < n; c++) {
+            if (a[p + c] != b[q + c]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the last entry of a sorted array that is less than a value
+     * @param starts    Sorted array
+     * @param count     Number of entries
+     * @param value     Value to compare with
+     * @return          Index of the entry, -1 if there is none
+     */
+    private static int lastBefore(int[] starts, int count, int value) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+
+    /**
+     * Parses a block again and copies it into the old block's Node
+     * @param b             Index of the block
+     * @param tokenDelta    Change in the number of tokens
+     * @return              False if the edit changed where the block ends
+     *                      or left it empty, so an outer part has to be parsed instead
+     */
+    private boolean reparseBlock(int b, int tokenDelta) {
+        int s = this.blockStarts[b], e = this.blockEnds[b];
+        this.ast.clear();
+        Parser p = new Parser(this.tokens, this.ast);
+        p.keepBlocks();
+        int h;
+        try {
+            h = p.parseStatement(s);
+        } catch (CompileError err) {
+            return false;
+        }
+        if (h == AstArena.NIL || p.tokenIndex() != e + tokenDelta) {
+            return false;
+        }
+        Parser.Node[] nodes = this.ast.toNodes();
+        Parser.Node block = this.blockNodes[b];
+        Parser.Node n = nodes[h];
+        block.nt = n.nt;
+        block.left = n.left;
+        block.right = n.right;
+        block.value = n.value;
+        nodes[h] = block;
+        replaceBlocks(s, e, tokenDelta, p, nodes);
+        for (int i = lastBefore(this.stmtStarts, this.stmtCount + 1, s + 1) + 1; i <= this.stmtCount; i++) {
+            this.stmtStarts[i] += tokenDelta;
+        }
+        this.reparsed = e + tokenDelta - s;
+        return true;
+    }
+
+    /**
+     * Parses top-level statements again, starting with statement a, until
+     * one starts where an old statement past the change did, and splices
+     * them into the Sequence chain
+     * @param a             Index of the first statement to parse
+     * @param from          Token statement a starts at
+     * @param changed       Token the changed tokens end at; a statement
+     *                      starting at or after it can line up with an old one
+     * @param tokenDelta    Change in the number of tokens
+     */
+    private void parseTop(int a, int from, int changed, int tokenDelta) {
+        this.ast.clear();
+        Parser p = new Parser(this.tokens, this.ast);
+        p.keepBlocks();
+        int[] starts = new int[8];
+        int[] handles = new int[8];
+        int n = 0;
+        int i = from;
+        int b = this.stmtCount;
+        while (this.tokens.type(i) != TokenType.End_of_input) {
+            if (i >= changed && a + 1 < this.stmtCount) {
+                int was = Arrays.binarySearch(this.stmtStarts, a + 1, this.stmtCount, i - tokenDelta);
+                if (was >= 0) {
+                    b = was;
+                    break;
+                }
+            }
+            if (n == starts.length) {
+                starts = Arrays.copyOf(starts, n * 2);
+                handles = Arrays.copyOf(handles, n * 2);
+            }
+            starts[n] = i;
+            handles[n++] = p.parseStatement(i);
+            i = p.tokenIndex();
+        }
+        Parser.Node[] nodes = this.ast.toNodes();
+        replaceBlocks(this.stmtStarts[a], this.stmtStarts[b], tokenDelta, p, nodes);
+
+        // statements a up to b are replaced by the n new ones
+        int count = this.stmtCount - (b - a) + n;
+        int[] newStarts = new int[count + 1];
+        System.arraycopy(this.stmtStarts, 0, newStarts, 0, a);
+        System.arraycopy(starts, 0, newStarts, a, n);
+        newStarts[a + n] = i;
+        for (int s = b + 1; s <= this.stmtCount; s++) {
+            newStarts[a + n + s - b] = this.stmtStarts[s] + tokenDelta;
+        }
+        if (n == b - a) {
+            for (int s = 0; s < n; s++) {
+                this.spine[a + s].right = handles[s] == AstArena.NIL ? null : nodes[handles[s]];
+            }
+        } else {
+            Parser.Node[] newSpine = Arrays.copyOf(this.spine, count);
+            Parser.Node t = a > 0 ? this.spine[a - 1] : null;
+            for (int s = a; s < count; s++) {
+                Parser.Node stmt;
+                if (s < a + n) {
+                    stmt = handles[s - a] == AstArena.NIL ? null : nodes[handles[s - a]];
+                } else {
+                    stmt = this.spine[s - a - n + b].right;
+                }
+                t = Parser.Node.make_node(Parser.NodeType.nd_Sequence, t, stmt);
+                newSpine[s] = t;
+            }
+            this.spine = newSpine;
+        }
+        this.stmtStarts = newStarts;
+        this.stmtCount = count;
+        this.tree = count > 0 ? this.spine[count - 1] : null;
+        this.reparsed = i - from;
+    }
+
+    /**
+     * Replaces the blocks that started in a range of old tokens with the
+     * blocks a Parser kept, and moves the blocks after the range
+     * @param from          First old token of the range
+     * @param to            Old token just past the range
+     * @param tokenDelta    Change in the number of tokens in the range
+     * @param p             Parser that parsed the range again
+     * @param nodes         Nodes of the Parser's handles
+     */
+    private void replaceBlocks(int from, int to, int tokenDelta, Parser p, Parser.Node[] nodes) {
+        int lo = lastBefore(this.blockStarts, this.blockCount, from) + 1;
+        int hi = lastBefore(this.blockStarts, this.blockCount, to) + 1;
+        int n = p.blockCount();
+        int[] kept = p.blocks();
+        // the Parser keeps blocks innermost first, so sort them by start
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = (long) kept[3 * i] << 32 | i;
+        }
+        Arrays.sort(order);
+
+        int count = this.blockCount - (hi - lo) + n;
+        int[] starts = Arrays.copyOf(this.blockStarts, count);
+        int[] ends = Arrays.copyOf(this.blockEnds, count);
+        Parser.Node[] blockNodes = Arrays.copyOf(this.blockNodes, count);
+        for (int i = 0; i < lo; i++) {
+            // blocks around the range end after it
+            if (ends[i] >= to) {
+                ends[i] += tokenDelta;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            int k = (int) order[i];
+            starts[lo + i] = kept[3 * k];
+            ends[lo + i] = kept[3 * k + 1];
+            blockNodes[lo + i] = kept[3 * k + 2] == AstArena.NIL ? null : nodes[kept[3 * k + 2]];
+        }
+        for (int i = hi; i < this.blockCount; i++) {
+            starts[lo + n + i - hi] = this.blockStarts[i] + tokenDelta;
+            ends[lo + n + i - hi] = this.blockEnds[i] + tokenDelta;
+            blockNodes[lo + n + i - hi] = this.blockNodes[i];
+        }
+        this.blockStarts = starts;
+        this.blockEnds = ends;
+        this.blockNodes = blockNodes;
+        this.blockCount = count;
+    }
+}
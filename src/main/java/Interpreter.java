@@ -0,0 +1,475 @@
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interpreter runs a parsed program by walking its AST.
+ *
+ * Before it runs, the tree is copied into columns of ints the way AstArena
+ * holds one, with each variable already given a slot in an array of ints,
+ * each integer literal already turned into an int and each string already
+ * unescaped. Running it then never looks at a name or a String. The walk
+ * uses a stack of frames, one for each node it is in the middle of, and a
+ * stack of int values, not recursion, so deeply nested programs run on a
+ * small thread stack. Output goes through a TextSink.
+ *
+ * Variables start at 0. Arithmetic is on 32-bit ints and wraps around, and
+ * && and || only work out their right side when they need it, as in C.
+ */
+class Interpreter {
+    // Kinds of node the interpreter walks, numbered for a dense switch; the binary operators come last
+    private static final int SEQUENCE = 0, ASSIGN = 1, IF = 2, WHILE = 3, PRTC = 4, PRTI = 5, PRTS = 6, NEGATE = 7,
+            NOT = 8, AND = 9, OR = 10, STRING = 11, INTEGER = 12, IDENT = 13, MUL = 14, DIV = 15, MOD = 16, ADD = 17,
+            SUB = 18, LSS = 19, LEQ = 20, GTR = 21, GEQ = 22, EQL = 23, NEQ = 24;
+    private static final Parser.NodeType[] BY_KIND = {
+        Parser.NodeType.nd_Sequence, Parser.NodeType.nd_Assign, Parser.NodeType.nd_If, Parser.NodeType.nd_While,
+        Parser.NodeType.nd_Prtc, Parser.NodeType.nd_Prti, Parser.NodeType.nd_Prts, Parser.NodeType.nd_Negate,
+        Parser.NodeType.nd_Not, Parser.NodeType.nd_And, Parser.NodeType.nd_Or, Parser.NodeType.nd_String,
+        Parser.NodeType.nd_Integer, Parser.NodeType.nd_Ident, Parser.NodeType.nd_Mul, Parser.NodeType.nd_Div,
+        Parser.NodeType.nd_Mod, Parser.NodeType.nd_Add, Parser.NodeType.nd_Sub, Parser.NodeType.nd_Lss,
+        Parser.NodeType.nd_Leq, Parser.NodeType.nd_Gtr, Parser.NodeType.nd_Geq, Parser.NodeType.nd_Eql,
+        Parser.NodeType.nd_Neq
+    };
+    // KIND[t.ordinal()] is the kind of NodeType t
+    private static final byte[] KIND = new byte[Parser.NodeType.values().length];
+    static {
+        for (int k = 0; k < BY_KIND.length; k++) {
+            KIND[BY_KIND[k].ordinal()] = (byte) k;
+        }
+    }
+
+    // the tree: node n has kind kinds[n], children lefts[n] and rights[n], and an operand
+    // that is the value of an Integer, the slot of an Identifier or of the variable an
+    // Assign sets, or the index of a String
+    private byte[] kinds = new byte[64];
+    private int[] lefts = new int[64];
+    private int[] rights = new int[64];
+    private int[] operands = new int[64];
+    private int size;
+    private final int root;
+
+    private final String[] names;
+    private final char[][] strings;
+    private final int[] globals;
+
+    /**
+     * Constructs an Interpreter Object for a program, giving each variable
+     * its slot
+     * @param tree  Root of the AST of the program
+     */
+    Interpreter(Parser.Node tree) {
+        SymbolTable.Slots slots = new SymbolTable.Slots();
+        Map<String, Integer> constants = new HashMap<>();
+        this.root = resolve(tree, slots, constants);
+        this.names = slots.names();
+        this.strings = new char[constants.size()][];
+        for (Map.Entry<String, Integer> e : constants.entrySet()) {
+            this.strings[e.getValue()] = unescape(e.getKey());
+        }
+        this.globals = new int[this.names.length];
+    }
+
+    /**
+     * Copies a tree into the columns, children before their parents, with
+     * a stack of nodes instead of recursion
+     * @return      Handle of the root, or NIL
+     */
+    private int resolve(Parser.Node tree, SymbolTable.Slots slots, Map<String, Integer> constants) {
+        Parser.Node[] stack = new Parser.Node[64];
+        boolean[] visited = new boolean[64];
+        int top = 0;
+        int[] handles = new int[64];
+        int count = 0;
+
+        stack[top] = tree;
+        visited[top++] = false;
+        while (top > 0) {
+            Parser.Node n = stack[--top];
+            if (n == null) {
+                handles = push(handles, count++, AstArena.NIL);
+                continue;
+            }
+            Parser.NodeType nt = n.nt;
+            boolean leaf = nt == Parser.NodeType.nd_String || nt == Parser.NodeType.nd_Ident || nt == Parser.NodeType.nd_Integer;
+            if (!leaf && !visited[top]) {
+                if (top + 3 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                    visited = Arrays.copyOf(visited, stack.length);
+                }
+                visited[top++] = true;
+                stack[top] = n.right;
+                visited[top++] = false;
+                stack[top] = n.left;
+                visited[top++] = false;
+                continue;
+            }
+            int l = AstArena.NIL, r = AstArena.NIL, operand = 0;
+            if (nt == Parser.NodeType.nd_Integer) {
+                operand = integer(n.value);
+            } else if (nt == Parser.NodeType.nd_Ident) {
+                operand = slots.slot(n);
+            } else if (nt == Parser.NodeType.nd_String) {
+                operand = constants.computeIfAbsent(n.value, k -> constants.size());
+            } else {
+                r = handles[--count];
+                l = handles[--count];
+                if (nt == Parser.NodeType.nd_Assign) {
+                    operand = this.operands[l];
+                }
+            }
+            handles = push(handles, count++, add(nt, l, r, operand));
+        }
+        return handles[0];
+    }
+
+    private static int[] push(int[] stack, int top, int value) {
+        if (top == stack.length) {
+            stack = Arrays.copyOf(stack, top * 2);
+        }
+        stack[top] = value;
+        return stack;
+    }
+
+    private int add(Parser.NodeType nt, int left, int right, int operand) {
+        if (this.size == this.kinds.length) {
+            int capacity = this.size * 2;
+            this.kinds = Arrays.copyOf(this.kinds, capacity);
+            this.lefts = Arrays.copyOf(this.lefts, capacity);
+            this.rights = Arrays.copyOf(this.rights, capacity);
+            this.operands = Arrays.copyOf(this.operands, capacity);
+        }
+        this.kinds[this.size] = KIND[nt.ordinal()];
+        this.lefts[this.size] = left;
+        this.rights[this.size] = right;
+        this.operands[this.size] = operand;
+        return this.size++;
+    }
+
+    /**
+     * Turns the text of an integer literal into an int
+     * @param value     Text of the literal
+     * @return          Its value
+     * @throws CompileError     If the value does not fit in an int
+     */
+    static int integer(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new CompileError("Integer too big: " + value);
+        }
+    }
+
+    /**
+     * Turns the escapes \n and \\ in a string literal into the characters
+     * they stand for
+     * @param s     Text of the string literal, without its quotes
+     * @return      Characters the string prints as
+     */
+    static char[] unescape(String s) {
+        char[] out = new char[s.length()];
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char next = s.charAt(++i);
+                c = next == 'n' ? '\n' : next;
+            }
+            out[n++] = c;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Runs the program from the start. Variables keep the values the run
+     * leaves them with.
+     * @param out   Sink the program prints to, flushed at the end
+     * @throws CompileError     If the program divides by zero
+     */
+    void run(TextSink out) {
+        Arrays.fill(this.globals, 0);
+        try {
+            exec(out);
+        } catch (ArithmeticException e) {
+            throw new CompileError("Division by zero");
+        } finally {
+            out.flush();
+        }
+    }
+
+    /**
+     * Walks the tree. A frame is a node and how far the walk has got with
+     * it; an expression leaves its value on the value stack. An expression
+     * of leaves and operators on leaves is worked out on the spot, with no
+     * frame.
+     */
+    private void exec(TextSink out) {
+        byte[] kinds = this.kinds;
+        int[] lefts = this.lefts, rights = this.rights, operands = this.operands;
+        int[] nodes = new int[64], states = new int[64];
+        int[] values = new int[64];
+        int top = 0, sp = 0;
+        if (this.root != AstArena.NIL) {
+            nodes[top] = this.root;
+            states[top++] = 0;
+        }
+
+        while (top > 0) {
+            int n = nodes[top - 1];
+            int state = states[top - 1];
+            // the child to walk next, or NIL if this frame is done with its children for now
+            int next = AstArena.NIL;
+            int k = kinds[n];
+            switch (k) {
+                case SEQUENCE:
+                    if (state == 0) {
+                        states[top - 1] = 1;
+                        next = lefts[n];
+                    } else if (state == 1) {
+                        states[top - 1] = 2;
+                        next = rights[n];
+                    } else {
+                        top--;
+                    }
+                    break;
+                case ASSIGN:
+                    if (state == 0) {
+                        int e = rights[n];
+                        if (isFlat(e)) {
+                            this.globals[operands[n]] = flat(e);
+                            top--;
+                        } else {
+                            states[top - 1] = 1;
+                            next = e;
+                        }
+                    } else {
+                        this.globals[operands[n]] = values[--sp];
+                        top--;
+                    }
+                    break;
+                case IF: {
+                    int c;
+                    if (state == 0) {
+                        int e = lefts[n];
+                        if (!isFlat(e)) {
+                            states[top - 1] = 1;
+                            next = e;
+                            break;
+                        }
+                        c = flat(e);
+                    } else {
+                        c = values[--sp];
+                    }
+                    // the right child is an If holding the two branches
+                    top--;
+                    next = c != 0 ? lefts[rights[n]] : rights[rights[n]];
+                    break;
+                }
+                case WHILE: {
+                    int c;
+                    if (state != 1) {
+                        int e = lefts[n];
+                        if (!isFlat(e)) {
+                            states[top - 1] = 1;
+                            next = e;
+                            break;
+                        }
+                        c = flat(e);
+                    } else {
+                        c = values[--sp];
+                    }
+                    if (c != 0) {
+                        states[top - 1] = 2;
+                        next = rights[n];
+                    } else {
+                        top--;
+                    }
+                    break;
+                }
+                case PRTC:
+                case PRTI:
+                    if (state == 0 && !isFlat(lefts[n])) {
+                        states[top - 1] = 1;
+                        next = lefts[n];
+                        break;
+                    }
+                    int v = state == 0 ? flat(lefts[n]) : values[--sp];
+                    if (k == PRTC) {
+                        out.append((char) v);
+                    } else {
+                        out.append(v, 0);
+                    }
+                    top--;
+                    break;
+                case PRTS: {
+                    char[] s = this.strings[operands[lefts[n]]];
+                    out.append(s, 0, s.length);
+                    top--;
+                    break;
+                }
+                case NEGATE:
+                case NOT:
+                    if (state == 0) {
+                        states[top - 1] = 1;
+                        next = lefts[n];
+                    } else {
+                        values[sp - 1] = k == NEGATE ? -values[sp - 1] : values[sp - 1] == 0 ? 1 : 0;
+                        top--;
+                    }
+                    break;
+                case AND:
+                case OR:
+                    if (state == 0) {
+                        states[top - 1] = 1;
+                        next = lefts[n];
+                    } else if (state == 1) {
+                        // 0 && x is 0 and 1 || x is 1 without looking at x
+                        if ((values[sp - 1] != 0) == (k == OR)) {
+                            values[sp - 1] = k == OR ? 1 : 0;
+                            top--;
+                        } else {
+                            sp--;
+                            states[top - 1] = 2;
+                            next = rights[n];
+                        }
+                    } else {
+                        values[sp - 1] = values[sp - 1] != 0 ? 1 : 0;
+                        top--;
+                    }
+                    break;
+                case INTEGER:
+                case IDENT:
+                    values = push(values, sp++, leaf(n));
+                    top--;
+                    break;
+                default:
+                    // a binary operator
+                    if (state == 0) {
+                        states[top - 1] = 1;
+                        next = lefts[n];
+                    } else if (state == 1) {
+                        states[top - 1] = 2;
+                        next = rights[n];
+                    } else {
+                        int b = values[--sp];
+                        values[sp - 1] = binary(k, values[sp - 1], b);
+                        top--;
+                    }
+                    break;
+            }
+            if (next == AstArena.NIL) {
+                continue;
+            }
+            if (isFlat(next)) {
+                values = push(values, sp++, flat(next));
+            } else {
+                if (top == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, top * 2);
+                    states = Arrays.copyOf(states, top * 2);
+                }
+                nodes[top] = next;
+                states[top++] = 0;
+            }
+        }
+    }
+
+    /**
+     * Tells whether an expression can be worked out with no frame: a leaf,
+     * or an arithmetic or comparison operator on two leaves
+     * @param e     Handle of the node
+     * @return      True if flat can work it out
+     */
+    private boolean isFlat(int e) {
+        int k = this.kinds[e];
+        if (k >= MUL) {
+            return isLeaf(this.kinds[this.lefts[e]]) && isLeaf(this.kinds[this.rights[e]]);
+        }
+        return isLeaf(k);
+    }
+
+    private static boolean isLeaf(int k) {
+        return k == INTEGER || k == IDENT;
+    }
+
+    private int flat(int e) {
+        int k = this.kinds[e];
+        if (k >= MUL) {
+            return binary(k, leaf(this.lefts[e]), leaf(this.rights[e]));
+        }
+        return leaf(e);
+    }
+
+    private int leaf(int e) {
+        return this.kinds[e] == INTEGER ? this.operands[e] : this.globals[this.operands[e]];
+    }
+
+    /**
+     * Works out an arithmetic or comparison operator as C does on ints
+     * @param k     Kind of the operator
+     * @param a     Left operand
+     * @param b     Right operand
+     * @return      The result, 1 or 0 for a comparison
+     */
+    private static int binary(int k, int a, int b) {
+        switch (k) {
+            case MUL: return a * b;
+            case DIV: return a / b;
+            case MOD: return a % b;
+            case ADD: return a + b;
+            case SUB: return a - b;
+            case LSS: return a < b ? 1 : 0;
+            case LEQ: return a <= b ? 1 : 0;
+            case GTR: return a > b ? 1 : 0;
+            case GEQ: return a >= b ? 1 : 0;
+            case EQL: return a == b ? 1 : 0;
+            default: return a != b ? 1 : 0;
+        }
+    }
+
+    /**
+     * Gets the value a variable was left with
+     * @param name  Name of the variable
+     * @return      Its value, 0 if the program never uses it
+     */
+    int value(String name) {
+        for (int i = 0; i < this.names.length; i++) {
+            if (this.names[i].equals(name)) {
+                return this.globals[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Runs a source file and prints what it prints to System.out.
+     * @param args      Source file name, with --fold before it to fold constants first
+     */
+    public static void main(String[] args) {
+        try {
+            boolean fold = args.length > 1 && args[0].equals("--fold");
+            if (fold) {
+                args = Arrays.copyOfRange(args, 1, args.length);
+            }
+            if (args.length == 0) {
+                Parser.error(-1, -1, "No args");
+            }
+            TokenBuffer tokens;
+            try (Lexer lexer = Lexer.open(args[0])) {
+                tokens = lexer.tokenize();
+            }
+            Parser parser = new Parser(tokens);
+            parser.recoverErrors();
+            Parser.Node tree = parser.parse();
+            parser.throwErrors();
+            if (fold) {
+                tree = new ConstantFolder().fold(tree);
+            }
+            new Interpreter(tree).run(new TextSink(Channels.newChannel(System.out)));
+        } catch (IOException e) {
+            new CompileError("Exception: " + e.getMessage()).exit();
+        } catch (CompileError e) {
+            e.exit();
+        }
+    }
+}
@@ -0,0 +1,682 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JvmCompiler compiles a Parser.Node tree to a JVM class with one method,
+ * static int[] run(TextSink), and loads it as a hidden class so HotSpot
+ * compiles the program like any other Java code.
+ *
+ * Each variable is a local of run, set to 0 when it starts, and run gives
+ * back the values they end with. Conditions of if and while are compiled
+ * to the JVM's own compare-and-branch instructions, and && and || to
+ * branches that skip their right side. The class file is written out byte
+ * by byte, as version 49 so the JVM works out the stack map itself and
+ * none has to be written.
+ *
+ * The walk over the tree uses a stack of frames, not recursion. A program
+ * too big for one JVM method is a CompileError.
+ */
+class JvmCompiler {
+    private static final String CLASS = "MiniProgram";
+    private static final String RUN = "(LTextSink;)[I";
+    // ways a node is compiled: for its effect, for its value on the stack, or as a jump when it is false
+    private static final int STATEMENT = 0, VALUE = 1, CONDITION = 2;
+
+    // JVM opcodes used
+    private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13,
+            ILOAD = 0x15, ALOAD_0 = 0x2a, ISTORE = 0x36, IASTORE = 0x4f, POP = 0x57, DUP = 0x59,
+            IADD = 0x60, ISUB = 0x64, IMUL = 0x68, IDIV = 0x6c, IREM = 0x70, INEG = 0x74,
+            IFEQ = 0x99, IFNE = 0x9a, IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, IF_ICMPLT = 0xa1, IF_ICMPGE = 0xa2,
+            IF_ICMPGT = 0xa3, IF_ICMPLE = 0xa4, GOTO = 0xa7, ARETURN = 0xb0, INVOKEVIRTUAL = 0xb6,
+            NEWARRAY = 0xbc, WIDE = 0xc4;
+
+    // local i + 1 holds variable i
+    private final SymbolTable.Slots slots = new SymbolTable.Slots();
+
+    private byte[] code = new byte[1024];
+    private int length;
+    private int stack, maxStack;
+
+    // labels[l] is the address of label l, -1 until it is placed
+    private int[] labels = new int[64];
+    private int labelCount;
+    // jumps to labels, patched once every label is placed
+    private int[] jumps = new int[64], jumpLabels = new int[64];
+    private int jumpCount;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(this.poolBytes);
+    private final Map<String, Integer> constants = new HashMap<>();
+    private int poolCount = 1;
+
+    private final String[] names;
+    private final MethodHandle run;
+    private int[] values = new int[0];
+
+    /**
+     * Compiles a program and loads it
+     * @param tree  Root of the AST of the program
+     * @throws CompileError     If the program is too big for one JVM method
+     */
+    JvmCompiler(Parser.Node tree) {
+        this.names = variables(tree, new SymbolTable.Slots());
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(compile(tree), true);
+            this.run = lookup.findStatic(lookup.lookupClass(), "run", MethodType.methodType(int[].class, TextSink.class));
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private JvmCompiler() {
+        this.names = null;
+        this.run = null;
+    }
+
+    /**
+     * Compiles a program to a class file
+     * @param tree  Root of the AST of the program
+     * @return      Bytes of the class file
+     * @throws CompileError     If the program is too big for one JVM method
+     */
+    static byte[] compile(Parser.Node tree) {
+        return new JvmCompiler().classFile(tree);
+    }
+
+    /**
+     * Numbers the variables of a program in the order they first come up,
+     * as run gives back their values
+     * @return      Names of the variables
+     */
+    private static String[] variables(Parser.Node tree, SymbolTable.Slots slots) {
+        Parser.Node[] stack = new Parser.Node[64];
+        int top = 0;
+        if (tree != null) {
+            stack[top++] = tree;
+        }
+        while (top > 0) {
+            Parser.Node n = stack[--top];
+            if (n.nt == Parser.NodeType.nd_Ident) {
+                slots.slot(n);
+            }
+            if (top + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            // right first, so the left is taken off first
+            if (n.right != null) {
+                stack[top++] = n.right;
+            }
+            if (n.left != null) {
+                stack[top++] = n.left;
+            }
+        }
+        return slots.names();
+    }
+
+    private byte[] classFile(Parser.Node tree) {
+        variables(tree, this.slots);
+        // every local starts at 0
+        for (int slot = 1; slot <= this.slots.size(); slot++) {
+            push(0);
+            local(ISTORE, slot, -1);
+        }
+        walk(tree);
+        push(this.slots.size());
+        // an array of ints
+        op(NEWARRAY, 0);
+        u1(10);
+        for (int i = 0; i < this.slots.size(); i++) {
+            op(DUP, 1);
+            push(i);
+            local(ILOAD, i + 1, 1);
+            op(IASTORE, -3);
+        }
+        op(ARETURN, -1);
+        for (int j = 0; j < this.jumpCount; j++) {
+            int at = this.jumps[j];
+            int offset = this.labels[this.jumpLabels[j]] - at;
+            if (offset != (short) offset) {
+                throw new CompileError("Program too big to compile to one JVM method");
+            }
+            this.code[at + 1] = (byte) (offset >> 8);
+            this.code[at + 2] = (byte) offset;
+        }
+        if (this.length > 65535) {
+            throw new CompileError("Program too big to compile to one JVM method");
+        }
+
+        int thisClass = classConstant(CLASS);
+        int superClass = classConstant("java/lang/Object");
+        int name = utf8("run");
+        int descriptor = utf8(RUN);
+        int codeName = utf8("Code");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(this.poolCount);
+            this.poolBytes.writeTo(out);
+            // final, super
+            out.writeShort(0x0030);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(1);
+            // public static int[] run(TextSink)
+            out.writeShort(0x0009);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + this.length);
+            out.writeShort(this.maxStack);
+            out.writeShort(this.slots.size() + 1);
+            out.writeInt(this.length);
+            out.write(this.code, 0, this.length);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Emits the code for a program. A frame is a node, the way it is being
+     * compiled, how far its code has got, the label it jumps to when it is
+     * false, and one more label it has made.
+     */
+    private void walk(Parser.Node tree) {
+        Parser.Node[] nodes = new Parser.Node[64];
+        int[] modes = new int[64], states = new int[64], falses = new int[64], marks = new int[64];
+        int top = 0;
+        if (tree != null) {
+            nodes[top] = tree;
+            modes[top++] = STATEMENT;
+        }
+
+        while (top > 0) {
+            int f = top - 1;
+            Parser.Node n = nodes[f];
+            int mode = modes[f];
+            int state = states[f]++;
+            // the child to compile next and how, or null if there is none right now
+            Parser.Node next = null;
+            int nextMode = VALUE;
+            int nextFalse = 0;
+            Parser.NodeType nt = n.nt;
+
+            if (mode == STATEMENT) {
+                nextMode = STATEMENT;
+                switch (nt) {
+                    case nd_Sequence:
+                        if (state == 0) {
+                            next = n.left;
+                        } else if (state == 1) {
+                            next = n.right;
+                        } else {
+                            top--;
+                        }
+                        break;
+                    case nd_Assign:
+                        if (state == 0) {
+                            next = n.right;
+                            nextMode = VALUE;
+                        } else {
+                            local(ISTORE, this.slots.slot(n.left) + 1, -1);
+                            top--;
+                        }
+                        break;
+                    case nd_If: {
+                        // the right child is an If holding the two branches
+                        Parser.Node branches = n.right;
+                        if (state == 0) {
+                            falses[f] = label();
+                            next = n.left;
+                            nextMode = CONDITION;
+                            nextFalse = falses[f];
+                        } else if (state == 1) {
+                            next = branches == null ? null : branches.left;
+                        } else if (state == 2 && branches != null && branches.right != null) {
+                            marks[f] = label();
+                            jump(GOTO, marks[f], 0);
+                            place(falses[f]);
+                            next = branches.right;
+                        } else {
+                            place(state == 2 ? falses[f] : marks[f]);
+                            top--;
+                        }
+                        break;
+                    }
+                    case nd_While:
+                        if (state == 0) {
+                            marks[f] = label();
+                            place(marks[f]);
+                            falses[f] = label();
+                            next = n.left;
+                            nextMode = CONDITION;
+                            nextFalse = falses[f];
+                        } else if (state == 1) {
+                            next = n.right;
+                        } else {
+                            jump(GOTO, marks[f], 0);
+                            place(falses[f]);
+                            top--;
+                        }
+                        break;
+                    case nd_Prtc:
+                    case nd_Prti:
+                        if (state == 0) {
+                            op(ALOAD_0, 1);
+                            next = n.left;
+                            nextMode = VALUE;
+                        } else {
+                            if (nt == Parser.NodeType.nd_Prtc) {
+                                invoke("(C)LTextSink;", -1);
+                            } else {
+                                push(0);
+                                invoke("(II)LTextSink;", -2);
+                            }
+                            op(POP, -1);
+                            top--;
+                        }
+                        break;
+                    case nd_Prts:
+                        op(ALOAD_0, 1);
+                        ldc(constant(8, new String(Interpreter.unescape(n.left.value))));
+                        invoke("(Ljava/lang/String;)LTextSink;", -1);
+                        op(POP, -1);
+                        top--;
+                        break;
+                    default:
+                        throw new IllegalArgumentException(nt.name());
+                }
+            } else if (mode == VALUE) {
+                switch (nt) {
+                    case nd_Integer:
+                        push(Interpreter.integer(n.value));
+                        top--;
+                        break;
+                    case nd_Ident:
+                        local(ILOAD, this.slots.slot(n) + 1, 1);
+                        top--;
+                        break;
+                    case nd_Negate:
+                        if (state == 0) {
+                            next = n.left;
+                        } else {
+                            op(INEG, 0);
+                            top--;
+                        }
+                        break;
+                    case nd_Add:
+                    case nd_Sub:
+                    case nd_Mul:
+                    case nd_Div:
+                    case nd_Mod:
+                        if (state == 0) {
+                            next = n.left;
+                        } else if (state == 1) {
+                            next = n.right;
+                        } else {
+                            op(arithmetic(nt), -1);
+                            top--;
+                        }
+                        break;
+                    default:
+                        // a comparison, !, && or ||: 1 unless it jumps to false, then 0
+                        if (state == 0) {
+                            falses[f] = label();
+                            next = n;
+                            nextMode = CONDITION;
+                            nextFalse = falses[f];
+                        } else {
+                            int end = label();
+                            push(1);
+                            jump(GOTO, end, 0);
+                            this.stack--;
+                            place(falses[f]);
+                            push(0);
+                            place(end);
+                            top--;
+                        }
+                        break;
+                }
+            } else {
+                int no = falses[f];
+                switch (nt) {
+                    case nd_Lss:
+                    case nd_Gtr:
+                    case nd_Leq:
+                    case nd_Geq:
+                    case nd_Eql:
+                    case nd_Neq:
+                        if (state == 0) {
+                            next = n.left;
+                        } else if (state == 1) {
+                            next = n.right;
+                        } else {
+                            jump(opposite(nt), no, -2);
+                            top--;
+                        }
+                        break;
+                    case nd_And:
+                        if (state == 0) {
+                            next = n.left;
+                        } else if (state == 1) {
+                            next = n.right;
+                        } else {
+                            top--;
+                        }
+                        nextMode = CONDITION;
+                        nextFalse = no;
+                        break;
+                    case nd_Or:
+                        // left; ifne T; right as a condition; T:
+                        if (state == 0) {
+                            next = n.left;
+                        } else if (state == 1) {
+                            marks[f] = label();
+                            jump(IFNE, marks[f], -1);
+                            next = n.right;
+                            nextMode = CONDITION;
+                            nextFalse = no;
+                        } else {
+                            place(marks[f]);
+                            top--;
+                        }
+                        break;
+                    case nd_Not:
+                        if (state == 0) {
+                            next = n.left;
+                        } else {
+                            jump(IFNE, no, -1);
+                            top--;
+                        }
+                        break;
+                    case nd_Integer:
+                        if (Interpreter.integer(n.value) == 0) {
+                            jump(GOTO, no, 0);
+                        }
+                        top--;
+                        break;
+                    default:
+                        // an arithmetic value, false when it is 0
+                        if (state == 0) {
+                            next = n;
+                        } else {
+                            jump(IFEQ, no, -1);
+                            top--;
+                        }
+                        break;
+                }
+            }
+
+            if (next != null) {
+                if (top == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, top * 2);
+                    modes = Arrays.copyOf(modes, top * 2);
+                    states = Arrays.copyOf(states, top * 2);
+                    falses = Arrays.copyOf(falses, top * 2);
+                    marks = Arrays.copyOf(marks, top * 2);
+                }
+                nodes[top] = next;
+                modes[top] = nextMode;
+                states[top] = 0;
+                falses[top++] = nextFalse;
+            }
+        }
+    }
+
+    private static int arithmetic(Parser.NodeType nt) {
+        switch (nt) {
+            case nd_Add: return IADD;
+            case nd_Sub: return ISUB;
+            case nd_Mul: return IMUL;
+            case nd_Div: return IDIV;
+            default: return IREM;
+        }
+    }
+
+    // the compare-and-branch that jumps when the comparison is false
+    private static int opposite(Parser.NodeType nt) {
+        switch (nt) {
+            case nd_Lss: return IF_ICMPGE;
+            case nd_Gtr: return IF_ICMPLE;
+            case nd_Leq: return IF_ICMPGT;
+            case nd_Geq: return IF_ICMPLT;
+            case nd_Eql: return IF_ICMPNE;
+            default: return IF_ICMPEQ;
+        }
+    }
+
+    private void u1(int b) {
+        if (this.length == this.code.length) {
+            this.code = Arrays.copyOf(this.code, this.length * 2);
+        }
+        this.code[this.length++] = (byte) b;
+    }
+
+    private void u2(int v) {
+        u1(v >> 8);
+        u1(v);
+    }
+
+    /**
+     * Emits an instruction
+     * @param opcode    The instruction
+     * @param delta     How many values it leaves on the stack, less the ones it takes off
+     */
+    private void op(int opcode, int delta) {
+        u1(opcode);
+        this.stack += delta;
+        this.maxStack = Math.max(this.maxStack, this.stack);
+    }
+
+    private void push(int value) {
+        if (value >= -1 && value <= 5) {
+            op(ICONST_0 + value, 1);
+        } else if (value == (byte) value) {
+            op(BIPUSH, 1);
+            u1(value);
+        } else if (value == (short) value) {
+            op(SIPUSH, 1);
+            u2(value);
+        } else {
+            ldc(constant(3, Integer.toString(value)));
+        }
+    }
+
+    private void ldc(int index) {
+        if (index < 256) {
+            op(LDC, 1);
+            u1(index);
+        } else {
+            op(LDC_W, 1);
+            u2(index);
+        }
+    }
+
+    // iload or istore of a local, in the short form when there is one
+    private void local(int opcode, int slot, int delta) {
+        if (slot <= 3) {
+            // iload_0 is 5 on from iload, and istore_0 from istore
+            op(opcode + 5 + slot, delta);
+        } else if (slot < 256) {
+            op(opcode, delta);
+            u1(slot);
+        } else {
+            u1(WIDE);
+            op(opcode, delta);
+            u2(slot);
+        }
+    }
+
+    private void invoke(String descriptor, int delta) {
+        op(INVOKEVIRTUAL, delta);
+        u2(methodConstant("TextSink", "append", descriptor));
+    }
+
+    private int label() {
+        if (this.labelCount == this.labels.length) {
+            this.labels = Arrays.copyOf(this.labels, this.labelCount * 2);
+        }
+        this.labels[this.labelCount] = -1;
+        return this.labelCount++;
+    }
+
+    private void place(int label) {
+        this.labels[label] = this.length;
+    }
+
+    private void jump(int opcode, int label, int delta) {
+        if (this.jumpCount == this.jumps.length) {
+            this.jumps = Arrays.copyOf(this.jumps, this.jumpCount * 2);
+            this.jumpLabels = Arrays.copyOf(this.jumpLabels, this.jumpCount * 2);
+        }
+        this.jumps[this.jumpCount] = this.length;
+        this.jumpLabels[this.jumpCount++] = label;
+        op(opcode, delta);
+        u2(0);
+    }
+
+    /**
+     * Gets the index of a constant, adding it to the pool the first time
+     * @param tag   1 for Utf8, 3 for Integer, 8 for String
+     * @param text  Text of the Utf8 or String, or the value of the Integer
+     * @return      Its index in the constant pool
+     */
+    private int constant(int tag, String text) {
+        String key = tag + ":" + text;
+        Integer index = this.constants.get(key);
+        if (index != null) {
+            return index;
+        }
+        int utf = tag == 8 ? utf8(text) : 0;
+        try {
+            this.pool.writeByte(tag);
+            if (tag == 1) {
+                this.pool.writeUTF(text);
+            } else if (tag == 3) {
+                this.pool.writeInt(Integer.parseInt(text));
+            } else {
+                this.pool.writeShort(utf);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.constants.put(key, this.poolCount);
+        return this.poolCount++;
+    }
+
+    private int utf8(String text) {
+        return constant(1, text);
+    }
+
+    private int classConstant(String name) {
+        return reference(7, utf8(name), 0, "7:" + name);
+    }
+
+    private int methodConstant(String owner, String name, String descriptor) {
+        int nameAndType = reference(12, utf8(name), utf8(descriptor), "12:" + name + descriptor);
+        return reference(10, classConstant(owner), nameAndType, "10:" + owner + "." + name + descriptor);
+    }
+
+    // a constant made of one or two indices of other constants
+    private int reference(int tag, int first, int second, String key) {
+        Integer index = this.constants.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            this.pool.writeByte(tag);
+            this.pool.writeShort(first);
+            if (tag != 7) {
+                this.pool.writeShort(second);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.constants.put(key, this.poolCount);
+        return this.poolCount++;
+    }
+
+    /**
+     * Runs the program from the start
+     * @param out   Sink the program prints to, flushed at the end
+     * @throws CompileError     If the program divides by zero
+     */
+    void run(TextSink out) {
+        try {
+            this.values = (int[]) this.run.invokeExact(out);
+        } catch (ArithmeticException e) {
+            throw new CompileError("Division by zero");
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        } finally {
+            out.flush();
+        }
+    }
+
+    /**
+     * Gets the value a variable was left with by the last run
+     * @param name  Name of the variable
+     * @return      Its value, 0 if the program never uses it or has not run
+     */
+    int value(String name) {
+        for (int i = 0; i < this.values.length; i++) {
+            if (this.names[i].equals(name)) {
+                return this.values[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compiles a source file to a JVM class, runs it and prints what it
+     * prints to System.out.
+     * @param args      Source file name, with --fold before it to fold constants first
+     */
+    public static void main(String[] args) {
+        try {
+            boolean fold = args.length > 1 && args[0].equals("--fold");
+            if (fold) {
+                args = Arrays.copyOfRange(args, 1, args.length);
+            }
+            if (args.length == 0) {
+                Parser.error(-1, -1, "No args");
+            }
+            TokenBuffer tokens;
+            try (Lexer lexer = Lexer.open(args[0])) {
+                tokens = lexer.tokenize();
+            }
+            Parser parser = new Parser(tokens);
+            parser.recoverErrors();
+            Parser.Node tree = parser.parse();
+            parser.throwErrors();
+            if (fold) {
+                tree = new ConstantFolder().fold(tree);
+            }
+            new JvmCompiler(tree).run(new TextSink(Channels.newChannel(System.out)));
+        } catch (IOException e) {
+            new CompileError("Exception: " + e.getMessage()).exit();
+        } catch (CompileError e) {
+            e.exit();
+        }
+    }
+}
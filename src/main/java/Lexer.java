@@ -1,93 +1,60 @@
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.Closeable;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Scanner;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * Lexer class provides functionality to tokenize source code
  * It reads input from a file, tokenizes it, and writes the
  * resulting tokens to another file.
  *
+ * Files are read through a fixed-size window, so memory use does not
+ * grow with the size of the input. A Lexer opened on a file should be
+ * closed if it is not read to the end.
+ *
  * Completed by Edale Miguel
  */
-public class Lexer {
-    private int line;
-    private int pos;
-    private int position;
-    private char chr;
-    private String s;
-
-    private TokenType prevToken;
-
-    // Mapping of keywords to their corresponding token types
-    Map<String, TokenType> keywords = new HashMap<>();
-
-    /**
-     * Represents a token with its type, value, line, and position.
-     */
-    static class Token {
-        public TokenType tokentype;
-        public String value;
-        public int line;
-        public int pos;
-
-        /**
-         * Constructs a new Token Object.
-         * @param token     Type of Token
-         * @param value     Value of Token
-         * @param line      Line number where the token is
-         * @param pos       Position where token is
-         */
-        Token(TokenType token, String value, int line, int pos) {
-            this.tokentype = token; this.value = value; this.line = line; this.pos = pos;
-        }
-
-        /**
-         * Converts the Token Object to string
-         * @return      String of the Token Object
-         */
-        @Override
-        public String toString() {
-            String result = String.format("%5d  %5d %-15s", this.line, this.pos, this.tokentype);
-            switch (this.tokentype) {
-                case Integer:
-                    result += String.format("  %4s", value);
-                    break;
-                case Identifier:
-                    result += String.format(" %s", value);
-                    break;
-                case String:
-                    result += String.format(" \"%s\"", value);
-                    break;
-            }
-            return result;
-        }
-    }
-    // Enum for different types of tokens
-    static enum TokenType {
-        End_of_input, Op_multiply,  Op_divide, Op_mod, Op_add, Op_subtract,
-        Op_negate, Op_not, Op_less, Op_lessequal, Op_greater, Op_greaterequal,
-        Op_equal, Op_notequal, Op_assign, Op_and, Op_or, Keyword_if,
-        Keyword_else, Keyword_while, Keyword_print, Keyword_putc, LeftParen, RightParen,
-        LeftBrace, RightBrace, Semicolon, Comma, Identifier, Integer, String
-    }
+public class Lexer implements Closeable {
+    // scanner state, shared with TableLexer
+    int line;
+    int pos;
+    int position;
+    char chr;
+    char[] buf;
+    private int limit;
+
+    // Remaining input when reading from a file, null once it is used up
+    private Reader in;
+    boolean streamed;
+    // Tokens handed out since the window was last refilled, which may still be slices of it
+    private Token[] handedOut = new Token[64];
+    private int handedOutCount;
+    // Start of the token being scanned, -1 when no text has to be kept
+    int mark = -1;
+    boolean content;
+
+    TokenType prevToken;
+
+    // Number of characters read from a file at a time
+    static final int WINDOW = 1 << 16;
 
     /**
-     * Handles errors during tokenization
+     * Handles errors during tokenization by throwing a CompileError. The
+     * main methods print its message and exit.
      * @param line      Line number where the error is
      * @param pos       Position where the error is
      * @param msg       Error message
      */
     static void error(int line, int pos, String msg) {
-        if (line > 0 && pos > 0) {
-            System.out.printf("%s in line %d, pos %d\n", msg, line, pos);
-        } else {
-            System.out.println(msg);
-        }
-        System.exit(1);
+        throw new CompileError(new Diagnostic(line, pos, msg));
     }
 
     /**
@@ -95,17 +62,68 @@ public class Lexer {
      * @param source    Source code string to tokenize
      */
     Lexer(String source) {
+        this(source.toCharArray(), source.length());
+    }
+
+    /**
+     * Constructs a Lexer Object that reads its source from a stream. The
+     * input is read a window at a time and laid out the way LexerFiles
+     * always did it: one leading space and a newline after the last line.
+     * @param in        Reader for the source code
+     */
+    Lexer(Reader in) {
+        this(new char[] {' '}, 1);
+        this.in = in;
+        this.streamed = true;
+    }
+
+    /**
+     * Constructs a Lexer Object for one chunk of a larger source, as used by
+     * ParallelLexer. Scanning starts on buf[from] with the given line and
+     * position, and the input ends at to as if nothing came after it.
+     * @param buf       Characters of the whole source
+     * @param from      Offset of the first character of the chunk
+     * @param to        Offset just past the last character of the chunk
+     * @param line      Line number of buf[from]
+     * @param pos       Position of buf[from]
+     */
+    Lexer(char[] buf, int from, int to, int line, int pos) {
+        this(buf, to);
+        this.position = from;
+        this.line = line;
+        this.pos = pos;
+        this.chr = from < to ? buf[from] : '\u0000';
+    }
+
+    private Lexer(char[] buf, int limit) {
         this.line = 1;
         this.pos = 0;
         this.position = 0;
-        this.s = source;
-        this.chr = this.s.charAt(0);
-        this.keywords.put("if", TokenType.Keyword_if);
-        this.keywords.put("else", TokenType.Keyword_else);
-        this.keywords.put("print", TokenType.Keyword_print);
-        this.keywords.put("putc", TokenType.Keyword_putc);
-        this.keywords.put("while", TokenType.Keyword_while);
+        this.buf = buf;
+        this.limit = limit;
+        this.chr = limit > 0 ? buf[0] : '\u0000';
+    }
 
+    /**
+     * Opens a source file for lexing
+     * @param fileName  Name of the source file
+     * @return          Lexer reading from the file
+     * @throws IOException  If the file cannot be opened
+     */
+    static Lexer open(String fileName) throws IOException {
+        return open(fileName, false);
+    }
+
+    /**
+     * Opens a source file for lexing with the chosen engine
+     * @param fileName  Name of the source file
+     * @param table     True for the table-driven TableLexer
+     * @return          Lexer reading from the file
+     * @throws IOException  If the file cannot be opened
+     */
+    static Lexer open(String fileName, boolean table) throws IOException {
+        Reader in = Files.newBufferedReader(Paths.get(fileName));
+        return table ? new TableLexer(in) : new Lexer(in);
     }
 
     /**
@@ -160,16 +178,18 @@ public class Lexer {
      * @return          Token representing the string literal
      */
     Token string_lit(char start, int line, int pos) { // handle string literals
-        String result = "";
-        // code here
         getNextChar();
+        this.mark = this.position;
         while (this.chr != '\"' ) {
-            result += this.chr;
+            if (this.chr == '\u0000') {
+                error(line, pos, "EOF while scanning string literal");
+            }
             getNextChar();
         }
+        Token t = new Token(TokenType.String, this.buf, this.mark, this.position - this.mark, line, pos);
 
         getNextChar();
-        return new Token(TokenType.String, result, line, pos);
+        return t;
     }
     // example
     /* example 2 */
@@ -184,21 +204,12 @@ public class Lexer {
         // code here
         getNextChar();
         if(this.chr == '/'){
-            while (this.chr != '\n')
-                getNextChar();
+            this.mark = -1;
+            skipLineComment();
         }else if(this.chr == '*'){
+            this.mark = -1;
             getNextChar();
-            while(true)
-            {
-                if (this.chr == '*' ) {
-                    getNextChar();
-                    if(this.chr == '/') {
-                        getNextChar();
-                        break;
-                    }
-                }
-                getNextChar();
-            }
+            skipBlockComment(line, pos);
         }else{
             return new Token(TokenType.Op_divide, "", line, pos);
         }
@@ -213,21 +224,70 @@ public class Lexer {
      */
     Token identifier_or_integer(int line, int pos) { // handle identifiers and integers
         boolean is_number = true;
-        String text = "";
-        // code here
+        this.mark = this.position;
 
         while (Character.isLetterOrDigit(this.chr)   ||  this.chr == '_' ) {
-            text += this.chr;
+            if (this.chr < '0' || this.chr > '9') {
+                is_number = false;
+            }
             getNextChar();
         }
-        if(text.matches("[0-9]+")){
-            return new Token(TokenType.Integer, text, line, pos);
-        }else if(this.keywords.containsKey(text)){
-            return new Token(this.keywords.get(text), text, line, pos);
+        int start = this.mark;
+        int length = this.position - start;
+        if (length == 0) {
+            // nothing was scanned, so the character is not one the language has
+            error(line, pos, "Unrecognized character '" + this.chr + "'");
+        }
+        if (is_number) {
+            return new Token(TokenType.Integer, this.buf, start, length, line, pos);
+        }
+        TokenType keyword = keyword(this.buf, start, length);
+        if (keyword != null) {
+            return new Token(keyword, this.buf, start, length, line, pos);
         }
         else{
-            return new Token(TokenType.Identifier, text, line, pos);
+            return new Token(TokenType.Identifier, this.buf, start, length, line, pos);
+        }
+    }
+
+    /**
+     * Recognizes a keyword straight from the source characters. Words are
+     * told apart by their length and first character, so at most one
+     * keyword is compared and nothing is hashed or allocated. A new keyword
+     * gets a case here next to the ones of the same length.
+     * @param buf       Characters holding the word
+     * @param start     Offset of the word
+     * @param length    Length of the word
+     * @return          Keyword token type, or null if the word is not a keyword
+     */
+    static TokenType keyword(char[] buf, int start, int length) {
+        switch (length) {
+            case 2:
+                if (matches(buf, start, "if")) return TokenType.Keyword_if;
+                break;
+            case 4:
+                switch (buf[start]) {
+                    case 'e': if (matches(buf, start, "else")) return TokenType.Keyword_else; break;
+                    case 'p': if (matches(buf, start, "putc")) return TokenType.Keyword_putc; break;
+                }
+                break;
+            case 5:
+                switch (buf[start]) {
+                    case 'p': if (matches(buf, start, "print")) return TokenType.Keyword_print; break;
+                    case 'w': if (matches(buf, start, "while")) return TokenType.Keyword_while; break;
+                }
+                break;
+        }
+        return null;
+    }
+
+    private static boolean matches(char[] buf, int start, String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (buf[start + i] != word.charAt(i)) {
+                return false;
+            }
         }
+        return true;
     }
 
     /**
@@ -236,16 +296,20 @@ public class Lexer {
      */
     Token getToken() {
         int line, pos;
-        while (Character.isWhitespace(this.chr)) {
-            getNextChar();
-        }
+        // line a file ending here would put End_of_input on
+        int end = this.chr == '\n' ? this.line : this.line + 1;
+        this.mark = -1;
+        skipWhitespace();
         line = this.line;
         pos = this.pos;
+        if (this.chr != '\u0000') {
+            this.content = true;
+        }
         Token t = null;
         // switch statement on character for all forms of tokens with return to follow.... one example left for you
 
         switch (this.chr) {
-            case '\u0000': return new Token(TokenType.End_of_input, "", this.line, this.pos);
+            case '\u0000': return endOfInput(end);
             // remaining case statements
             case '=' :
                 t = follow('=', TokenType.Op_equal, TokenType.Op_assign, line, pos);
@@ -327,6 +391,152 @@ public class Lexer {
         }
     }
 
+    /**
+     * Same test as Character.isWhitespace, answered without a call for ASCII
+     * @param c     Character to test
+     * @return      True if c is whitespace
+     */
+    static boolean isSpace(char c) {
+        if (c <= ' ') {
+            return c == ' ' || (c >= '\t' && c <= '\r') || c >= '\u001C';
+        }
+        return c >= 128 && Character.isWhitespace(c);
+    }
+
+    /**
+     * Skips a run of whitespace. The run is found with a plain loop over the
+     * window and line and pos are updated once for the whole run, instead
+     * of going through getNextChar for every character.
+     */
+    void skipWhitespace() {
+        while (isSpace(this.chr)) {
+            char[] b = this.buf;
+            int n = this.limit;
+            int i = this.position + 1;
+            while (i < n && isSpace(b[i])) {
+                i++;
+            }
+            if (i < n) {
+                moveTo(i);
+                return;
+            }
+            // the run reaches the end of the window
+            moveTo(n - 1);
+            getNextChar();
+        }
+    }
+
+    /**
+     * Skips the rest of a // comment, stopping on the newline that ends it.
+     */
+    private void skipLineComment() {
+        while (this.chr != '\n' && this.chr != '\u0000') {
+            char[] b = this.buf;
+            int n = this.limit;
+            int i = this.position + 1;
+            while (i < n && b[i] != '\n' && b[i] != '\u0000') {
+                i++;
+            }
+            if (i < n) {
+                moveTo(i);
+                return;
+            }
+            moveTo(n - 1);
+            getNextChar();
+        }
+    }
+
+    /**
+     * Skips the rest of a block comment, starting on its first character.
+     * Like the character-at-a-time loop this replaces, the character after
+     * a '*' is always passed over, and only a '*' directly followed by '/'
+     * ends the comment.
+     * @param line  Line number where the comment starts
+     * @param pos   Position where the comment starts
+     */
+    private void skipBlockComment(int line, int pos) {
+        while (true) {
+            if (this.chr == '\u0000') {
+                error(line, pos, "EOF in comment");
+            }
+            char[] b = this.buf;
+            int n = this.limit;
+            int i = this.position;
+            while (i + 1 < n) {
+                char c = b[i];
+                if (c == '*') {
+                    if (b[i + 1] == '/') {
+                        moveTo(i + 1);
+                        getNextChar();
+                        return;
+                    }
+                    i += 2;
+                } else if (c == '\u0000') {
+                    moveTo(i);
+                    error(line, pos, "EOF in comment");
+                } else {
+                    i++;
+                }
+            }
+            if (i >= n) {
+                // the character passed over after a '*' was the last in the window
+                moveTo(n - 1);
+                getNextChar();
+                continue;
+            }
+            // one character left in the window, take it a character at a time
+            moveTo(i);
+            if (this.chr == '\u0000') {
+                continue;
+            }
+            if (this.chr == '*' ) {
+                getNextChar();
+                if(this.chr == '/') {
+                    getNextChar();
+                    return;
+                }
+            }
+            getNextChar();
+        }
+    }
+
+    /**
+     * Moves straight to buf[t] in the current window, counting the
+     * newlines passed on the way just as getNextChar would
+     * @param t     Index in the window to move to
+     */
+    private void moveTo(int t) {
+        char[] b = this.buf;
+        int lines = 0, lastNewline = 0;
+        for (int i = this.position + 1; i <= t; i++) {
+            if (b[i] == '\n') {
+                lines++;
+                lastNewline = i;
+            }
+        }
+        if (lines > 0) {
+            this.line += lines;
+            this.pos = t - lastNewline;
+        } else {
+            this.pos += t - this.position;
+        }
+        this.position = t;
+        this.chr = b[t];
+    }
+
+    /**
+     * Makes the End_of_input token
+     * @param end   Line a streamed file that ends here puts End_of_input on
+     * @return      The End_of_input token
+     */
+    Token endOfInput(int end) {
+        if (this.streamed) {
+            // a file always ends with one newline after its last line of text
+            return new Token(TokenType.End_of_input, "", this.content ? end : 1, 1);
+        }
+        return new Token(TokenType.End_of_input, "", this.line, this.pos);
+    }
+
     /**
      * Gets the next character from the input stream
      * @return      The next character in the input stream
@@ -334,11 +544,11 @@ public class Lexer {
     char getNextChar() {
         this.pos++;
         this.position++;
-        if (this.position >= this.s.length()) {
+        if (this.position >= this.limit && !fill()) {
             this.chr = '\u0000';
             return this.chr;
         }
-        this.chr = this.s.charAt(this.position);
+        this.chr = this.buf[this.position];
         if (this.chr == '\n') {
             this.line++;
             this.pos = 0;
@@ -346,21 +556,153 @@ public class Lexer {
         return this.chr;
     }
 
+    /**
+     * Reads the next window of a streamed source. Only the text of the token
+     * being scanned is carried over, moved to the front of the same array,
+     * and a bigger array is made only when that text fills half of it.
+     * Tokens handed out from the window get their own copy of their values
+     * before it is written over.
+     * @return      True if more input was read
+     */
+    private boolean fill() {
+        if (this.in == null) {
+            return false;
+        }
+        int keep = this.mark >= 0 ? this.mark : this.limit;
+        int kept = this.limit - keep;
+        char[] next = this.buf;
+        if (next.length < WINDOW || kept * 2 > next.length) {
+            next = new char[Math.max(WINDOW, kept * 2)];
+        } else {
+            for (int i = 0; i < this.handedOutCount; i++) {
+                this.handedOut[i].detach();
+            }
+        }
+        Arrays.fill(this.handedOut, 0, this.handedOutCount, null);
+        this.handedOutCount = 0;
+        System.arraycopy(this.buf, keep, next, 0, kept);
+        int n;
+        try {
+            n = this.in.read(next, kept, next.length - kept);
+            while (n == 0) {
+                n = this.in.read(next, kept, next.length - kept);
+            }
+            if (n < 0) {
+                close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.buf = next;
+        this.limit = kept + Math.max(n, 0);
+        this.position -= keep;
+        if (this.mark >= 0) {
+            this.mark -= keep;
+        }
+        return n > 0;
+    }
+
+    /**
+     * Closes the source file, if the Lexer reads one. Reading it to the end
+     * closes it too, so this is only needed when lexing stops early, as it
+     * does on an error.
+     * @throws IOException  If the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        Reader in = this.in;
+        this.in = null;
+        if (in != null) {
+            in.close();
+        }
+    }
+
+    /**
+     * Gets the next token and remembers its type for telling
+     * subtraction and negation apart
+     * @return      The next token in the source code
+     */
+    Token nextToken() {
+        Token t = scanToken();
+        if (this.in != null) {
+            // the caller may keep it past the next refill of the window
+            if (this.handedOutCount == this.handedOut.length) {
+                this.handedOut = Arrays.copyOf(this.handedOut, this.handedOutCount * 2);
+            }
+            this.handedOut[this.handedOutCount++] = t;
+        }
+        return t;
+    }
+
+    /**
+     * Gets the next token for a caller that is done with it before asking
+     * for another, so it is never kept past a refill of the window
+     * @return      The next token in the source code
+     */
+    private Token scanToken() {
+        Token t = getToken();
+        this.prevToken = t.tokentype;
+        return t;
+    }
+
+    /**
+     * Hands out the tokens of the source one at a time, ending
+     * with the End_of_input token
+     * @return      Iterator over the tokens
+     */
+    Iterator<Token> tokens() {
+        return new Iterator<Token>() {
+            private boolean done;
+
+            @Override
+            public boolean hasNext() {
+                return !this.done;
+            }
+
+            @Override
+            public Token next() {
+                if (this.done) {
+                    throw new NoSuchElementException();
+                }
+                Token t = nextToken();
+                this.done = t.tokentype == TokenType.End_of_input;
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Collects all the tokens of the source code into a packed token stream
+     * @return      Token stream ending with the End_of_input token
+     */
+    TokenBuffer tokenize() {
+        TokenBuffer tokens = new TokenBuffer();
+        Token t;
+        do {
+            t = scanToken();
+            t.addTo(tokens);
+        } while (t.tokentype != TokenType.End_of_input);
+        return tokens;
+    }
+
     /**
      * Prints tokens found in the source code
      * @return      String containing all the tokens
      */
     String printTokens() {
         Token t;
-        StringBuilder sb = new StringBuilder();
-        while ((t = getToken()).tokentype != TokenType.End_of_input) {
-            sb.append(t);
-            sb.append("\n");
-            System.out.println(t);
-            this.prevToken = t.tokentype;
-        }
-        sb.append(t);
-        System.out.println(t);
+        TextSink sb = new TextSink();
+        TextSink echo = TextSink.console();
+        while ((t = scanToken()).tokentype != TokenType.End_of_input) {
+            t.printTo(sb).append('\n');
+            if (echo != null) {
+                t.printTo(echo).append('\n');
+            }
+        }
+        t.printTo(sb);
+        if (echo != null) {
+            t.printTo(echo).append('\n').flush();
+        }
         return sb.toString();
     }
 
@@ -376,38 +718,73 @@ public class Lexer {
             myWriter.close();
             System.out.println("Successfully wrote to the file.");
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            throw new UncheckedIOException(e);
         }
     }
 
     public static void main(String[] args) {
-        if (1==1) {
-            LexerFiles("src/main/resources/prime.c", "src/main/resources/prime.lex");
-            LexerFiles("src/main/resources/fizzbuzz.c", "src/main/resources/fizzbuzz.lex");
-            LexerFiles("src/main/resources/99bottles.c", "src/main/resources/99bottles.lex");
-            LexerFiles("src/main/resources/count.c", "src/main/resources/count.lex");
-            LexerFiles("src/main/resources/testFile1.c", "src/main/resources/testFile1.lex");
-            LexerFiles("src/main/resources/testFile2.c", "src/main/resources/testFile2.lex");
-        } else {
-            error(-1, -1, "No args");
+        try {
+            if (1==1) {
+                // --engine=table lexes with the table-driven TableLexer, --quiet turns off the echo
+                boolean table = false;
+                for (String arg : args) {
+                    table |= arg.equals("--engine=table");
+                    TextSink.quiet |= arg.equals("--quiet");
+                }
+                LexerFiles("src/main/resources/prime.c", "src/main/resources/prime.lex", table);
+                LexerFiles("src/main/resources/fizzbuzz.c", "src/main/resources/fizzbuzz.lex", table);
+                LexerFiles("src/main/resources/99bottles.c", "src/main/resources/99bottles.lex", table);
+                LexerFiles("src/main/resources/count.c", "src/main/resources/count.lex", table);
+                LexerFiles("src/main/resources/testFile1.c", "src/main/resources/testFile1.lex", table);
+                LexerFiles("src/main/resources/testFile2.c", "src/main/resources/testFile2.lex", table);
+            } else {
+                error(-1, -1, "No args");
+            }
+        } catch (CompileError e) {
+            e.exit();
         }
     }
 
     public static void LexerFiles(String inFileName, String outFileName) {
-        try {
+        LexerFiles(inFileName, outFileName, false);
+    }
 
-            File f = new File(inFileName);
-            Scanner s = new Scanner(f);
-            String source = " ";
-            while (s.hasNext()) {
-                source += s.nextLine() + "\n";
+    public static void LexerFiles(String inFileName, String outFileName, boolean table) {
+        if (outFileName.endsWith(".lexb")) {
+            try (Lexer lexer = open(inFileName, table)) {
+                lexer.tokenize().write(outFileName);
+            } catch (IOException e) {
+                error(-1, -1, "Exception: " + e.getMessage());
             }
-            String result = LexerParser(source);
-            outputToFile(outFileName, result);
-
-        } catch(FileNotFoundException e) {
+            System.out.println("Successfully wrote to the file.");
+            return;
+        }
+        TextSink echo = TextSink.console();
+        try (Lexer lexer = open(inFileName, table);
+                FileChannel ch = FileChannel.open(Paths.get(outFileName), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            TextSink out = new TextSink(ch);
+            while (true) {
+                // each token is printed before the next is scanned, so none is kept
+                Token t = lexer.scanToken();
+                t.printTo(out);
+                if (echo != null) {
+                    t.printTo(echo).append('\n');
+                }
+                if (t.tokentype == TokenType.End_of_input) {
+                    break;
+                }
+                out.append('\n');
+            }
+            out.flush();
+        } catch (IOException e) {
             error(-1, -1, "Exception: " + e.getMessage());
+        } finally {
+            if (echo != null) {
+                echo.flush();
+            }
         }
+        System.out.println("Successfully wrote to the file.");
     }
 
 
@@ -0,0 +1,74 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+/**
+ * Compares the throughput of the switch-based Lexer, the table-driven
+ * TableLexer and the chunked ParallelLexer, in MB/s of source text. Small
+ * files are repeated until the input is a few MB, and the engines' tokens
+ * are checked to be the same before anything is timed.
+ *
+ * Usage: LexerBenchmark [file] [runs]
+ */
+class LexerBenchmark {
+    public static void main(String[] args) throws IOException {
+        String fileName = args.length > 0 ? args[0] : "src/main/resources/prime.c";
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String source = new String(Files.readAllBytes(Paths.get(fileName)));
+        StringBuilder sb = new StringBuilder(" ");
+        do {
+            sb.append(source).append('\n');
+        } while (sb.length() < 4 << 20);
+        String text = sb.toString();
+
+        Iterator<Token> a = new Lexer(text).tokens();
+        Iterator<Token> b = new TableLexer(text).tokens();
+        while (a.hasNext()) {
+            String expected = a.next().toString();
+            String actual = b.next().toString();
+            if (!expected.equals(actual)) {
+                System.out.println("Engines differ: " + expected + " / " + actual);
+                return;
+            }
+        }
+        TokenBuffer sequential = new Lexer(text).tokenize();
+        TokenBuffer chunked = ParallelLexer.tokenize(text, false);
+        for (int i = 0; i < Math.max(sequential.size(), chunked.size()); i++) {
+            if (i >= chunked.size() || i >= sequential.size()
+                    || !sequential.get(i).toString().equals(chunked.get(i).toString())) {
+                System.out.println("ParallelLexer differs at token " + i);
+                return;
+            }
+        }
+
+        System.out.printf("%d chars, %d runs%n", text.length(), runs);
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT
+            double legacy = measure(text, runs, src -> new Lexer(src).tokenize());
+            double table = measure(text, runs, src -> new TableLexer(src).tokenize());
+            double parallel = measure(text, runs, src -> ParallelLexer.tokenize(src, false));
+            if (round > 0) {
+                System.out.printf("switch Lexer  %8.1f MB/s%n", legacy);
+                System.out.printf("TableLexer    %8.1f MB/s%n", table);
+                System.out.printf("ParallelLexer %8.1f MB/s (%d workers)%n", parallel,
+                        ForkJoinPool.getCommonPoolParallelism());
+            }
+        }
+    }
+
+    private static double measure(String text, int runs, Function<String, TokenBuffer> lexer) {
+        long tokens = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            tokens += lexer.apply(text).size();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (tokens == 0) {
+            System.out.println("no tokens");
+        }
+        return (double) text.length() * runs / seconds / 1e6;
+    }
+}
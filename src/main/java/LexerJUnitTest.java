@@ -10,43 +10,74 @@ public class LexerJUnitTest {
     @Test
     void char_lit() {
         Lexer lexerTest = new Lexer ("\'\n\'");
-        Lexer.Token t=lexerTest.char_lit(1, 1);
-        assertEquals("10", t.value);
+        Token t=lexerTest.char_lit(1, 1);
+        assertEquals("10", t.getValue());
 
         lexerTest = new Lexer ("\'\\\'");
         t=lexerTest.char_lit(1, 1);
-        assertEquals("92", t.value);
+        assertEquals("92", t.getValue());
 
         lexerTest = new Lexer ("\'b\'");
         t=lexerTest.char_lit(1, 1);
-        assertEquals("98", t.value);
+        assertEquals("98", t.getValue());
     }
     @Test
     void string_lit() {
         Lexer lexerTest = new Lexer ("\"Anime Rocks\n\"");
-        Lexer.Token t=lexerTest.string_lit('\"', 1, 1);
-        assertEquals(("Anime Rocks\n"), t.value);
+        Token t=lexerTest.string_lit('\"', 1, 1);
+        assertEquals(("Anime Rocks\n"), t.getValue());
 
         lexerTest = new Lexer ("\"Carpe Diem!\n\"");
         t=lexerTest.string_lit('\"', 1, 1);
-        assertEquals(("Carpe Diem!\n"), t.value);
+        assertEquals(("Carpe Diem!\n"), t.getValue());
     }
 
+    @Test
+    void identifier_or_integer() {
+        Lexer lexerTest = new Lexer ("123;");
+        Token t=lexerTest.identifier_or_integer(1, 1);
+        assertEquals(TokenType.Integer, t.tokentype);
+        assertEquals("123", t.getValue());
+
+        lexerTest = new Lexer ("12ab ");
+        t=lexerTest.identifier_or_integer(1, 1);
+        assertEquals(TokenType.Identifier, t.tokentype);
+        assertEquals("12ab", t.getValue());
+
+        lexerTest = new Lexer ("while(");
+        t=lexerTest.identifier_or_integer(1, 1);
+        assertEquals(TokenType.Keyword_while, t.tokentype);
+    }
+
+    @Test
+    void keyword() {
+        char[] src = "if else while print putc iff els whilst printf pu".toCharArray();
+        assertEquals(TokenType.Keyword_if, Lexer.keyword(src, 0, 2));
+        assertEquals(TokenType.Keyword_else, Lexer.keyword(src, 3, 4));
+        assertEquals(TokenType.Keyword_while, Lexer.keyword(src, 8, 5));
+        assertEquals(TokenType.Keyword_print, Lexer.keyword(src, 14, 5));
+        assertEquals(TokenType.Keyword_putc, Lexer.keyword(src, 20, 4));
+        assertEquals(null, Lexer.keyword(src, 25, 3));
+        assertEquals(null, Lexer.keyword(src, 29, 3));
+        assertEquals(null, Lexer.keyword(src, 33, 6));
+        assertEquals(null, Lexer.keyword(src, 40, 6));
+        assertEquals(null, Lexer.keyword(src, 47, 2));
+    }
 
     @Test
     void getToken() {
         Lexer lexerTest = new Lexer ("=");
-        Lexer.Token t=lexerTest.getToken();
-        assertEquals("", t.value);
+        Token t=lexerTest.getToken();
+        assertEquals("", t.getValue());
         lexerTest = new Lexer (">");
         t=lexerTest.getToken();
-        assertEquals("", t.value);
+        assertEquals("", t.getValue());
         lexerTest = new Lexer ("!");
         t=lexerTest.getToken();
-        assertEquals("", t.value);
+        assertEquals("", t.getValue());
         lexerTest = new Lexer ("*");
         t=lexerTest.getToken();
-        assertEquals("", t.value);
+        assertEquals("", t.getValue());
     }
 }
 
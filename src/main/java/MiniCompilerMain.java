@@ -1,35 +1,54 @@
-
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.Scanner;
-
-import static jdk.internal.org.jline.utils.Log.error;
+import java.io.IOException;
 
 public class MiniCompilerMain {
     public static void main(String[] args) {
 
         try {
 
-            File f = new File("src/main/resources/testFile1.c");
-            //File f = new File(fileName);
-            Scanner s = new Scanner(f);
-            String source = " ";
-            while (s.hasNext()) {
-                source += s.nextLine() + "\n";
+            String fileName = "src/main/resources/testFile1.c";
+            boolean table = false;
+            boolean parallel = false;
+            for (String arg : args) {
+                if (arg.equals("--engine=table")) {
+                    table = true;
+                } else if (arg.equals("--parallel")) {
+                    parallel = true;
+                } else if (arg.equals("--quiet")) {
+                    TextSink.quiet = true;
+                } else {
+                    fileName = arg;
+                }
+            }
+            // the Lexer hands its tokens to the Parser directly, no .lex text in between
+            TokenBuffer tokens;
+            if (parallel) {
+                tokens = ParallelLexer.tokenizeFile(fileName, table);
+            } else {
+                try (Lexer lexer = Lexer.open(fileName, table)) {
+                    tokens = lexer.tokenize();
+                }
             }
-            String result = Lexer.LexerParser(source);
-            //outputToFile(result);
-
-            System.out.println("Lexical Output");
-            System.out.println(result);
-
-            String finalResult = Parser.ParseLexicalOutput(result);
 
-            System.out.println("Parser Output");
-            System.out.print(finalResult);
+            TextSink out = TextSink.console();
+            if (out != null) {
+                out.append("Lexical Output\n");
+                for (int i = 0; i < tokens.size(); i++) {
+                    out.token(tokens, i).append('\n');
+                }
+                out.append("Parser Output\n").flush();
+            }
 
-        } catch(FileNotFoundException e) {
-            error(-1, -1, "Exception: " + e.getMessage());
+            // every syntax error in the file is reported, not just the first
+            Parser parser = new Parser(tokens);
+            parser.recoverErrors();
+            Parser.Node tree = parser.parse();
+            parser.throwErrors();
+            Parser.echoAST(tree);
+
+        } catch(IOException e) {
+            new CompileError("Exception: " + e.getMessage()).exit();
+        } catch (CompileError e) {
+            e.exit();
         }
 
     }
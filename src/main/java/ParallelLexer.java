@@ -0,0 +1,230 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * ParallelLexer lexes a large source in chunks on the common ForkJoinPool.
+ * The source is cut at newlines that are between tokens, so never inside a
+ * string literal, a comment or a character literal, and each chunk is
+ * lexed on its own by a Lexer that starts with the right line number.
+ * The chunks' tokens are then joined into one stream that is the same as
+ * the one a single Lexer would give.
+ *
+ * The only token that depends on the one before it is '-', which is
+ * Op_subtract after an Integer or Identifier and Op_negate otherwise. A
+ * chunk's Lexer cannot see the previous chunk, so the first token of each
+ * chunk is looked at again when the chunks are joined.
+ */
+class ParallelLexer {
+    // Sources shorter than two chunks are lexed in one go
+    static final int MIN_CHUNK = 1 << 20;
+
+    /**
+     * Lexes a source string the way new Lexer(source).tokenize() does
+     * @param source    Source code string to tokenize
+     * @param table     True for the table-driven TableLexer
+     * @return          Token stream ending with the End_of_input token
+     */
+    static TokenBuffer tokenize(String source, boolean table) {
+        return tokenize(source.toCharArray(), false, table, chunkSize(source.length()));
+    }
+
+    /**
+     * Lexes a source file the way Lexer.open(fileName, table).tokenize() does
+     * @param fileName  Name of the source file
+     * @param table     True for the table-driven TableLexer
+     * @return          Token stream ending with the End_of_input token
+     * @throws IOException  If the file cannot be read
+     */
+    static TokenBuffer tokenizeFile(String fileName, boolean table) throws IOException {
+        String source = new String(Files.readAllBytes(Paths.get(fileName)), StandardCharsets.UTF_8);
+        // same layout as a streamed Lexer: one leading space before the file
+        char[] buf = new char[source.length() + 1];
+        buf[0] = ' ';
+        source.getChars(0, source.length(), buf, 1);
+        return tokenize(buf, true, table, chunkSize(buf.length));
+    }
+
+    private static int chunkSize(int length) {
+        // a few chunks per worker so a slow chunk does not hold up the rest
+        return Math.max(MIN_CHUNK, length / (ForkJoinPool.getCommonPoolParallelism() * 4));
+    }
+
+    /**
+     * Lexes a source held in a character array in chunks of about the given size
+     * @param buf       Characters of the source
+     * @param streamed  True if the source has the layout of a streamed file
+     * @param table     True for the table-driven TableLexer
+     * @param chunk     Number of characters to aim for in each chunk
+     * @return          Token stream ending with the End_of_input token
+     */
+    static TokenBuffer tokenize(char[] buf, boolean streamed, boolean table, int chunk) {
+        List<int[]> starts = boundaries(buf, chunk);
+        List<ChunkTask> tasks = new ArrayList<>();
+        for (int k = 0; k < starts.size(); k++) {
+            int[] start = starts.get(k);
+            int to = k + 1 < starts.size() ? starts.get(k + 1)[0] : buf.length;
+            tasks.add(new ChunkTask(buf, start[0], to, start[1], streamed, table));
+        }
+        if (tasks.size() == 1) {
+            return tasks.get(0).compute();
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        int total = 0;
+        for (ChunkTask task : tasks) {
+            total += task.join().size();
+        }
+        TokenBuffer tokens = new TokenBuffer(total);
+        int endLine = 1, endPos = 1;
+        for (int k = 0; k < tasks.size(); k++) {
+            ChunkTask task = tasks.get(k);
+            TokenBuffer part = task.join();
+            // every chunk ends with an End_of_input of its own
+            int count = part.size() - 1;
+            if (count > 0 && part.type(0) == TokenType.Op_negate && tokens.size() > 0) {
+                TokenType prev = tokens.type(tokens.size() - 1);
+                if (prev == TokenType.Integer || prev == TokenType.Identifier) {
+                    part.setType(0, TokenType.Op_subtract);
+                }
+            }
+            tokens.append(part, count);
+            if (!streamed || task.content) {
+                endLine = part.line(count);
+                endPos = part.pos(count);
+            }
+        }
+        // a streamed file ends after the last line with any text, which may be in an earlier chunk
+        tokens.add(TokenType.End_of_input, endLine, endPos, "");
+        return tokens;
+    }
+
+    /**
+     * Finds where to cut the source. Each cut is on a newline that the Lexer
+     * would reach between two tokens, about chunk characters after the one
+     * before. The scan only follows what the Lexer takes as one token: string
+     * literals, comments, character literals and the two characters of '&&'
+     * and '||'. Once it is unsure, for an unterminated literal or comment or
+     * a NUL, it stops cutting, and the rest is left to a single Lexer.
+     * @param b         Characters of the source
+     * @param chunk     Number of characters to aim for in each chunk
+     * @return          Offset and line number of the start of each chunk
+     */
+    private static List<int[]> boundaries(char[] b, int chunk) {
+        List<int[]> starts = new ArrayList<>();
+        starts.add(new int[] {0, 1});
+        int n = b.length;
+        if (n < chunk * 2) {
+            return starts;
+        }
+        int line = 1;
+        int next = chunk;
+        int i = 0;
+        scan:
+        while (i < n) {
+            char c = b[i];
+            int end; // end of the characters the Lexer takes together
+            if (c == '\n') {
+                // the Lexer starts on b[0] without counting it
+                if (i > 0) {
+                    line++;
+                }
+                if (i >= next && n - i >= chunk / 2) {
+                    starts.add(new int[] {i, line});
+                    next = i + chunk;
+                }
+                i++;
+                continue;
+            } else if (c == '\u0000') {
+                break;
+            } else if (c == '"') {
+                end = i + 1;
+                while (end < n && b[end] != '"') {
+                    end++;
+                }
+                if (end >= n) {
+                    break;
+                }
+                end++;
+            } else if (c == '/' && i + 1 < n && b[i + 1] == '/') {
+                // the newline that ends the comment is not part of it
+                end = i + 2;
+                while (end < n && b[end] != '\n' && b[end] != '\u0000') {
+                    end++;
+                }
+            } else if (c == '/' && i + 1 < n && b[i + 1] == '*') {
+                // as in the Lexer, the character after a '*' is always passed over
+                end = i + 2;
+                while (true) {
+                    if (end + 1 >= n) {
+                        break scan;
+                    }
+                    if (b[end] == '*') {
+                        end += 2;
+                        if (b[end - 1] == '/') {
+                            break;
+                        }
+                    } else {
+                        end++;
+                    }
+                }
+            } else if (c == '\'') {
+                end = i + 1 < n && b[i + 1] == '\\' ? i + 4 : i + 3;
+            } else if (c == '&' || c == '|') {
+                end = i + 2;
+            } else {
+                i++;
+                continue;
+            }
+            if (end > n) {
+                break;
+            }
+            for (int j = i + 1; j < end; j++) {
+                if (b[j] == '\n') {
+                    line++;
+                } else if (b[j] == '\u0000') {
+                    break scan;
+                }
+            }
+            i = end;
+        }
+        return starts;
+    }
+
+    /**
+     * Lexes one chunk of the source.
+     */
+    private static final class ChunkTask extends RecursiveTask<TokenBuffer> {
+        private static final long serialVersionUID = 1L;
+        private final char[] buf;
+        private final int from, to, line;
+        private final boolean streamed, table;
+        // True once the chunk turned out to hold more than whitespace
+        boolean content;
+
+        ChunkTask(char[] buf, int from, int to, int line, boolean streamed, boolean table) {
+            this.buf = buf;
+            this.from = from;
+            this.to = to;
+            this.line = line;
+            this.streamed = streamed;
+            this.table = table;
+        }
+
+        @Override
+        protected TokenBuffer compute() {
+            Lexer l = this.table ? new TableLexer(this.buf, this.from, this.to, this.line, 0)
+                    : new Lexer(this.buf, this.from, this.to, this.line, 0);
+            l.streamed = this.streamed;
+            TokenBuffer tokens = l.tokenize();
+            this.content = l.content;
+            return tokens;
+        }
+    }
+}
@@ -1,13 +1,15 @@
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileWriter;
+import java.io.BufferedReader;
+import java.io.FileReader;
 import java.io.IOException;
-import java.util.Scanner;
-import java.util.StringTokenizer;
-import java.util.List;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Parser Class for mini compiler in Java.
@@ -17,12 +19,53 @@ import java.util.HashMap;
  */
 class Parser {
 
-    private List<Token> source;
-    private Token token;
+    private TokenBuffer source;
+    private TokenType tokentype;
+    private int current;
     private int position;
+    // Arena the AST is built in
+    private final AstArena ast;
+    // Stacks of frames for expr and stmt, kept between calls
+    private int[] exprFrames = new int[48];
+    private int[] stmtFrames = new int[48];
+    // Blocks parsed, three ints each, when they are being kept
+    private int[] blocks;
+    private int blockCount;
+    // Errors found so far when recovering from them, null to stop on the first one
+    private List<Diagnostic> diagnostics;
 
-    public static String ParseLexicalOutput(String result) { //TODO: CREATE METHOD)
-        return "";
+    // What an expr frame is waiting to finish; a binary frame adds the ordinal of its operator
+    private static final int EXPR_PAREN = 0, EXPR_NEGATE = 1, EXPR_PLUS = 2, EXPR_NOT = 3, EXPR_BINARY = 4;
+    // What a stmt frame is waiting to finish
+    private static final int STMT_IF = 0, STMT_ELSE = 1, STMT_WHILE = 2, STMT_BLOCK = 3;
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    /**
+     * Thrown inside the parser to give up on the statement being parsed
+     * after an error was recorded. It is always caught by stmt.
+     */
+    private static final class Panic extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Panic() {
+            super(null, null, false, false);
+        }
+    }
+    private static final Panic PANIC = new Panic();
+
+    /**
+     * Parses the text output of the Lexer and prints the resulting AST.
+     * @param result    Lexer output in the .lex text format
+     * @return          AST in the .par text format
+     */
+    public static String ParseLexicalOutput(String result) {
+        try {
+            Parser p = new Parser(TokenBuffer.readText(new BufferedReader(new StringReader(result))));
+            return p.printAST(p.parse(), new StringBuilder());
+        } catch (IOException e) {
+            error(-1, -1, "Exception: " + e.getMessage());
+            return "";
+        }
     }
 
     /**
@@ -32,18 +75,25 @@ class Parser {
         public NodeType nt;
         public Node left, right;
         public String value;
+        // id of the name of an Identifier leaf in the SymbolTable of the arena it was parsed in, -1 otherwise
+        public int id;
 
         Node() {
             this.nt = null;
             this.left = null;
             this.right = null;
             this.value = null;
+            this.id = -1;
         }
         Node(NodeType node_type, Node left, Node right, String value) {
+            this(node_type, left, right, value, -1);
+        }
+        Node(NodeType node_type, Node left, Node right, String value, int id) {
             this.nt = node_type;
             this.left = left;
             this.right = right;
             this.value = value;
+            this.id = id;
         }
         public static Node make_node(NodeType nodetype, Node left, Node right) {
             return new Node(nodetype, left, right, "");
@@ -56,79 +106,6 @@ class Parser {
         }
     }
 
-    /**
-     * Token class for token representation.
-     */
-    static class Token {
-        public TokenType tokentype;
-        public String value;
-        public int line;
-        public int pos;
-
-        Token(TokenType token, String value, int line, int pos) {
-            this.tokentype = token; this.value = value; this.line = line; this.pos = pos;
-        }
-        @Override
-        public String toString() {
-            return String.format("%5d  %5d %-15s %s", this.line, this.pos, this.tokentype, this.value);
-        }
-    }
-
-    /**
-     * Enum token types
-     */
-    static enum TokenType {
-        End_of_input(false, false, false, -1, NodeType.nd_None),
-        Op_multiply(false, true, false, 13, NodeType.nd_Mul),
-        Op_divide(false, true, false, 13, NodeType.nd_Div),
-        Op_mod(false, true, false, 13, NodeType.nd_Mod),
-        Op_add(false, true, false, 12, NodeType.nd_Add),
-        Op_subtract(false, true, false, 12, NodeType.nd_Sub),
-        Op_negate(false, false, true, 14, NodeType.nd_Negate),
-        Op_not(false, false, true, 14, NodeType.nd_Not),
-        Op_less(false, true, false, 10, NodeType.nd_Lss),
-        Op_lessequal(false, true, false, 10, NodeType.nd_Leq),
-        Op_greater(false, true, false, 10, NodeType.nd_Gtr),
-        Op_greaterequal(false, true, false, 10, NodeType.nd_Geq),
-        Op_equal(false, true, true, 9, NodeType.nd_Eql),
-        Op_notequal(false, true, false, 9, NodeType.nd_Neq),
-        Op_assign(false, false, false, -1, NodeType.nd_Assign),
-        Op_and(false, true, false, 5, NodeType.nd_And),
-        Op_or(false, true, false, 4, NodeType.nd_Or),
-        Keyword_if(false, false, false, -1, NodeType.nd_If),
-        Keyword_else(false, false, false, -1, NodeType.nd_None),
-        Keyword_while(false, false, false, -1, NodeType.nd_While),
-        Keyword_print(false, false, false, -1, NodeType.nd_None),
-        Keyword_putc(false, false, false, -1, NodeType.nd_None),
-        LeftParen(false, false, false, -1, NodeType.nd_None),
-        RightParen(false, false, false, -1, NodeType.nd_None),
-        LeftBrace(false, false, false, -1, NodeType.nd_None),
-        RightBrace(false, false, false, -1, NodeType.nd_None),
-        Semicolon(false, false, false, -1, NodeType.nd_None),
-        Comma(false, false, false, -1, NodeType.nd_None),
-        Identifier(false, false, false, -1, NodeType.nd_Ident),
-        Integer(false, false, false, -1, NodeType.nd_Integer),
-        String(false, false, false, -1, NodeType.nd_String);
-
-        private final int precedence;
-        private final boolean right_assoc;
-        private final boolean is_binary;
-        private final boolean is_unary;
-        private final NodeType node_type;
-
-        TokenType(boolean right_assoc, boolean is_binary, boolean is_unary, int precedence, NodeType node) {
-            this.right_assoc = right_assoc;
-            this.is_binary = is_binary;
-            this.is_unary = is_unary;
-            this.precedence = precedence;
-            this.node_type = node;
-        }
-        boolean isRightAssoc() { return this.right_assoc; }
-        boolean isBinary() { return this.is_binary; }
-        boolean isUnary() { return this.is_unary; }
-        int getPrecedence() { return this.precedence; }
-        NodeType getNodeType() { return this.node_type; }
-    }
     static enum NodeType {
         nd_None(""), nd_Ident("Identifier"), nd_String("String"), nd_Integer("Integer"), nd_Sequence("Sequence"), nd_If("If"),
         nd_Prtc("Prtc"), nd_Prts("Prts"), nd_Prti("Prti"), nd_While("While"),
@@ -146,182 +123,543 @@ class Parser {
         public String toString() { return this.name; }
     }
     static void error(int line, int pos, String msg) {
-        if (line > 0 && pos > 0) {
-            System.out.printf("%s in line %d, pos %d\n", msg, line, pos);
-        } else {
-            System.out.println(msg);
-        }
-        System.exit(1);
+        throw new CompileError(new Diagnostic(line, pos, msg));
     }
     Parser(List<Token> source) {
+        this(new TokenBuffer(source.size()));
+        for (Token t : source) {
+            this.source.add(t.tokentype, t.line, t.pos, t.getValue() == null ? "" : t.getValue());
+        }
+    }
+    Parser(TokenBuffer source) {
+        // about one node for each token
+        this(source, new AstArena(source.size()));
+    }
+    Parser(TokenBuffer source, AstArena ast) {
         this.source = source;
-        this.token = null;
+        this.tokentype = null;
         this.position = 0;
+        this.ast = ast;
     }
-    Token getNextToken() {
-        this.token = this.source.get(this.position++);
-        return this.token;
+    TokenType getNextToken() {
+        this.current = this.position++;
+        this.tokentype = this.source.type(this.current);
+        return this.tokentype;
+    }
+    String tokenValue() {
+        return this.source.value(this.current);
+    }
+
+    /**
+     * Makes a leaf whose value is the value of the current token, copied
+     * straight from the token stream into the arena
+     * @param nodetype  Kind of the leaf
+     * @return          Handle of the leaf
+     */
+    int tokenLeaf(NodeType nodetype) {
+        return this.ast.make_leaf(nodetype, this.source.text(), this.source.valueStart(this.current),
+                this.source.valueLength(this.current));
     }
 
     /**
      * Method to break down expression into base parts and return node with token.
+     * Nested and right-hand operands are parsed with a stack of frames instead
+     * of recursive calls, so deeply nested expressions do not use up the thread stack.
      * @param p  precedence as int
-     * @return   node with token
+     * @return   handle of the node in the arena
      */
-    Node expr(int p) {
+    int expr(int p) {
         // create nodes for token types such as LeftParen, Op_add, Op_subtract, etc.
         // be very careful here and be aware of the precendence rules for the AST tree
-        Node result = null, node;
+        int[] frames = this.exprFrames;
+        int top = 0;
+        int result;
         TokenType check;
         int q;
 
-        if (this.token.tokentype == TokenType.LeftParen) {
-            result = paren_expr();
-        } else if (this.token.tokentype == TokenType.Op_add || this.token.tokentype == TokenType.Op_subtract) {
-            check = (this.token.tokentype == TokenType.Op_subtract) ? TokenType.Op_negate : TokenType.Op_add;
-            getNextToken();
-            node = expr(TokenType.Op_negate.getPrecedence());
-            result = (check == TokenType.Op_negate) ? Node.make_node(NodeType.nd_Negate, node) : node;
-        } else if (this.token.tokentype == TokenType.Op_not) {
-            getNextToken();
-            result = Node.make_node(NodeType.nd_Not, expr(TokenType.Op_not.getPrecedence()));
-        } else if (this.token.tokentype == TokenType.Identifier) {
-            result = Node.make_leaf(NodeType.nd_Ident, this.token.value);
-            getNextToken();
-        } else if (this.token.tokentype == TokenType.Integer) {
-            result = Node.make_leaf(NodeType.nd_Integer, this.token.value);
-            getNextToken();
-        }
-        while (this.token.tokentype.isBinary() && this.token.tokentype.getPrecedence() >= p) {
-            check = this.token.tokentype;
-            getNextToken();
-            q = check.getPrecedence();
-            if (!check.isRightAssoc()) {
-                q++;
+        operand:
+        while (true) {
+            // an operand starts here, needing operators of precedence p or more
+            result = AstArena.NIL;
+            if (this.tokentype == TokenType.LeftParen) {
+                expect("paren_expr", TokenType.LeftParen);
+                frames = push(frames, top, EXPR_PAREN, p, 0);
+                top += 3;
+                p = 0;
+                continue;
+            } else if (this.tokentype == TokenType.Op_add || this.tokentype == TokenType.Op_subtract
+                    || this.tokentype == TokenType.Op_negate) {
+                check = (this.tokentype == TokenType.Op_add) ? TokenType.Op_add : TokenType.Op_negate;
+                getNextToken();
+                frames = push(frames, top, check == TokenType.Op_negate ? EXPR_NEGATE : EXPR_PLUS, p, 0);
+                top += 3;
+                p = TokenType.Op_negate.getPrecedence();
+                continue;
+            } else if (this.tokentype == TokenType.Op_not) {
+                getNextToken();
+                frames = push(frames, top, EXPR_NOT, p, 0);
+                top += 3;
+                p = TokenType.Op_not.getPrecedence();
+                continue;
+            } else if (this.tokentype == TokenType.Identifier) {
+                result = tokenLeaf(NodeType.nd_Ident);
+                getNextToken();
+            } else if (this.tokentype == TokenType.Integer) {
+                result = tokenLeaf(NodeType.nd_Integer);
+                getNextToken();
+            } else {
+                // no operand at all, as in "x = ;" or "while ()"
+                syntaxError("Expecting a primary, found: " + this.tokentype);
+                throw PANIC;
+            }
+
+            // result is a whole operand: take the binary operators after it, then finish the frames waiting on it
+            while (true) {
+                if (this.tokentype.isBinary() && this.tokentype.getPrecedence() >= p) {
+                    check = this.tokentype;
+                    getNextToken();
+                    q = check.getPrecedence();
+                    if (!check.isRightAssoc()) {
+                        q++;
+                    }
+                    frames = push(frames, top, EXPR_BINARY + check.ordinal(), p, result);
+                    top += 3;
+                    p = q;
+                    continue operand;
+                }
+                if (top == 0) {
+                    this.exprFrames = frames;
+                    return result;
+                }
+                top -= 3;
+                int kind = frames[top];
+                p = frames[top + 1];
+                if (kind == EXPR_PAREN) {
+                    expect("paren_expr", TokenType.RightParen);
+                } else if (kind == EXPR_NEGATE) {
+                    result = this.ast.make_node(NodeType.nd_Negate, result);
+                } else if (kind == EXPR_NOT) {
+                    result = this.ast.make_node(NodeType.nd_Not, result);
+                } else if (kind >= EXPR_BINARY) {
+                    result = this.ast.make_node(TOKEN_TYPES[kind - EXPR_BINARY].getNodeType(), frames[top + 2], result);
+                }
             }
-            node = expr(q);
-            result = Node.make_node(check.getNodeType(), result, node);
         }
-        return result;
     }
-    Node paren_expr() {
+    int paren_expr() {
         expect("paren_expr", TokenType.LeftParen);
-        Node node = expr(0);
+        int node = expr(0);
         expect("paren_expr", TokenType.RightParen);
         return node;
     }
     void expect(String msg, TokenType s) {
-        if (this.token.tokentype == s) {
-            getNextToken();
-            return;
+        if (!accept(msg, s)) {
+            throw PANIC;
         }
-        error(this.token.line, this.token.pos, msg + ": Expecting '" + s + "', found: '" + this.token.tokentype + "'");
     }
 
     /**
-     * Method to handle token held in token holder variable. Will create node depending on type of token.
-     * @return      Node with
+     * Takes the current token if it is the expected one, and reports an
+     * error otherwise
+     * @param msg   What was being parsed, for the error message
+     * @param s     Expected token type
+     * @return      True if the token was taken, false if an error was recorded
      */
-    Node stmt() {
-        // this one handles TokenTypes such as Keyword_if, Keyword_else, nd_If, Keyword_print, etc.
-        // also handles while, end of file, braces
-        Node s, s2, t = null, e, v;
-        if (this.token.tokentype == TokenType.Keyword_if) {
+    private boolean accept(String msg, TokenType s) {
+        if (this.tokentype == s) {
             getNextToken();
-            e = paren_expr();
-            s = stmt();
-            s2 = null;
-            if (this.token.tokentype == TokenType.Keyword_else) {
+            return true;
+        }
+        syntaxError(msg + ": Expecting '" + s + "', found: '" + this.tokentype + "'");
+        return false;
+    }
+
+    /**
+     * Reports an error at the current token. It is thrown as a CompileError,
+     * or just recorded if the parser is recovering from errors.
+     * @param msg   Error message
+     */
+    private void syntaxError(String msg) {
+        Diagnostic d = new Diagnostic(this.source.line(this.current), this.source.pos(this.current), msg);
+        if (this.diagnostics == null) {
+            throw new CompileError(d);
+        }
+        this.diagnostics.add(d);
+    }
+
+    /**
+     * Skips to where parsing can go on after an error: past the next
+     * Semicolon, or up to the next RightBrace if a block is open to take
+     * it, or up to the end of input
+     * @param inBlock   True if a block is open
+     */
+    private void synchronize(boolean inBlock) {
+        while (this.tokentype != TokenType.End_of_input) {
+            if (this.tokentype == TokenType.Semicolon) {
                 getNextToken();
-                s2 = stmt();
+                return;
+            }
+            if (this.tokentype == TokenType.RightBrace) {
+                if (!inBlock) {
+                    getNextToken();
+                }
+                return;
             }
-            t = Node.make_node(NodeType.nd_If, e, Node.make_node(NodeType.nd_If, s, s2));
-        } else if (this.token.tokentype == TokenType.Keyword_putc) {
-            getNextToken();
-            e = paren_expr();
-            t = Node.make_node(NodeType.nd_Prtc, e);
-            expect("Putc", TokenType.Semicolon);
-        } else if (this.token.tokentype == TokenType.Keyword_print) {
             getNextToken();
-            expect("Print", TokenType.LeftParen);
-            while (true) {
-                if (this.token.tokentype == TokenType.String) {
-                    e = Node.make_node(NodeType.nd_Prts, Node.make_leaf(NodeType.nd_String, this.token.value));
+        }
+    }
+
+    /**
+     * Pushes a frame of three ints, growing the stack when it is full
+     * @param frames    Stack of frames
+     * @param top       Number of ints in use
+     * @param kind      What the frame is waiting to finish
+     * @param a         First saved value
+     * @param b         Second saved value
+     * @return          The stack, or a bigger copy of it
+     */
+    private static int[] push(int[] frames, int top, int kind, int a, int b) {
+        if (top + 3 > frames.length) {
+            frames = Arrays.copyOf(frames, frames.length * 2);
+        }
+        frames[top] = kind;
+        frames[top + 1] = a;
+        frames[top + 2] = b;
+        return frames;
+    }
+
+    /**
+     * Method to handle token held in token holder variable. Will create node depending on type of token.
+     * The bodies of if, while and blocks are parsed with a stack of frames instead of
+     * recursive calls, so deeply nested statements do not use up the thread stack.
+     * @return      handle of the node in the arena
+     */
+    int stmt() {
+        // this one handles TokenTypes such as Keyword_if, Keyword_else, nd_If, Keyword_print, etc.
+        // also handles while, end of file, braces
+        int[] frames = this.stmtFrames;
+        int top = 0;
+        int t, e, v;
+
+        statement:
+        while (true) {
+            t = AstArena.NIL;
+            try {
+                if (this.tokentype == TokenType.Keyword_if) {
+                    getNextToken();
+                    e = paren_expr();
+                    frames = push(frames, top, STMT_IF, e, 0);
+                    top += 3;
+                    continue;
+                } else if (this.tokentype == TokenType.Keyword_putc) {
+                    getNextToken();
+                    e = paren_expr();
+                    t = this.ast.make_node(NodeType.nd_Prtc, e);
+                    expect("Putc", TokenType.Semicolon);
+                } else if (this.tokentype == TokenType.Keyword_print) {
                     getNextToken();
+                    expect("Print", TokenType.LeftParen);
+                    while (true) {
+                        if (this.tokentype == TokenType.String) {
+                            e = this.ast.make_node(NodeType.nd_Prts, tokenLeaf(NodeType.nd_String));
+                            getNextToken();
+                        } else {
+                            e = this.ast.make_node(NodeType.nd_Prti, expr(0), AstArena.NIL);
+                        }
+                        t = this.ast.make_node(NodeType.nd_Sequence, t, e);
+                        if (this.tokentype != TokenType.Comma) {
+                            break;
+                        }
+                        getNextToken();
+                    }
+                    expect("Print", TokenType.RightParen);
+                    expect("Print", TokenType.Semicolon);
+                } else if (this.tokentype == TokenType.Semicolon) {
+                    getNextToken();
+                } else if (this.tokentype == TokenType.Identifier) {
+                    v = tokenLeaf(NodeType.nd_Ident);
+                    getNextToken();
+                    expect("assign", TokenType.Op_assign);
+                    e = expr(0);
+                    t = this.ast.make_node(NodeType.nd_Assign, v, e);
+                    expect("assign", TokenType.Semicolon);
+                } else if (this.tokentype == TokenType.Keyword_while) {
+                    getNextToken();
+                    e = paren_expr();
+                    frames = push(frames, top, STMT_WHILE, e, 0);
+                    top += 3;
+                    continue;
+                } else if (this.tokentype == TokenType.LeftBrace) {
+                    int start = this.current;
+                    getNextToken();
+                    if (this.tokentype != TokenType.RightBrace && this.tokentype != TokenType.End_of_input) {
+                        frames = push(frames, top, STMT_BLOCK, AstArena.NIL, start);
+                        top += 3;
+                        continue;
+                    }
+                    accept("LBrace", TokenType.RightBrace);
+                    keepBlock(start, t);
+                } else if (this.tokentype == TokenType.End_of_input) {
                 } else {
-                    e = Node.make_node(NodeType.nd_Prti, expr(0), null);
+                    syntaxError("Expecting start of statement, found: " + this.tokentype);
+                    throw PANIC;
                 }
-                t = Node.make_node(NodeType.nd_Sequence, t, e);
-                if (this.token.tokentype != TokenType.Comma) {
-                    break;
+            } catch (Panic p) {
+                // the statement is dropped and parsing goes on after it
+                t = AstArena.NIL;
+                synchronize(hasBlock(frames, top));
+            }
+
+            // t is a whole statement: hand it to the frames waiting on it
+            while (true) {
+                if (top == 0) {
+                    this.stmtFrames = frames;
+                    return t;
+                }
+                int kind = frames[top - 3];
+                if (kind == STMT_IF) {
+                    if (this.tokentype == TokenType.Keyword_else) {
+                        getNextToken();
+                        frames[top - 3] = STMT_ELSE;
+                        frames[top - 1] = t;
+                        continue statement;
+                    }
+                    top -= 3;
+                    t = this.ast.make_node(NodeType.nd_If, frames[top + 1], this.ast.make_node(NodeType.nd_If, t, AstArena.NIL));
+                } else if (kind == STMT_ELSE) {
+                    top -= 3;
+                    t = this.ast.make_node(NodeType.nd_If, frames[top + 1], this.ast.make_node(NodeType.nd_If, frames[top + 2], t));
+                } else if (kind == STMT_WHILE) {
+                    top -= 3;
+                    t = this.ast.make_node(NodeType.nd_While, frames[top + 1], t);
+                } else {
+                    frames[top - 2] = this.ast.make_node(NodeType.nd_Sequence, frames[top - 2], t);
+                    if (this.tokentype != TokenType.RightBrace && this.tokentype != TokenType.End_of_input) {
+                        continue statement;
+                    }
+                    accept("LBrace", TokenType.RightBrace);
+                    top -= 3;
+                    t = frames[top + 1];
+                    keepBlock(frames[top + 2], t);
                 }
-                getNextToken();
             }
-            expect("Print", TokenType.RightParen);
-            expect("Print", TokenType.Semicolon);
-        } else if (this.token.tokentype == TokenType.Semicolon) {
-            getNextToken();
-        } else if (this.token.tokentype == TokenType.Identifier) {
-            v = Node.make_leaf(NodeType.nd_Ident, this.token.value);
-            getNextToken();
-            expect("assign", TokenType.Op_assign);
-            e = expr(0);
-            t = Node.make_node(NodeType.nd_Assign, v, e);
-            expect("assign", TokenType.Semicolon);
-        } else if (this.token.tokentype == TokenType.Keyword_while) {
-            getNextToken();
-            e = paren_expr();
-            s = stmt();
-            t = Node.make_node(NodeType.nd_While, e, s);
-        } else if (this.token.tokentype == TokenType.LeftBrace) {
-            getNextToken();
-            while (this.token.tokentype != TokenType.RightBrace && this.token.tokentype != TokenType.End_of_input) {
-                t = Node.make_node(NodeType.nd_Sequence, t, stmt());
+        }
+    }
+
+    /**
+     * Tells whether any of the stmt frames is an open block
+     * @param frames    Stack of frames
+     * @param top       Number of ints in use
+     * @return          True if a block frame is on the stack
+     */
+    private static boolean hasBlock(int[] frames, int top) {
+        for (int i = top - 3; i >= 0; i -= 3) {
+            if (frames[i] == STMT_BLOCK) {
+                return true;
             }
-            expect("LBrace", TokenType.RightBrace);
-        } else if (this.token.tokentype == TokenType.End_of_input) {
-        } else {
-            error(this.token.line, this.token.pos, "Expecting start of statement, found: " + this.token.tokentype);
         }
-        return t;
+        return false;
     }
-    Node parse() {
-        Node t = null;
+
+    /**
+     * Records a block that was just parsed, if blocks are being kept
+     * @param start     Index of its LeftBrace
+     * @param t         Handle of the block
+     */
+    private void keepBlock(int start, int t) {
+        if (this.blocks == null) {
+            return;
+        }
+        this.blocks = push(this.blocks, this.blockCount * 3, start, this.current, t);
+        this.blockCount++;
+    }
+
+    /**
+     * Starts keeping the token range and handle of every { } block parsed
+     * from here on, innermost blocks first
+     */
+    void keepBlocks() {
+        this.blocks = new int[48];
+        this.blockCount = 0;
+    }
+
+    /**
+     * Makes the parser record errors and go on instead of stopping at the
+     * first one. After an error the statement it is in is dropped, and
+     * parsing goes on after the next Semicolon or at the RightBrace that
+     * ends the block, so one parse finds every error.
+     */
+    void recoverErrors() {
+        this.diagnostics = new ArrayList<>();
+    }
+
+    /**
+     * Gets the errors recorded while recovering from them
+     * @return      Errors in the order they were found, or null if the parser is not recovering
+     */
+    List<Diagnostic> diagnostics() {
+        return this.diagnostics;
+    }
+
+    /**
+     * Throws the errors recorded while recovering, if there were any
+     * @throws CompileError     With every error found
+     */
+    void throwErrors() {
+        if (this.diagnostics != null && !this.diagnostics.isEmpty()) {
+            throw new CompileError(this.diagnostics);
+        }
+    }
+
+    int blockCount() { return this.blockCount; }
+    // block b runs from token blocks()[3 * b] up to token blocks()[3 * b + 1] and has handle blocks()[3 * b + 2]
+    int[] blocks() { return this.blocks; }
+    // index of the token the parser is looking at, the first one after the statement last parsed
+    int tokenIndex() { return this.current; }
+
+    /**
+     * Parses one statement starting at a given token, for parsing part of a
+     * token stream again
+     * @param from  Index of the first token of the statement
+     * @return      Handle of the statement, NIL for an empty one
+     */
+    int parseStatement(int from) {
+        this.position = from;
+        getNextToken();
+        return stmt();
+    }
+
+    /**
+     * Parses the whole token stream into the arena
+     * @return      Handle of the root of the AST, or NIL for an empty program
+     */
+    int parseArena() {
+        int t = AstArena.NIL;
         getNextToken();
-        while (this.token.tokentype != TokenType.End_of_input) {
-            t = Node.make_node(NodeType.nd_Sequence, t, stmt());
+        while (this.tokentype != TokenType.End_of_input) {
+            t = this.ast.make_node(NodeType.nd_Sequence, t, stmt());
         }
         return t;
     }
+    Node parse() {
+        return this.ast.toNode(parseArena());
+    }
+
+    /**
+     * Gets the arena the AST is built in
+     * @return      Arena holding the nodes made by parseArena
+     */
+    AstArena arena() {
+        return this.ast;
+    }
+
+    /**
+     * Gets the table of the identifiers parsed so far
+     * @return      SymbolTable of the arena, holding the ids of the Identifier leaves
+     */
+    SymbolTable symbols() {
+        return this.ast.symbols();
+    }
+    /**
+     * Echoes the AST to System.out and appends its .par text
+     * @param t     Root of the AST
+     * @param sb    StringBuilder to append the .par text to
+     * @return      Everything in sb
+     */
     String printAST(Node t, StringBuilder sb) {
-        int i = 0;
-        if (t == null) {
-            sb.append(";");
-            sb.append("\n");
-            System.out.println(";");
-        } else {
-            sb.append(t.nt);
-            System.out.printf("%-14s", t.nt);
-            if (t.nt == NodeType.nd_Ident || t.nt == NodeType.nd_Integer || t.nt == NodeType.nd_String) {
-                sb.append(" " + t.value);
-                sb.append("\n");
-                System.out.println(" " + t.value);
-            } else {
-                sb.append("\n");
-                System.out.println();
-                printAST(t.left, sb);
-                printAST(t.right, sb);
-            }
+        echoAST(t);
+        writeAST(t, sb);
+        return sb.toString();
+    }
 
+    /**
+     * Echoes the AST to System.out with the node types padded to a column,
+     * unless the console is quiet
+     * @param t     Root of the AST
+     */
+    static void echoAST(Node t) {
+        TextSink echo = TextSink.console();
+        if (echo != null) {
+            preorder(t, n -> echo.node(n, 14));
+            echo.flush();
         }
-        return sb.toString();
     }
 
-    static void outputToFile(String result) {
-        try {
-            FileWriter myWriter = new FileWriter("src/main/resources/hello.par");
-            myWriter.write(result);
-            myWriter.close();
+    /**
+     * Appends the AST in the .par text format, the same text printAST
+     * builds, without echoing it to System.out.
+     * @param t     Root of the AST
+     * @param out   Sink to append to
+     */
+    static void appendAST(Node t, TextSink out) {
+        preorder(t, n -> out.node(n, 0));
+    }
+
+    /**
+     * Writes the AST in the .par text format to an Appendable. The text
+     * is streamed through a fixed-size buffer, never built up whole.
+     * @param t     Root of the AST
+     * @param out   Appendable to write to, such as a StringBuilder or Writer
+     */
+    static void writeAST(Node t, Appendable out) {
+        TextSink sink = new TextSink(out);
+        appendAST(t, sink);
+        sink.flush();
+    }
+
+    /**
+     * Writes the AST in the .par text format to a channel, streamed
+     * through a fixed-size buffer. The channel is left open.
+     * @param t     Root of the AST
+     * @param ch    Channel to write to
+     */
+    static void writeAST(Node t, WritableByteChannel ch) {
+        TextSink sink = new TextSink(ch);
+        appendAST(t, sink);
+        sink.flush();
+    }
+
+    /**
+     * Visits the nodes of an AST in the order the .par format lists them:
+     * a node, then its left and right subtrees. A missing child of an
+     * interior node is visited as null. Uses a stack of nodes instead of
+     * recursion, so a long chain of statements does not use up the thread
+     * stack.
+     * @param t         Root of the AST
+     * @param visit     Called with each node
+     */
+    static void preorder(Node t, Consumer<Node> visit) {
+        Node[] stack = new Node[64];
+        int top = 0;
+        stack[top++] = t;
+        while (top > 0) {
+            Node n = stack[--top];
+            visit.accept(n);
+            if (n != null && n.nt != NodeType.nd_String && n.nt != NodeType.nd_Ident && n.nt != NodeType.nd_Integer) {
+                if (top + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = n.right;
+                stack[top++] = n.left;
+            }
+        }
+    }
+
+    static void outputToFile(Node tree) {
+        outputToFile("src/main/resources/hello.par", out -> appendAST(tree, out));
+    }
+
+    /**
+     * Writes .par text to a file through a TextSink
+     * @param outFileName   Name of the file to write
+     * @param writer        Writes the text to the sink it is given
+     */
+    static void outputToFile(String outFileName, Consumer<TextSink> writer) {
+        try (FileChannel ch = FileChannel.open(Paths.get(outFileName), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            TextSink out = new TextSink(ch);
+            writer.accept(out);
+            out.flush();
             System.out.println("Successfully wrote to the file.");
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -330,86 +668,63 @@ class Parser {
 
     /**
      * Method to run parser on a given file. Takes in a file name and parses the given file. Only able to parse 1 file
-     * at a time.
-     * @param args      Filename to parse.
+     * at a time. The file can be Lexer output in the .lex text format or the binary .lexb format, or an AST saved
+     * in the binary .parb format, which is printed without parsing. An optional second file name picks the output,
+     * written in the .parb format if its name ends in .parb.
+     * @param args      Filename to parse, and optionally the output filename.
      */
     public static void main(String[] args) {
-        if (1==1) {
-            try {
-                String value, token;
-                String result = " ";
-                StringBuilder sb = new StringBuilder();
-                int line, pos;
-                Token t;
-                boolean found;
-                List<Token> list = new ArrayList<>();
-                Map<String, TokenType> str_to_tokens = new HashMap<>();
-
-
-                str_to_tokens.put("End_of_input", TokenType.End_of_input);
-                str_to_tokens.put("Integer", TokenType.Integer);
-                str_to_tokens.put("String", TokenType.String);
-                str_to_tokens.put("Op_multiply", TokenType.Op_multiply);
-                str_to_tokens.put("Op_divide", TokenType.Op_divide);
-                str_to_tokens.put("Op_mod", TokenType.Op_mod);
-                str_to_tokens.put("Op_add", TokenType.Op_add);
-                str_to_tokens.put("Op_subtract", TokenType.Op_subtract);
-                str_to_tokens.put("Op_less", TokenType.Op_less);
-                str_to_tokens.put("Op_lessequal", TokenType.Op_lessequal);
-                str_to_tokens.put("Op_greater", TokenType.Op_greater);
-                str_to_tokens.put("Op_greaterequal", TokenType.Op_greaterequal);
-                str_to_tokens.put("Op_equal", TokenType.Op_equal);
-                str_to_tokens.put("Op_notequal", TokenType.Op_notequal);
-                str_to_tokens.put("Op_assign", TokenType.Op_assign);
-                str_to_tokens.put("Op_and", TokenType.Op_and);
-                str_to_tokens.put("Op_or", TokenType.Op_or);
-                str_to_tokens.put("Op_negate", TokenType.Op_negate);
-                str_to_tokens.put("Op_not", TokenType.Op_not);
-                str_to_tokens.put("Keyword_if", TokenType.Keyword_if);
-                str_to_tokens.put("Keyword_else", TokenType.Keyword_else);
-                str_to_tokens.put("Keyword_while", TokenType.Keyword_while);
-                str_to_tokens.put("Keyword_print", TokenType.Keyword_print);
-                str_to_tokens.put("Keyword_putc", TokenType.Keyword_putc);
-                str_to_tokens.put("LeftParen", TokenType.LeftParen);
-                str_to_tokens.put("RightParen", TokenType.RightParen);
-                str_to_tokens.put("LeftBrace", TokenType.LeftBrace);
-                str_to_tokens.put("RightBrace", TokenType.RightBrace);
-                str_to_tokens.put("Semicolon", TokenType.Semicolon);
-                str_to_tokens.put("Comma", TokenType.Comma);
-                str_to_tokens.put("Identifier", TokenType.Identifier);
-                // finish creating your Hashmap. I left one as a model
-                File lexFile = new File(Args[0]);
-                Scanner s = new Scanner(lexFile);
-                String source = " ";
-                while (s.hasNext()) {
-                    String str = s.nextLine();
-                    StringTokenizer st = new StringTokenizer(str);
-                    line = Integer.parseInt(st.nextToken());
-                    pos = Integer.parseInt(st.nextToken());
-                    token = st.nextToken();
-                    value = "";
-                    while (st.hasMoreTokens()) {
-                        value += st.nextToken() + " ";
+        try {
+            // --quiet turns off the echo of the AST
+            if (args.length > 1 && args[0].equals("--quiet")) {
+                TextSink.quiet = true;
+                args = Arrays.copyOfRange(args, 1, args.length);
+            }
+            if (args.length > 0) {
+                String outFileName = args.length > 1 ? args[1] : "src/main/resources/hello.par";
+                try {
+                    if (args[0].endsWith(".parb")) {
+                        // walked straight from the mapped file, no tokens or Nodes
+                        AstFile ast = AstFile.read(args[0]);
+                        TextSink echo = TextSink.console();
+                        if (echo != null) {
+                            ast.print(echo, 14);
+                            echo.flush();
+                        }
+                        outputToFile(outFileName, out -> ast.print(out, 0));
+                        return;
                     }
-                    found = false;
-                    if (str_to_tokens.containsKey(token)) {
-                        found = true;
-                        list.add(new Token(str_to_tokens.get(token), value, line, pos));
+                    TokenBuffer tokens;
+                    if (args[0].endsWith(".lexb")) {
+                        tokens = TokenBuffer.read(args[0]);
+                    } else {
+                        try (BufferedReader in = new BufferedReader(new FileReader(args[0]))) {
+                            tokens = TokenBuffer.readText(in);
+                        }
                     }
-                    if (found == false) {
-                        throw new Exception("Token not found: '" + token + "'");
+                    Parser p = new Parser(tokens);
+                    // every syntax error in the file is reported, not just the first
+                    p.recoverErrors();
+                    int root = p.parseArena();
+                    p.throwErrors();
+                    if (outFileName.endsWith(".parb")) {
+                        AstFile.write(p.arena(), root, outFileName);
+                        System.out.println("Successfully wrote to the file.");
+                        return;
                     }
+                    Node tree = p.arena().toNode(root);
+                    echoAST(tree);
+                    outputToFile(outFileName, out -> appendAST(tree, out));
+                } catch (CompileError e) {
+                    throw e;
+                } catch (Exception e) {
+                    error(-1, -1, "Exception: " + e.getMessage());
                 }
-                Parser p = new Parser(list);
-                result = p.printAST(p.parse(), sb);
-                outputToFile(result);
-            } catch (FileNotFoundException e) {
-                error(-1, -1, "Exception: " + e.getMessage());
-            } catch (Exception e) {
-                error(-1, -1, "Exception: " + e.getMessage());
+            } else {
+                error(-1, -1, "No args");
             }
-        } else {
-            error(-1, -1, "No args");
+        } catch (CompileError e) {
+            e.exit();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,1074 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Ssa is a program in static single assignment form: a control flow graph
+ * of basic blocks, each a list of instructions that each define a value
+ * once. A variable assigned in more than one place becomes one value for
+ * each assignment, and where control flow meets, a phi instruction at the
+ * top of the block picks the value that came in along the edge taken.
+ *
+ * An if is a block ending in a branch to a block for each side, which both
+ * jump to the block after it. A while is a header block working out the
+ * condition, a block for the body that jumps back to the header, and a
+ * block after the loop. && and || are blocks too, since their right side
+ * is only worked out when it is needed. A variable read before it is
+ * assigned is the constant 0. No block with two successors leads to a
+ * block with two predecessors, so the copies a phi stands for can be made
+ * at the end of the block they come from.
+ *
+ * lower turns the program back into Bytecode. The tree is walked with a
+ * stack of frames, not by recursion, as are the blocks and values.
+ */
+class Ssa {
+    enum Op {
+        CONST("const", -1), COPY("copy", -1), PHI("phi", -1),
+        ADD("add", Bytecode.ADD), SUB("sub", Bytecode.SUB), MUL("mul", Bytecode.MUL), DIV("div", Bytecode.DIV),
+        MOD("mod", Bytecode.MOD), LT("lt", Bytecode.LT), GT("gt", Bytecode.GT), LE("le", Bytecode.LE),
+        GE("ge", Bytecode.GE), EQ("eq", Bytecode.EQ), NE("ne", Bytecode.NE), NEG("neg", Bytecode.NEG),
+        NOT("not", Bytecode.NOT), PRTC("prtc", Bytecode.PRTC), PRTS("prts", Bytecode.PRTS), PRTI("prti", Bytecode.PRTI);
+
+        private final String name;
+        // the Bytecode instruction it lowers to, -1 for none
+        final int opcode;
+
+        Op(String name, int opcode) {
+            this.name = name;
+            this.opcode = opcode;
+        }
+
+        @Override
+        public String toString() { return this.name; }
+    }
+
+    /**
+     * A value, and the instruction that works it out
+     */
+    static final class Value {
+        final int id;
+        final Op op;
+        Value[] args;
+        // the value of a const, the index of the string of a prts
+        final int constant;
+        // the variable it was assigned to, if any
+        String name;
+        // the block it is in, null for a const
+        Block block;
+        // the value that takes its place, while a pass is replacing it
+        Value forward;
+
+        Value(int id, Op op, Value[] args, int constant) {
+            this.id = id;
+            this.op = op;
+            this.args = args;
+            this.constant = constant;
+        }
+    }
+
+    /**
+     * A basic block: its phis, its other instructions, and where it goes.
+     * The args of a phi follow the order of preds. A block with two succs
+     * goes to the first if cond is not 0 and the second if it is; one with
+     * none ends the program.
+     */
+    static final class Block {
+        final int id;
+        final List<Value> phis = new ArrayList<>();
+        final List<Value> code = new ArrayList<>();
+        final List<Block> preds = new ArrayList<>();
+        Block[] succs = new Block[0];
+        Value cond;
+
+        Block(int id) {
+            this.id = id;
+        }
+    }
+
+    private static final Value[] NO_ARGS = new Value[0];
+
+    // The blocks, the entry first
+    final List<Block> blocks = new ArrayList<>();
+    // String constants as they are written in the source
+    final List<String> strings = new ArrayList<>();
+    private final Map<Integer, Value> constants = new HashMap<>();
+    private int valueCount, blockCount;
+
+    /**
+     * Builds the SSA form of a program
+     * @param tree  Root of the AST of the program
+     * @return      The program
+     */
+    static Ssa build(Parser.Node tree) {
+        Ssa ssa = new Ssa();
+        new Builder(ssa, tree).walk(tree);
+        return ssa;
+    }
+
+    /**
+     * Gets the constant with a value, the same Value every time
+     */
+    Value constant(int value) {
+        return this.constants.computeIfAbsent(value, k -> new Value(this.valueCount++, Op.CONST, NO_ARGS, k));
+    }
+
+    Block block() {
+        Block b = new Block(this.blockCount++);
+        this.blocks.add(b);
+        return b;
+    }
+
+    /**
+     * Adds an instruction to the end of a block
+     * @return      Its value
+     */
+    Value emit(Block b, Op op, int constant, Value... args) {
+        Value v = new Value(this.valueCount++, op, args, constant);
+        v.block = b;
+        (op == Op.PHI ? b.phis : b.code).add(v);
+        return v;
+    }
+
+    /**
+     * Gets the number of values made so far; every id is below it
+     */
+    int valueCount() {
+        return this.valueCount;
+    }
+
+    /**
+     * Gets the number of blocks made so far; every block id is below it
+     */
+    int blockCount() {
+        return this.blockCount;
+    }
+
+    /**
+     * Counts the instructions in the blocks, phis included
+     * @return      Number of instructions
+     */
+    int size() {
+        int n = 0;
+        for (Block b : this.blocks) {
+            n += b.phis.size() + b.code.size();
+        }
+        return n;
+    }
+
+    /**
+     * Follows a value to the one that has taken its place
+     */
+    static Value resolve(Value v) {
+        while (v.forward != null) {
+            v = v.forward;
+        }
+        return v;
+    }
+
+    /**
+     * Points every use of a value that has been replaced at the value that
+     * took its place
+     */
+    void rewrite() {
+        for (Block b : this.blocks) {
+            for (Value v : b.phis) {
+                resolveArgs(v);
+            }
+            for (Value v : b.code) {
+                resolveArgs(v);
+            }
+            if (b.cond != null) {
+                b.cond = resolve(b.cond);
+            }
+        }
+    }
+
+    private static void resolveArgs(Value v) {
+        for (int i = 0; i < v.args.length; i++) {
+            v.args[i] = resolve(v.args[i]);
+        }
+    }
+
+    /**
+     * Tells whether an instruction works out its value from its args and
+     * nothing else, and does nothing more
+     */
+    static boolean isPure(Op op) {
+        return op.ordinal() >= Op.COPY.ordinal() && op.ordinal() <= Op.NOT.ordinal() && op != Op.PHI;
+    }
+
+    /**
+     * Tells whether an instruction can stop the program: a div or mod whose
+     * divisor may be 0
+     */
+    static boolean mayThrow(Value v) {
+        return (v.op == Op.DIV || v.op == Op.MOD) && !(v.args[1].op == Op.CONST && v.args[1].constant != 0);
+    }
+
+    /**
+     * Makes b jump to to
+     */
+    static void jump(Block b, Block to) {
+        b.succs = new Block[] {to};
+        to.preds.add(b);
+    }
+
+    /**
+     * Makes b go to yes if cond is not 0, and to no if it is
+     */
+    static void branch(Block b, Value cond, Block yes, Block no) {
+        b.cond = cond;
+        b.succs = new Block[] {yes, no};
+        yes.preds.add(b);
+        no.preds.add(b);
+    }
+
+    /**
+     * Lists the blocks that can be reached from the entry in reverse
+     * postorder, so each block comes before the blocks it dominates
+     * @return      The blocks in order
+     */
+    List<Block> order() {
+        List<Block> post = new ArrayList<>();
+        if (this.blocks.isEmpty()) {
+            return post;
+        }
+        boolean[] seen = new boolean[this.blockCount];
+        Block[] stack = new Block[64];
+        int[] next = new int[64];
+        int top = 0;
+        stack[top] = this.blocks.get(0);
+        next[top++] = 0;
+        seen[this.blocks.get(0).id] = true;
+        while (top > 0) {
+            Block b = stack[top - 1];
+            int i = next[top - 1]++;
+            if (i < b.succs.length) {
+                // the last succ first, so the first comes straight after b in the order
+                Block s = b.succs[b.succs.length - 1 - i];
+                if (!seen[s.id]) {
+                    seen[s.id] = true;
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                        next = Arrays.copyOf(next, top * 2);
+                    }
+                    stack[top] = s;
+                    next[top++] = 0;
+                }
+            } else {
+                post.add(b);
+                top--;
+            }
+        }
+        List<Block> order = new ArrayList<>(post.size());
+        for (int i = post.size() - 1; i >= 0; i--) {
+            order.add(post.get(i));
+        }
+        return order;
+    }
+
+    /**
+     * Builds the blocks of a program from its AST. A frame is a node, whether
+     * its value is wanted or it is a statement, how far it has got, and the
+     * blocks and variables it keeps while its children are built.
+     */
+    private static final class Builder {
+        private final Ssa ssa;
+        // the variables each while assigns to, by slot
+        private final Map<Parser.Node, BitSet> loops = new HashMap<>();
+        // a slot for each variable, found by the symbol id of its leaves
+        private final SymbolTable.Slots slots = new SymbolTable.Slots();
+        private final Map<String, Integer> strings = new HashMap<>();
+        private Block current;
+        // the value each variable has at the current point, by slot, null for none yet
+        private Value[] env;
+
+        private Parser.Node[] nodes = new Parser.Node[64];
+        private boolean[] wanted = new boolean[64];
+        private int[] states = new int[64];
+        // blocks a frame keeps: the else or the end of the then branch, or the header and exit of a loop
+        private Block[] blocks = new Block[64], exits = new Block[64];
+        private List<Value[]> envs = new ArrayList<>();
+        private int top;
+
+        private Value[] values = new Value[64];
+        private int sp;
+
+        Builder(Ssa ssa, Parser.Node tree) {
+            this.ssa = ssa;
+            this.env = new Value[findLoops(tree)];
+        }
+
+        private Value read(int id) {
+            return read(this.env, id);
+        }
+
+        private Value read(Value[] env, int id) {
+            Value v = env[id];
+            return v != null ? v : this.ssa.constant(0);
+        }
+
+        /**
+         * Gives each variable its slot and finds the variables each while
+         * assigns to, in its condition or body
+         * @param tree  Root of the AST of the program
+         * @return      Number of variables
+         */
+        private int findLoops(Parser.Node tree) {
+            Parser.Node[] nodes = new Parser.Node[64];
+            int[] states = new int[64];
+            // the variables assigned in each finished subtree, null for none
+            List<BitSet> results = new ArrayList<>();
+            int top = 0;
+            if (tree != null) {
+                nodes[top] = tree;
+                states[top++] = 0;
+            }
+            while (top > 0) {
+                Parser.Node n = nodes[top - 1];
+                int state = states[top - 1]++;
+                Parser.Node next = state == 0 ? n.left : state == 1 ? n.right : null;
+                if (n.nt == Parser.NodeType.nd_Ident && state == 0) {
+                    this.slots.slot(n);
+                }
+                if (state < 2) {
+                    if (next == null) {
+                        results.add(null);
+                    } else {
+                        if (top == nodes.length) {
+                            nodes = Arrays.copyOf(nodes, top * 2);
+                            states = Arrays.copyOf(states, top * 2);
+                        }
+                        nodes[top] = next;
+                        states[top++] = 0;
+                    }
+                    continue;
+                }
+                top--;
+                BitSet right = results.remove(results.size() - 1);
+                BitSet left = results.remove(results.size() - 1);
+                // the smaller set goes into the bigger one
+                BitSet set = left == null ? right : right == null ? left : left.length() >= right.length() ? left : right;
+                if (left != null && right != null) {
+                    set.or(set == left ? right : left);
+                }
+                if (n.nt == Parser.NodeType.nd_Assign) {
+                    if (set == null) {
+                        set = new BitSet();
+                    }
+                    set.set(this.slots.slot(n.left));
+                } else if (n.nt == Parser.NodeType.nd_While) {
+                    this.loops.put(n, set == null ? new BitSet() : (BitSet) set.clone());
+                }
+                results.add(set);
+            }
+            return this.slots.size();
+        }
+
+        private Value emit(Op op, Value... args) {
+            return this.ssa.emit(this.current, op, 0, args);
+        }
+
+        private void push(Value v) {
+            if (this.sp == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.sp * 2);
+            }
+            this.values[this.sp++] = v;
+        }
+
+        private void enter(Parser.Node n, boolean value) {
+            if (this.top == this.nodes.length) {
+                this.nodes = Arrays.copyOf(this.nodes, this.top * 2);
+                this.wanted = Arrays.copyOf(this.wanted, this.top * 2);
+                this.states = Arrays.copyOf(this.states, this.top * 2);
+                this.blocks = Arrays.copyOf(this.blocks, this.top * 2);
+                this.exits = Arrays.copyOf(this.exits, this.top * 2);
+            }
+            this.nodes[this.top] = n;
+            this.wanted[this.top] = value;
+            this.states[this.top] = 0;
+            this.blocks[this.top] = null;
+            if (this.envs.size() == this.top) {
+                this.envs.add(null);
+            }
+            this.envs.set(this.top++, null);
+        }
+
+        void walk(Parser.Node tree) {
+            this.current = this.ssa.block();
+            if (tree != null) {
+                enter(tree, false);
+            }
+            while (this.top > 0) {
+                int f = this.top - 1;
+                Parser.Node n = this.nodes[f];
+                int state = this.states[f]++;
+                // the child to build next, or null if there is none right now
+                Parser.Node next = null;
+                boolean value = true;
+                if (!this.wanted[f]) {
+                    value = false;
+                    switch (n.nt) {
+                        case nd_Sequence:
+                            if (state < 2) {
+                                next = state == 0 ? n.left : n.right;
+                            } else {
+                                this.top--;
+                            }
+                            break;
+                        case nd_Assign:
+                            if (state == 0) {
+                                next = n.right;
+                                value = true;
+                            } else {
+                                Value v = this.values[--this.sp];
+                                Parser.NodeType nt = n.right.nt;
+                                if (nt == Parser.NodeType.nd_Ident || nt == Parser.NodeType.nd_Integer) {
+                                    v = emit(Op.COPY, v);
+                                }
+                                if (v.name == null) {
+                                    v.name = n.left.value;
+                                }
+                                this.env[this.slots.slot(n.left)] = v;
+                                this.top--;
+                            }
+                            break;
+                        case nd_If:
+                            next = ifStatement(f, n, state);
+                            value = state == 0;
+                            break;
+                        case nd_While:
+                            next = whileStatement(f, n, state);
+                            value = state == 0;
+                            break;
+                        case nd_Prtc:
+                        case nd_Prti:
+                            if (state == 0) {
+                                next = n.left;
+                                value = true;
+                            } else {
+                                emit(n.nt == Parser.NodeType.nd_Prtc ? Op.PRTC : Op.PRTI, this.values[--this.sp]);
+                                this.top--;
+                            }
+                            break;
+                        case nd_Prts: {
+                            Map<String, Integer> strings = this.strings;
+                            List<String> list = this.ssa.strings;
+                            int index = strings.computeIfAbsent(n.left.value, k -> {
+                                list.add(k);
+                                return list.size() - 1;
+                            });
+                            this.ssa.emit(this.current, Op.PRTS, index);
+                            this.top--;
+                            break;
+                        }
+                        default:
+                            throw new IllegalArgumentException(n.nt.name());
+                    }
+                } else {
+                    switch (n.nt) {
+                        case nd_Integer:
+                            push(this.ssa.constant(Interpreter.integer(n.value)));
+                            this.top--;
+                            break;
+                        case nd_Ident:
+                            push(read(this.slots.slot(n)));
+                            this.top--;
+                            break;
+                        case nd_Negate:
+                        case nd_Not:
+                            if (state == 0) {
+                                next = n.left;
+                            } else {
+                                push(emit(n.nt == Parser.NodeType.nd_Negate ? Op.NEG : Op.NOT, this.values[--this.sp]));
+                                this.top--;
+                            }
+                            break;
+                        case nd_And:
+                        case nd_Or:
+                            next = shortCircuit(f, n, state);
+                            break;
+                        default:
+                            if (state < 2) {
+                                next = state == 0 ? n.left : n.right;
+                            } else {
+                                Value r = this.values[--this.sp];
+                                Value l = this.values[--this.sp];
+                                push(emit(operator(n.nt), l, r));
+                                this.top--;
+                            }
+                            break;
+                    }
+                }
+                if (next != null) {
+                    enter(next, value);
+                }
+            }
+        }
+
+        /**
+         * Builds the next part of an if
+         * @return  The child to build next, a statement unless it is the condition
+         */
+        private Parser.Node ifStatement(int f, Parser.Node n, int state) {
+            // the right child is an If holding the two branches
+            Parser.Node branches = n.right;
+            if (state == 0) {
+                return n.left;
+            }
+            if (state == 1) {
+                Block yes = this.ssa.block(), no = this.ssa.block();
+                branch(this.current, this.values[--this.sp], yes, no);
+                this.blocks[f] = no;
+                this.envs.set(f, this.env.clone());
+                this.current = yes;
+                return branches == null ? null : branches.left;
+            }
+            if (state == 2) {
+                // keep where the then branch ended, and start the else branch from the condition
+                Block no = this.blocks[f];
+                this.blocks[f] = this.current;
+                Value[] yes = this.env;
+                this.env = this.envs.get(f);
+                this.envs.set(f, yes);
+                this.current = no;
+                return branches == null ? null : branches.right;
+            }
+            Block join = this.ssa.block();
+            jump(this.blocks[f], join);
+            jump(this.current, join);
+            Value[] yes = this.envs.get(f);
+            for (int id = 0; id < this.env.length; id++) {
+                if (yes[id] == this.env[id]) {
+                    continue;
+                }
+                Value phi = this.ssa.emit(join, Op.PHI, 0, read(yes, id), read(id));
+                phi.name = this.slots.name(id);
+                this.env[id] = phi;
+            }
+            this.current = join;
+            this.top--;
+            return null;
+        }
+
+        /**
+         * Builds the next part of a while
+         * @return  The child to build next, the condition first and then the body
+         */
+        private Parser.Node whileStatement(int f, Parser.Node n, int state) {
+            if (state == 0) {
+                Block header = this.ssa.block();
+                jump(this.current, header);
+                // a phi for each variable the loop assigns, its value from the back edge added later
+                BitSet assigned = this.loops.get(n);
+                for (int id = assigned.nextSetBit(0); id >= 0; id = assigned.nextSetBit(id + 1)) {
+                    Value phi = this.ssa.emit(header, Op.PHI, 0, read(id));
+                    phi.name = this.slots.name(id);
+                    this.env[id] = phi;
+                }
+                this.blocks[f] = header;
+                this.current = header;
+                return n.left;
+            }
+            if (state == 1) {
+                Block body = this.ssa.block(), exit = this.ssa.block();
+                branch(this.current, this.values[--this.sp], body, exit);
+                this.exits[f] = exit;
+                this.envs.set(f, this.env.clone());
+                this.current = body;
+                return n.right;
+            }
+            Block header = this.blocks[f];
+            jump(this.current, header);
+            // the phis are in the order of the slots of their variables
+            BitSet assigned = this.loops.get(n);
+            int id = -1;
+            for (Value phi : header.phis) {
+                id = assigned.nextSetBit(id + 1);
+                phi.args = new Value[] {phi.args[0], read(id)};
+            }
+            this.env = this.envs.get(f);
+            this.current = this.exits[f];
+            this.top--;
+            return null;
+        }
+
+        /**
+         * Builds the next part of && or ||: the right side in a block of its
+         * own, and a phi where the two ways meet
+         * @return  The child to build next
+         */
+        private Parser.Node shortCircuit(int f, Parser.Node n, int state) {
+            boolean and = n.nt == Parser.NodeType.nd_And;
+            if (state == 0) {
+                return n.left;
+            }
+            if (state == 1) {
+                Block right = this.ssa.block(), skip = this.ssa.block();
+                Value l = this.values[--this.sp];
+                if (and) {
+                    branch(this.current, l, right, skip);
+                } else {
+                    branch(this.current, l, skip, right);
+                }
+                this.blocks[f] = skip;
+                this.current = right;
+                return n.right;
+            }
+            Value r = emit(Op.NE, this.values[--this.sp], this.ssa.constant(0));
+            Block join = this.ssa.block();
+            jump(this.current, join);
+            jump(this.blocks[f], join);
+            this.current = join;
+            push(this.ssa.emit(join, Op.PHI, 0, r, this.ssa.constant(and ? 0 : 1)));
+            this.top--;
+            return null;
+        }
+    }
+
+    private static Op operator(Parser.NodeType nt) {
+        switch (nt) {
+            case nd_Add: return Op.ADD;
+            case nd_Sub: return Op.SUB;
+            case nd_Mul: return Op.MUL;
+            case nd_Div: return Op.DIV;
+            case nd_Mod: return Op.MOD;
+            case nd_Lss: return Op.LT;
+            case nd_Gtr: return Op.GT;
+            case nd_Leq: return Op.LE;
+            case nd_Geq: return Op.GE;
+            case nd_Eql: return Op.EQ;
+            case nd_Neq: return Op.NE;
+            default: throw new IllegalArgumentException(nt.name());
+        }
+    }
+
+    /**
+     * Appends how a value is written in the listing: a const as its number,
+     * anything else as its variable, or %, and its id
+     */
+    private static void appendValue(TextSink out, Value v) {
+        if (v.op == Op.CONST) {
+            out.append(v.constant, 0);
+        } else {
+            out.append(v.name != null ? v.name + "." : "%").append(v.id, 0);
+        }
+    }
+
+    /**
+     * Writes the blocks in order, one instruction to a line
+     * @param out   Sink to write to
+     */
+    void print(TextSink out) {
+        for (Block b : order()) {
+            out.append('b').append(b.id, 0).append(':');
+            if (!b.preds.isEmpty()) {
+                out.append("  <-");
+                for (Block p : b.preds) {
+                    out.append(" b").append(p.id, 0);
+                }
+            }
+            out.append('\n');
+            for (int i = 0; i < b.phis.size() + b.code.size(); i++) {
+                Value v = i < b.phis.size() ? b.phis.get(i) : b.code.get(i - b.phis.size());
+                out.append("    ");
+                if (v.op.opcode < Bytecode.PRTC || v.op.opcode > Bytecode.PRTI) {
+                    appendValue(out, v);
+                    out.append(" = ");
+                }
+                out.append(v.op.toString());
+                if (v.op == Op.PRTS) {
+                    out.append(" \"").append(this.strings.get(v.constant)).append('"');
+                }
+                for (Value a : v.args) {
+                    out.append(' ');
+                    appendValue(out, a);
+                }
+                out.append('\n');
+            }
+            if (b.succs.length == 2) {
+                out.append("    br ");
+                appendValue(out, b.cond);
+                out.append(" b").append(b.succs[0].id, 0).append(" b").append(b.succs[1].id, 0).append('\n');
+            } else if (b.succs.length == 1) {
+                out.append("    jmp b").append(b.succs[0].id, 0).append('\n');
+            } else {
+                out.append("    halt\n");
+            }
+        }
+    }
+
+    /**
+     * Turns the program into Bytecode. A value used once, later in its own
+     * block, is left on the stack for the instruction that uses it, and
+     * every other value gets a data slot of its own. The copies for the
+     * phis of a block are made at the end of each block that jumps to it,
+     * all values first and then all stores, so a phi can take the old
+     * value of another.
+     * @return      The program
+     */
+    Bytecode lower() {
+        return new Lowering(this).lower();
+    }
+
+    private static final class Lowering {
+        private final Ssa ssa;
+        private final int[] uses, usePositions, slots;
+        private final Block[] useBlocks;
+        private final boolean[] deferred;
+        // where a value in code is worked out: its index, or for one left on the stack, where its use is
+        private final int[] positions;
+        // every use of a value: the block, and the position in it, the end for a branch or a phi
+        private final Block[][] useList;
+        private final int[][] usePositionList;
+        // values that share a slot, as a tree of parents, and the blocks each value is live into
+        private final Value[] parents;
+        private final Map<Value, List<Value>> members = new HashMap<>();
+        private final Map<Value, Set<Block>> liveIns = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private int scratch = -1;
+
+        private int[] code = new int[256];
+        private int length;
+        private int[] addresses;
+        // jumps to blocks, patched once every block has its address
+        private int[] jumps = new int[64];
+        private Block[] targets = new Block[64];
+        private int jumpCount;
+
+        private Value[] stack = new Value[64];
+        private int[] next = new int[64];
+
+        Lowering(Ssa ssa) {
+            this.ssa = ssa;
+            int n = ssa.valueCount();
+            this.uses = new int[n];
+            this.usePositions = new int[n];
+            this.useBlocks = new Block[n];
+            this.deferred = new boolean[n];
+            this.slots = new int[n];
+            Arrays.fill(this.slots, -1);
+            this.positions = new int[n];
+            this.useList = new Block[n][];
+            this.usePositionList = new int[n][];
+            this.parents = new Value[n];
+        }
+
+        private void use(Value v, Block b, int position) {
+            this.uses[v.id]++;
+            this.useBlocks[v.id] = b;
+            this.usePositions[v.id] = position;
+        }
+
+        // records a use in the lists, once uses holds how many there are
+        private void listUse(Value v, Block b, int position) {
+            if (this.useList[v.id] == null) {
+                this.useList[v.id] = new Block[this.uses[v.id]];
+                this.usePositionList[v.id] = new int[this.uses[v.id]];
+                this.uses[v.id] = 0;
+            }
+            this.useList[v.id][this.uses[v.id]] = b;
+            this.usePositionList[v.id][this.uses[v.id]++] = position;
+        }
+
+        Bytecode lower() {
+            List<Block> order = this.ssa.order();
+            for (Block b : order) {
+                for (Value phi : b.phis) {
+                    for (int j = 0; j < phi.args.length; j++) {
+                        Block p = b.preds.get(j);
+                        use(phi.args[j], p, p.code.size());
+                    }
+                }
+                for (int i = 0; i < b.code.size(); i++) {
+                    for (Value a : b.code.get(i).args) {
+                        use(a, b, i);
+                    }
+                }
+                if (b.cond != null) {
+                    use(b.cond, b, b.code.size());
+                }
+            }
+            // left on the stack: pure, or with no print before where its use is worked out
+            for (Block b : order) {
+                int end = b.code.size();
+                for (int i = end - 1; i >= 0; i--) {
+                    Value v = b.code.get(i);
+                    this.positions[v.id] = i;
+                    if (this.uses[v.id] != 1 || this.useBlocks[v.id] != b || v.op.opcode >= Bytecode.PRTC) {
+                        continue;
+                    }
+                    int at = this.usePositions[v.id];
+                    at = at == end ? end : this.positions[b.code.get(at).id];
+                    boolean defer = true;
+                    if (mayThrow(v)) {
+                        for (int j = i + 1; j < at && defer; j++) {
+                            defer = b.code.get(j).op.opcode < Bytecode.PRTC;
+                        }
+                    }
+                    this.deferred[v.id] = defer;
+                    this.positions[v.id] = defer ? at : i;
+                }
+            }
+            for (Block b : order) {
+                for (Value phi : b.phis) {
+                    this.positions[phi.id] = -1;
+                    for (int j = 0; j < phi.args.length; j++) {
+                        Block p = b.preds.get(j);
+                        listUse(phi.args[j], p, p.code.size());
+                    }
+                }
+                for (Value v : b.code) {
+                    for (Value a : v.args) {
+                        listUse(a, b, this.positions[v.id]);
+                    }
+                }
+                if (b.cond != null) {
+                    listUse(b.cond, b, b.code.size());
+                }
+            }
+            coalesce(order);
+
+            this.addresses = new int[this.ssa.blockCount()];
+            List<Value> copies = new ArrayList<>();
+            for (int k = 0; k < order.size(); k++) {
+                Block b = order.get(k);
+                Block following = k + 1 < order.size() ? order.get(k + 1) : null;
+                this.addresses[b.id] = this.length;
+                for (Value v : b.code) {
+                    if (this.deferred[v.id]) {
+                        continue;
+                    }
+                    tree(v);
+                    if (v.op.opcode < Bytecode.PRTC) {
+                        emit(Bytecode.STORE, this.uses[v.id] > 0 ? slot(v) : scratch());
+                    }
+                }
+                if (b.succs.length == 2) {
+                    operand(b.cond);
+                    jump(Bytecode.JZ, b.succs[1]);
+                    if (b.succs[0] != following) {
+                        jump(Bytecode.JMP, b.succs[0]);
+                    }
+                } else if (b.succs.length == 1) {
+                    Block s = b.succs[0];
+                    int j = s.preds.indexOf(b);
+                    copies.clear();
+                    for (Value phi : s.phis) {
+                        Value a = phi.args[j];
+                        if (a.op == Op.CONST || (a.block != null && this.deferred[a.id]) || find(a) != find(phi)) {
+                            operand(phi.args[j]);
+                            copies.add(phi);
+                        }
+                    }
+                    for (int i = copies.size() - 1; i >= 0; i--) {
+                        emit(Bytecode.STORE, slot(copies.get(i)));
+                    }
+                    if (s != following) {
+                        jump(Bytecode.JMP, s);
+                    }
+                } else {
+                    emit(Bytecode.HALT);
+                }
+            }
+            for (int i = 0; i < this.jumpCount; i++) {
+                this.code[this.jumps[i]] = this.addresses[this.targets[i].id];
+            }
+            return new Bytecode(this.code, this.length, this.names.toArray(new String[0]),
+                    this.ssa.strings.toArray(new String[0]));
+        }
+
+        private int slot(Value v) {
+            v = find(v);
+            if (this.slots[v.id] < 0) {
+                this.slots[v.id] = this.names.size();
+                this.names.add(v.name != null ? v.name + "." + v.id : "%" + v.id);
+            }
+            return this.slots[v.id];
+        }
+
+        /**
+         * Gives each phi the slot of its args where their values are never
+         * needed at the same time, so the copy for it can be left out
+         */
+        private void coalesce(List<Block> order) {
+            for (Block b : order) {
+                for (Value phi : b.phis) {
+                    for (Value a : phi.args) {
+                        if (a.op == Op.CONST || (a.op != Op.PHI && this.deferred[a.id])) {
+                            continue;
+                        }
+                        Value x = find(phi), y = find(a);
+                        if (x == y || interfere(group(x), group(y))) {
+                            continue;
+                        }
+                        this.parents[y.id] = x;
+                        group(x).addAll(this.members.remove(y));
+                    }
+                }
+            }
+        }
+
+        private Value find(Value v) {
+            while (this.parents[v.id] != null) {
+                v = this.parents[v.id];
+            }
+            return v;
+        }
+
+        private List<Value> group(Value root) {
+            return this.members.computeIfAbsent(root, k -> new ArrayList<>(List.of(k)));
+        }
+
+        private boolean interfere(List<Value> xs, List<Value> ys) {
+            for (Value x : xs) {
+                for (Value y : ys) {
+                    if (liveAfter(x, y) || liveAfter(y, x)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Tells whether x is still needed just after y is worked out. Two
+         * phis of one block always are.
+         */
+        private boolean liveAfter(Value x, Value y) {
+            Block b = y.block;
+            if (y.op == Op.PHI) {
+                return x.block == b && x.op == Op.PHI || liveIn(x).contains(b);
+            }
+            int i = this.positions[y.id];
+            boolean defined = x.block == b ? x.op == Op.PHI || this.positions[x.id] < i : liveIn(x).contains(b);
+            if (!defined) {
+                return false;
+            }
+            Block[] at = this.useList[x.id];
+            for (int k = 0; at != null && k < at.length; k++) {
+                if (at[k] == b && this.usePositionList[x.id][k] > i) {
+                    return true;
+                }
+            }
+            for (Block s : b.succs) {
+                if (liveIn(x).contains(s)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Finds the blocks a value is live into, walking back from each use
+         * to where it is worked out
+         */
+        private Set<Block> liveIn(Value v) {
+            Set<Block> in = this.liveIns.get(v);
+            if (in != null) {
+                return in;
+            }
+            in = new HashSet<>();
+            List<Block> work = new ArrayList<>();
+            Block[] at = this.useList[v.id];
+            for (int k = 0; at != null && k < at.length; k++) {
+                if (at[k] != v.block && in.add(at[k])) {
+                    work.add(at[k]);
+                }
+            }
+            while (!work.isEmpty()) {
+                for (Block p : work.remove(work.size() - 1).preds) {
+                    if (p != v.block && in.add(p)) {
+                        work.add(p);
+                    }
+                }
+            }
+            this.liveIns.put(v, in);
+            return in;
+        }
+
+        // a slot for the values nothing uses, like a div kept for the error it may stop with
+        private int scratch() {
+            if (this.scratch < 0) {
+                this.scratch = this.names.size();
+                this.names.add("%");
+            }
+            return this.scratch;
+        }
+
+        /**
+         * Emits code that leaves a value on the stack: the whole tree of
+         * it if it was left for its use, otherwise a push or fetch
+         */
+        private void operand(Value v) {
+            if (v.op == Op.CONST) {
+                emit(Bytecode.PUSH, v.constant);
+            } else if (v.block != null && this.deferred[v.id] && v.op != Op.PHI) {
+                tree(v);
+            } else {
+                emit(Bytecode.FETCH, slot(v));
+            }
+        }
+
+        /**
+         * Emits an instruction after its args, with the args left for it
+         * emitted in full where they are needed
+         */
+        private void tree(Value root) {
+            int top = 0;
+            this.stack[top] = root;
+            this.next[top++] = 0;
+            while (top > 0) {
+                Value v = this.stack[top - 1];
+                int i = this.next[top - 1]++;
+                if (i < v.args.length) {
+                    Value a = v.args[i];
+                    if (a.op != Op.CONST && a.op != Op.PHI && this.deferred[a.id]) {
+                        if (top == this.stack.length) {
+                            this.stack = Arrays.copyOf(this.stack, top * 2);
+                            this.next = Arrays.copyOf(this.next, top * 2);
+                        }
+                        this.stack[top] = a;
+                        this.next[top++] = 0;
+                    } else {
+                        operand(a);
+                    }
+                    continue;
+                }
+                top--;
+                if (v.op == Op.PRTS) {
+                    emit(Bytecode.PRTS, v.constant);
+                } else if (v.op != Op.COPY) {
+                    emit(v.op.opcode);
+                }
+            }
+        }
+
+        private void emit(int op) {
+            if (this.length + 2 > this.code.length) {
+                this.code = Arrays.copyOf(this.code, this.code.length * 2);
+            }
+            this.code[this.length++] = op;
+        }
+
+        private void emit(int op, int operand) {
+            emit(op);
+            this.code[this.length++] = operand;
+        }
+
+        private void jump(int op, Block target) {
+            if (this.jumpCount == this.jumps.length) {
+                this.jumps = Arrays.copyOf(this.jumps, this.jumpCount * 2);
+                this.targets = Arrays.copyOf(this.targets, this.jumpCount * 2);
+            }
+            emit(op, 0);
+            this.jumps[this.jumpCount] = this.length - 1;
+            this.targets[this.jumpCount++] = target;
+        }
+    }
+}
@@ -0,0 +1,629 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SsaOptimizer runs the classic optimizations over a program in Ssa form
+ * and counts the instructions before and after each of them, both in the
+ * whole program and in loops, where an instruction is run again and again.
+ *
+ * Copy propagation uses the value a copy or a phi of one value copies in
+ * its place. Constant propagation works out instructions whose args are
+ * all constants, and a branch on a constant becomes a jump, dropping the
+ * blocks that can no longer be reached. Common subexpression elimination
+ * finds an instruction that works out the same thing as one that always
+ * runs before it. Loop-invariant code motion moves an instruction whose
+ * args do not change in a loop to the block before the loop. Dead code
+ * elimination removes whatever nothing printed depends on.
+ *
+ * A div or mod by something that may be 0 is never moved or removed, as
+ * it can end the program; one that always runs after the same division can
+ * still be dropped.
+ */
+class SsaOptimizer {
+    static enum Pass {
+        COPY_PROPAGATION("copy propagation"), CONSTANT_PROPAGATION("constant propagation"),
+        COMMON_SUBEXPRESSIONS("common subexpressions"), LOOP_INVARIANTS("loop-invariant motion"),
+        DEAD_CODE("dead code");
+
+        private final String name;
+
+        Pass(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() { return this.name; }
+    }
+
+    // For each pass: instructions before and after it, then instructions in loops before and after it
+    private final int[][] counts = new int[Pass.values().length][4];
+
+    /**
+     * Runs every pass over a program, in the order they are listed
+     * @param program   The program, changed in place
+     * @return          The program
+     */
+    Ssa optimize(Ssa program) {
+        for (Pass pass : Pass.values()) {
+            run(pass, program);
+        }
+        return program;
+    }
+
+    /**
+     * Runs one pass over a program and counts its instructions before and
+     * after
+     * @param pass      The pass
+     * @param program   The program, changed in place
+     */
+    void run(Pass pass, Ssa program) {
+        int[] count = this.counts[pass.ordinal()];
+        count[0] += program.size();
+        count[2] += inLoops(program);
+        switch (pass) {
+            case COPY_PROPAGATION: propagateCopies(program); break;
+            case CONSTANT_PROPAGATION: propagateConstants(program); break;
+            case COMMON_SUBEXPRESSIONS: eliminateCommonSubexpressions(program); break;
+            case LOOP_INVARIANTS: hoistInvariants(program); break;
+            default: eliminateDeadCode(program); break;
+        }
+        count[1] += program.size();
+        count[3] += inLoops(program);
+    }
+
+    /**
+     * Gets the number of instructions there were before a pass, over all
+     * the programs it ran on
+     */
+    int before(Pass pass) {
+        return this.counts[pass.ordinal()][0];
+    }
+
+    /**
+     * Gets the number of instructions a pass left, over all the programs
+     * it ran on
+     */
+    int after(Pass pass) {
+        return this.counts[pass.ordinal()][1];
+    }
+
+    /**
+     * Lists the instruction counts before and after each pass, and the
+     * counts in loops, one pass to a line
+     * @return      The report
+     */
+    String report() {
+        TextSink out = new TextSink();
+        out.append("pass").pad(20).append("instructions").pad(6).append("in loops\n");
+        for (Pass pass : Pass.values()) {
+            int[] count = this.counts[pass.ordinal()];
+            String name = pass.toString();
+            out.append(name).pad(22 - name.length()).append(count[0], 6).append(" ->").append(count[1], 6)
+                    .append(count[2], 8).append(" ->").append(count[3], 6).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Works out an instruction on constants
+     * @param op    The instruction; not a div or mod by 0
+     * @param a     First arg
+     * @param b     Second arg, if it has one
+     * @return      The value, 1 or 0 for a comparison
+     */
+    static int evaluate(Ssa.Op op, int a, int b) {
+        switch (op) {
+            case ADD: return a + b;
+            case SUB: return a - b;
+            case MUL: return a * b;
+            case DIV: return a / b;
+            case MOD: return a % b;
+            case LT: return a < b ? 1 : 0;
+            case GT: return a > b ? 1 : 0;
+            case LE: return a <= b ? 1 : 0;
+            case GE: return a >= b ? 1 : 0;
+            case EQ: return a == b ? 1 : 0;
+            case NE: return a != b ? 1 : 0;
+            case NEG: return -a;
+            default: return a == 0 ? 1 : 0;
+        }
+    }
+
+    private static void propagateCopies(Ssa program) {
+        for (Ssa.Block b : program.blocks) {
+            b.code.removeIf(v -> {
+                if (v.op == Ssa.Op.COPY) {
+                    v.forward = v.args[0];
+                    return true;
+                }
+                return false;
+            });
+        }
+        removeTrivialPhis(program);
+        program.rewrite();
+    }
+
+    /**
+     * Removes the phis whose args are all one value, or the phi itself,
+     * until there are none left
+     * @return      True if any were removed
+     */
+    private static boolean removeTrivialPhis(Ssa program) {
+        boolean removed = false;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Ssa.Block b : program.blocks) {
+                int before = b.phis.size();
+                b.phis.removeIf(phi -> {
+                    Ssa.Value same = null;
+                    for (Ssa.Value a : phi.args) {
+                        a = Ssa.resolve(a);
+                        if (a == phi || a == same) {
+                            continue;
+                        }
+                        if (same != null) {
+                            return false;
+                        }
+                        same = a;
+                    }
+                    // a phi of nothing but itself is a variable never set: 0
+                    phi.forward = same != null ? same : program.constant(0);
+                    return true;
+                });
+                changed |= b.phis.size() != before;
+            }
+            removed |= changed;
+        }
+        return removed;
+    }
+
+    private static void propagateConstants(Ssa program) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Ssa.Block b : program.blocks) {
+                for (Ssa.Value v : b.code) {
+                    for (int i = 0; i < v.args.length; i++) {
+                        v.args[i] = Ssa.resolve(v.args[i]);
+                    }
+                }
+                int before = b.code.size();
+                b.code.removeIf(v -> {
+                    if (!Ssa.isPure(v.op) || v.op == Ssa.Op.COPY) {
+                        return false;
+                    }
+                    for (Ssa.Value a : v.args) {
+                        if (a.op != Ssa.Op.CONST) {
+                            return false;
+                        }
+                    }
+                    if (Ssa.mayThrow(v)) {
+                        return false;
+                    }
+                    int second = v.args.length > 1 ? v.args[1].constant : 0;
+                    v.forward = program.constant(evaluate(v.op, v.args[0].constant, second));
+                    return true;
+                });
+                changed |= b.code.size() != before;
+
+                if (b.cond != null) {
+                    b.cond = Ssa.resolve(b.cond);
+                    if (b.cond.op == Ssa.Op.CONST) {
+                        Ssa.Block taken = b.succs[b.cond.constant != 0 ? 0 : 1];
+                        removeEdge(b, b.succs[b.cond.constant != 0 ? 1 : 0]);
+                        b.succs = new Ssa.Block[] {taken};
+                        b.cond = null;
+                        changed = true;
+                    }
+                }
+            }
+            changed |= removeUnreachable(program);
+            changed |= removeTrivialPhis(program);
+        }
+        program.rewrite();
+    }
+
+    // takes the edge out of to's preds, with the phi args that came in along it
+    private static void removeEdge(Ssa.Block from, Ssa.Block to) {
+        int j = to.preds.indexOf(from);
+        to.preds.remove(j);
+        for (Ssa.Value phi : to.phis) {
+            Ssa.Value[] args = new Ssa.Value[phi.args.length - 1];
+            System.arraycopy(phi.args, 0, args, 0, j);
+            System.arraycopy(phi.args, j + 1, args, j, args.length - j);
+            phi.args = args;
+        }
+    }
+
+    private static boolean removeUnreachable(Ssa program) {
+        List<Ssa.Block> reachable = program.order();
+        if (reachable.size() == program.blocks.size()) {
+            return false;
+        }
+        boolean[] keep = new boolean[program.blockCount()];
+        for (Ssa.Block b : reachable) {
+            keep[b.id] = true;
+        }
+        for (Ssa.Block b : program.blocks) {
+            if (!keep[b.id]) {
+                for (Ssa.Block s : b.succs) {
+                    if (keep[s.id]) {
+                        removeEdge(b, s);
+                    }
+                }
+            }
+        }
+        program.blocks.removeIf(b -> !keep[b.id]);
+        return true;
+    }
+
+    private static void eliminateCommonSubexpressions(Ssa program) {
+        List<Ssa.Block> order = program.order();
+        Ssa.Block[] idom = dominators(order, program.blockCount());
+        List<List<Ssa.Block>> children = children(order, idom, program.blockCount());
+
+        // the dominator tree is walked with a table of the instructions above each block
+        Map<String, Ssa.Value> table = new HashMap<>();
+        List<String> added = new ArrayList<>();
+        Ssa.Block[] stack = new Ssa.Block[64];
+        int[] marks = new int[64];
+        boolean[] entered = new boolean[64];
+        int top = 0;
+        stack[top] = order.get(0);
+        entered[top++] = false;
+        while (top > 0) {
+            Ssa.Block b = stack[top - 1];
+            if (entered[top - 1]) {
+                // leaving b: forget what it added
+                for (int i = added.size() - 1; i >= marks[top - 1]; i--) {
+                    table.remove(added.remove(i));
+                }
+                top--;
+                continue;
+            }
+            entered[top - 1] = true;
+            marks[top - 1] = added.size();
+            b.phis.removeIf(phi -> {
+                StringBuilder key = new StringBuilder("phi ").append(b.id);
+                for (Ssa.Value a : phi.args) {
+                    key.append(' ').append(Ssa.resolve(a).id);
+                }
+                return same(phi, key.toString(), table, added);
+            });
+            b.code.removeIf(v -> Ssa.isPure(v.op) && v.op != Ssa.Op.COPY && same(v, key(v), table, added));
+            for (Ssa.Block c : children.get(b.id)) {
+                if (top == stack.length) {
+                    stack = Arrays.copyOf(stack, top * 2);
+                    marks = Arrays.copyOf(marks, top * 2);
+                    entered = Arrays.copyOf(entered, top * 2);
+                }
+                stack[top] = c;
+                entered[top++] = false;
+            }
+        }
+        program.rewrite();
+    }
+
+    /**
+     * Looks an instruction up in the table, pointing it at the one there
+     * if there is one and adding it if not
+     * @return  True if it is the same as one above it
+     */
+    private static boolean same(Ssa.Value v, String key, Map<String, Ssa.Value> table, List<String> added) {
+        Ssa.Value found = table.get(key);
+        if (found != null) {
+            v.forward = found;
+            return true;
+        }
+        table.put(key, v);
+        added.add(key);
+        return false;
+    }
+
+    /**
+     * Makes the key an instruction is looked up by, with the args of add,
+     * mul, eq and ne in order of id and gt and ge turned round to lt and le
+     */
+    private static String key(Ssa.Value v) {
+        Ssa.Op op = v.op;
+        int a = Ssa.resolve(v.args[0]).id;
+        int b = v.args.length > 1 ? Ssa.resolve(v.args[1]).id : -1;
+        if (op == Ssa.Op.GT || op == Ssa.Op.GE) {
+            op = op == Ssa.Op.GT ? Ssa.Op.LT : Ssa.Op.LE;
+            int t = a;
+            a = b;
+            b = t;
+        } else if ((op == Ssa.Op.ADD || op == Ssa.Op.MUL || op == Ssa.Op.EQ || op == Ssa.Op.NE) && b < a) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        return op + " " + a + " " + b;
+    }
+
+    private static void hoistInvariants(Ssa program) {
+        List<Ssa.Block> order = program.order();
+        List<boolean[]> loops = loops(program, order);
+        // inner loops first, so what leaves one can leave the loop around it too
+        loops.sort((x, y) -> Integer.compare(count(x), count(y)));
+        for (boolean[] body : loops) {
+            Ssa.Block header = null;
+            for (Ssa.Block b : order) {
+                if (body[b.id]) {
+                    header = b;
+                    break;
+                }
+            }
+            Ssa.Block preheader = null;
+            for (Ssa.Block p : header.preds) {
+                if (!body[p.id]) {
+                    preheader = preheader == null ? p : header;
+                }
+            }
+            if (preheader == null || preheader == header || preheader.succs.length != 1) {
+                continue;
+            }
+            for (Ssa.Block b : order) {
+                if (!body[b.id]) {
+                    continue;
+                }
+                Ssa.Block to = preheader;
+                b.code.removeIf(v -> {
+                    if (!Ssa.isPure(v.op) || v.op == Ssa.Op.COPY || Ssa.mayThrow(v)) {
+                        return false;
+                    }
+                    for (Ssa.Value a : v.args) {
+                        if (a.block != null && body[a.block.id]) {
+                            return false;
+                        }
+                    }
+                    to.code.add(v);
+                    v.block = to;
+                    return true;
+                });
+            }
+        }
+    }
+
+    private static int count(boolean[] body) {
+        int n = 0;
+        for (boolean in : body) {
+            n += in ? 1 : 0;
+        }
+        return n;
+    }
+
+    private static void eliminateDeadCode(Ssa program) {
+        boolean[] live = new boolean[program.valueCount()];
+        Ssa.Value[] work = new Ssa.Value[64];
+        int count = 0;
+        for (Ssa.Block b : program.blocks) {
+            for (Ssa.Value v : b.code) {
+                if (!Ssa.isPure(v.op) || Ssa.mayThrow(v)) {
+                    live[v.id] = true;
+                    work = grow(work, count);
+                    work[count++] = v;
+                }
+            }
+            if (b.cond != null && !live[b.cond.id]) {
+                live[b.cond.id] = true;
+                work = grow(work, count);
+                work[count++] = b.cond;
+            }
+        }
+        while (count > 0) {
+            Ssa.Value v = work[--count];
+            for (Ssa.Value a : v.args) {
+                if (!live[a.id]) {
+                    live[a.id] = true;
+                    work = grow(work, count);
+                    work[count++] = a;
+                }
+            }
+        }
+        for (Ssa.Block b : program.blocks) {
+            b.phis.removeIf(v -> !live[v.id]);
+            b.code.removeIf(v -> !live[v.id]);
+        }
+    }
+
+    private static Ssa.Value[] grow(Ssa.Value[] work, int count) {
+        return count == work.length ? Arrays.copyOf(work, count * 2) : work;
+    }
+
+    /**
+     * Finds the immediate dominator of each block, the way Cooper, Harvey
+     * and Kennedy do: going over the blocks in reverse postorder until
+     * nothing changes
+     * @param order         The blocks in reverse postorder
+     * @param blockCount    One more than the highest block id
+     * @return              The immediate dominator of each block by id, the entry its own
+     */
+    static Ssa.Block[] dominators(List<Ssa.Block> order, int blockCount) {
+        Ssa.Block[] idom = new Ssa.Block[blockCount];
+        int[] index = new int[blockCount];
+        for (int i = 0; i < order.size(); i++) {
+            index[order.get(i).id] = i;
+        }
+        Ssa.Block entry = order.get(0);
+        idom[entry.id] = entry;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < order.size(); i++) {
+                Ssa.Block b = order.get(i);
+                Ssa.Block d = null;
+                for (Ssa.Block p : b.preds) {
+                    if (idom[p.id] == null) {
+                        continue;
+                    }
+                    if (d == null) {
+                        d = p;
+                        continue;
+                    }
+                    // walk the two up to where they meet
+                    Ssa.Block x = p;
+                    while (x != d) {
+                        while (index[x.id] > index[d.id]) {
+                            x = idom[x.id];
+                        }
+                        while (index[d.id] > index[x.id]) {
+                            d = idom[d.id];
+                        }
+                    }
+                }
+                if (idom[b.id] != d) {
+                    idom[b.id] = d;
+                    changed = true;
+                }
+            }
+        }
+        return idom;
+    }
+
+    // the blocks each block immediately dominates, by id
+    private static List<List<Ssa.Block>> children(List<Ssa.Block> order, Ssa.Block[] idom, int blockCount) {
+        List<List<Ssa.Block>> children = new ArrayList<>(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            children.add(new ArrayList<>());
+        }
+        for (int i = 1; i < order.size(); i++) {
+            Ssa.Block b = order.get(i);
+            children.get(idom[b.id].id).add(b);
+        }
+        return children;
+    }
+
+    /**
+     * Finds the loops of a program: for each block with an edge back to it
+     * from a block it dominates, the blocks that can get to that edge
+     * without going through it
+     * @return      The blocks of each loop, by id
+     */
+    private static List<boolean[]> loops(Ssa program, List<Ssa.Block> order) {
+        List<boolean[]> loops = new ArrayList<>();
+        if (order.isEmpty()) {
+            return loops;
+        }
+        int n = program.blockCount();
+        Ssa.Block[] idom = dominators(order, n);
+        // a dominates b when b's span in the dominator tree is inside a's
+        int[] enter = new int[n], exit = new int[n];
+        List<List<Ssa.Block>> children = children(order, idom, n);
+        Ssa.Block[] stack = new Ssa.Block[64];
+        int[] next = new int[64];
+        int top = 0, clock = 0;
+        stack[top] = order.get(0);
+        next[top++] = 0;
+        enter[order.get(0).id] = clock++;
+        while (top > 0) {
+            Ssa.Block b = stack[top - 1];
+            List<Ssa.Block> kids = children.get(b.id);
+            int i = next[top - 1]++;
+            if (i < kids.size()) {
+                if (top == stack.length) {
+                    stack = Arrays.copyOf(stack, top * 2);
+                    next = Arrays.copyOf(next, top * 2);
+                }
+                stack[top] = kids.get(i);
+                next[top++] = 0;
+                enter[kids.get(i).id] = clock++;
+            } else {
+                exit[b.id] = clock++;
+                top--;
+            }
+        }
+
+        Map<Ssa.Block, boolean[]> byHeader = new HashMap<>();
+        Ssa.Block[] work = new Ssa.Block[64];
+        for (Ssa.Block b : order) {
+            for (Ssa.Block h : b.succs) {
+                if (enter[h.id] > enter[b.id] || exit[b.id] > exit[h.id]) {
+                    continue;
+                }
+                boolean[] body = byHeader.computeIfAbsent(h, k -> new boolean[n]);
+                body[h.id] = true;
+                int count = 0;
+                if (!body[b.id]) {
+                    body[b.id] = true;
+                    work[count++] = b;
+                }
+                while (count > 0) {
+                    for (Ssa.Block p : work[--count].preds) {
+                        if (!body[p.id]) {
+                            body[p.id] = true;
+                            if (count == work.length) {
+                                work = Arrays.copyOf(work, count * 2);
+                            }
+                            work[count++] = p;
+                        }
+                    }
+                }
+            }
+        }
+        loops.addAll(byHeader.values());
+        return loops;
+    }
+
+    /**
+     * Counts the instructions in blocks that are in a loop
+     */
+    static int inLoops(Ssa program) {
+        List<Ssa.Block> order = program.order();
+        boolean[] in = new boolean[program.blockCount()];
+        for (boolean[] body : loops(program, order)) {
+            for (int i = 0; i < body.length; i++) {
+                in[i] |= body[i];
+            }
+        }
+        int n = 0;
+        for (Ssa.Block b : order) {
+            if (in[b.id]) {
+                n += b.phis.size() + b.code.size();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Optimizes a source file, printing the instruction counts and the
+     * optimized program, and writes the assembly listing of the Bytecode
+     * it lowers to.
+     * @param args      Source file name, and optionally the output filename.
+     */
+    public static void main(String[] args) {
+        try {
+            if (args.length == 0) {
+                Parser.error(-1, -1, "No args");
+            }
+            String outFileName = args.length > 1 ? args[1] : "src/main/resources/hello.asm";
+            TokenBuffer tokens;
+            try (Lexer lexer = Lexer.open(args[0])) {
+                tokens = lexer.tokenize();
+            }
+            Parser parser = new Parser(tokens);
+            parser.recoverErrors();
+            Parser.Node tree = parser.parse();
+            parser.throwErrors();
+            SsaOptimizer optimizer = new SsaOptimizer();
+            Ssa program = optimizer.optimize(Ssa.build(tree));
+            System.out.print(optimizer.report());
+            TextSink echo = TextSink.console();
+            if (echo != null) {
+                program.print(echo);
+                echo.flush();
+            }
+            Bytecode lowered = program.lower();
+            Parser.outputToFile(outFileName, lowered::list);
+        } catch (IOException e) {
+            new CompileError("Exception: " + e.getMessage()).exit();
+        } catch (CompileError e) {
+            e.exit();
+        }
+    }
+}
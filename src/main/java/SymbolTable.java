@@ -0,0 +1,188 @@
+import java.util.Arrays;
+
+/**
+ * SymbolTable interns identifiers and gives each one a dense int id: the
+ * first name added is 0, the next new one 1, and so on. A pass that keeps
+ * something for each variable can then index an array by id instead of
+ * hashing the name every time it comes up.
+ *
+ * The AstArena keeps one and adds a name when it makes the first
+ * Identifier leaf with it, straight from the text of the token stream, so
+ * each name is hashed once, where the Parser first meets it.
+ */
+class SymbolTable {
+    // name i is pool[starts[i]] up to pool[starts[i + 1]]
+    private char[] pool = new char[64];
+    private int poolLength;
+    private int[] starts = new int[17];
+    private String[] names = new String[16];
+    private int size;
+    // open addressing table of id + 1, 0 for an empty slot
+    private int[] slots = new int[32];
+
+    /**
+     * Finds a name in the table, adding it if it is not there yet
+     * @param src       Characters holding the name
+     * @param start     Offset of the name in src
+     * @param length    Length of the name
+     * @return          Id of the name
+     */
+    int intern(char[] src, int start, int length) {
+        int mask = this.slots.length - 1;
+        int slot = hash(src, start, length) & mask;
+        for (int id; (id = this.slots[slot]) != 0; slot = (slot + 1) & mask) {
+            if (equals(id - 1, src, start, length)) {
+                return id - 1;
+            }
+        }
+
+        int id = this.size++;
+        if (this.size + 1 > this.starts.length) {
+            this.starts = Arrays.copyOf(this.starts, this.starts.length * 2);
+            this.names = Arrays.copyOf(this.names, this.starts.length);
+        }
+        if (this.poolLength + length > this.pool.length) {
+            this.pool = Arrays.copyOf(this.pool, Math.max(this.pool.length * 2, this.poolLength + length));
+        }
+        System.arraycopy(src, start, this.pool, this.poolLength, length);
+        this.poolLength += length;
+        this.starts[id + 1] = this.poolLength;
+        this.slots[slot] = id + 1;
+        if (this.size * 2 > this.slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Finds a name in the table, adding it if it is not there yet
+     * @param name  The name
+     * @return      Id of the name
+     */
+    int intern(String name) {
+        return intern(name.toCharArray(), 0, name.length());
+    }
+
+    /**
+     * Looks up a name without adding it
+     * @param name  The name
+     * @return      Id of the name, or -1 if it is not in the table
+     */
+    int find(String name) {
+        char[] chars = name.toCharArray();
+        int mask = this.slots.length - 1;
+        int slot = hash(chars, 0, chars.length) & mask;
+        for (int id; (id = this.slots[slot]) != 0; slot = (slot + 1) & mask) {
+            if (equals(id - 1, chars, 0, chars.length)) {
+                return id - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the name of an id, made into a String once and then reused
+     * @param id    Id of the name
+     * @return      The name
+     */
+    String name(int id) {
+        if (this.names[id] == null) {
+            this.names[id] = new String(this.pool, this.starts[id], this.starts[id + 1] - this.starts[id]);
+        }
+        return this.names[id];
+    }
+
+    // every id is below it
+    int size() { return this.size; }
+
+    private static int hash(char[] src, int start, int length) {
+        int h = 0;
+        for (int i = start; i < start + length; i++) {
+            h = 31 * h + src[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private boolean equals(int id, char[] src, int start, int length) {
+        int from = this.starts[id];
+        if (this.starts[id + 1] - from != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (this.pool[from + i] != src[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        int[] slots = new int[this.slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < this.size; id++) {
+            int slot = hash(this.pool, this.starts[id], this.starts[id + 1] - this.starts[id]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+        this.slots = slots;
+    }
+
+    /**
+     * Numbers the variables of one program in the order it first uses them.
+     * A leaf the Parser made is found by its id, so its name is only looked
+     * up the first time; a leaf made by hand, with no id, by its name.
+     * The ids of a table kept for many programs are dense over all of
+     * them, the slots only over the one program.
+     */
+    static final class Slots {
+        // the name of each slot, so the id of a name here is its slot
+        private final SymbolTable names = new SymbolTable();
+        // slot + 1 of each id, 0 for an id not looked up yet
+        private int[] slots = new int[16];
+
+        /**
+         * Gets the slot of the variable an Identifier leaf names, giving it
+         * the next one the first time
+         * @param ident     Identifier leaf
+         * @return          Slot of the variable
+         */
+        int slot(Parser.Node ident) {
+            int id = ident.id;
+            if (id < 0) {
+                return this.names.intern(ident.value);
+            }
+            if (id >= this.slots.length) {
+                this.slots = Arrays.copyOf(this.slots, Math.max(this.slots.length * 2, id + 1));
+            }
+            if (this.slots[id] == 0) {
+                this.slots[id] = this.names.intern(ident.value) + 1;
+            }
+            return this.slots[id] - 1;
+        }
+
+        int size() { return this.names.size(); }
+
+        /**
+         * Gets the name of a slot
+         * @param slot  The slot
+         * @return      Name of its variable
+         */
+        String name(int slot) {
+            return this.names.name(slot);
+        }
+
+        /**
+         * Gets the names of the variables
+         * @return      Name of each slot
+         */
+        String[] names() {
+            String[] names = new String[size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = this.names.name(i);
+            }
+            return names;
+        }
+    }
+}
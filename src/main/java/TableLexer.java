@@ -0,0 +1,323 @@
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * TableLexer is a second engine for the Lexer. Instead of the switch in
+ * Lexer.getToken it runs a DFA whose character-class and transition tables
+ * are built once from the token spec below. Every transition reads one
+ * character, in the same order as the Lexer's own scanning, so both
+ * engines give exactly the same tokens, line numbers and positions.
+ *
+ * Pick it with Lexer.open(fileName, true) or --engine=table.
+ */
+class TableLexer extends Lexer {
+    /**
+     * Fixed lexemes and the token each one produces. A '?' stands for any
+     * one character, which is how the Lexer reads '&&' and '||'. An
+     * Op_subtract becomes Op_negate unless it follows an operand.
+     */
+    private static final Object[][] SPEC = {
+        {"*", TokenType.Op_multiply},   {"/", TokenType.Op_divide},
+        {"%", TokenType.Op_mod},        {"+", TokenType.Op_add},
+        {"-", TokenType.Op_subtract},   {"!", TokenType.Op_not},
+        {"<", TokenType.Op_less},       {"<=", TokenType.Op_lessequal},
+        {">", TokenType.Op_greater},    {">=", TokenType.Op_greaterequal},
+        {"==", TokenType.Op_equal},     {"!=", TokenType.Op_notequal},
+        {"=", TokenType.Op_assign},     {"&?", TokenType.Op_and},
+        {"|?", TokenType.Op_or},        {"(", TokenType.LeftParen},
+        {")", TokenType.RightParen},    {"{", TokenType.LeftBrace},
+        {"}", TokenType.RightBrace},    {";", TokenType.Semicolon},
+        {",", TokenType.Comma},
+    };
+
+    // Character classes every table has; characters named by the spec get their own after these
+    private static final int EOF = 0, WS = 1, NL = 2, LETTER = 3, DIGIT = 4, OTHER = 5;
+
+    // Accept codes of states that do not produce a plain token
+    private static final int NONE = -1, SKIP = -2, IDENT = -3, INTEGER = -4, STRING = -5, CHAR = -6,
+            ERR_COMMENT = -7, ERR_STRING = -8;
+
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+    private static final int START = 0;
+
+    private static final byte[] CLASSES = new byte[128];
+    private static final int CLASS_COUNT;
+    // NEXT[state * CLASS_COUNT + class] is the next state, or -1 to stop
+    private static final int[] NEXT;
+    private static final int[] ACCEPT;
+    private static final boolean[] DISCARD;
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            CLASSES[c] = (byte) classify(c);
+        }
+        int classes = OTHER + 1;
+        for (Object[] rule : SPEC) {
+            for (char c : ((String) rule[0]).toCharArray()) {
+                if (c != '?' && CLASSES[c] == OTHER) {
+                    CLASSES[c] = (byte) classes++;
+                }
+            }
+        }
+        for (char c : "\"'\\".toCharArray()) {
+            CLASSES[c] = (byte) classes++;
+        }
+        CLASS_COUNT = classes;
+
+        Builder b = new Builder();
+        int start = b.state(IDENT); // an unknown character stops here with nothing scanned, an error
+        for (Object[] rule : SPEC) {
+            b.literal(start, (String) rule[0], ((TokenType) rule[1]).ordinal());
+        }
+
+        // identifiers and integers: a run of letters, digits and '_', an Integer if all digits
+        int integer = b.state(INTEGER), ident = b.state(IDENT);
+        b.edge(start, DIGIT, integer);
+        b.edge(start, LETTER, ident);
+        b.edge(integer, DIGIT, integer);
+        b.edge(integer, LETTER, ident);
+        b.edge(ident, LETTER, ident);
+        b.edge(ident, DIGIT, ident);
+
+        // comments start from the state after '/'
+        int slash = b.target(start, CLASSES['/']);
+        int line = b.discarding(SKIP), block = b.discarding(ERR_COMMENT);
+        int star = b.state(ERR_COMMENT), close = b.state(SKIP);
+        b.edge(slash, CLASSES['/'], line);
+        b.anyBut(line, line, EOF, NL);
+        b.edge(slash, CLASSES['*'], block);
+        b.anyBut(block, block, EOF, CLASSES['*']);
+        b.edge(block, CLASSES['*'], star);
+        b.anyBut(star, block, CLASSES['/']);
+        b.edge(star, CLASSES['/'], close);
+
+        // string literals run to the next '"'
+        int string = b.state(ERR_STRING), stringEnd = b.state(STRING);
+        b.edge(start, CLASSES['"'], string);
+        b.anyBut(string, string, EOF, CLASSES['"']);
+        b.edge(string, CLASSES['"'], stringEnd);
+
+        // character literals: quote, a character or an escape pair, then one more for the closing quote
+        int quote = b.state(NONE), escape = b.state(NONE), chr = b.state(NONE), chrEnd = b.state(CHAR);
+        b.edge(start, CLASSES['\''], quote);
+        b.anyBut(quote, chr, CLASSES['\\']);
+        b.edge(quote, CLASSES['\\'], escape);
+        b.anyBut(escape, chr);
+        b.anyBut(chr, chrEnd);
+
+        NEXT = b.next();
+        ACCEPT = b.accept();
+        DISCARD = b.discard();
+    }
+
+    /**
+     * Constructs a TableLexer Object with the given source code
+     * @param source    Source code string to tokenize
+     */
+    TableLexer(String source) {
+        super(source);
+    }
+
+    /**
+     * Constructs a TableLexer Object that reads its source from a stream
+     * @param in        Reader for the source code
+     */
+    TableLexer(Reader in) {
+        super(in);
+    }
+
+    /**
+     * Constructs a TableLexer Object for one chunk of a larger source
+     * @param buf       Characters of the whole source
+     * @param from      Offset of the first character of the chunk
+     * @param to        Offset just past the last character of the chunk
+     * @param line      Line number of buf[from]
+     * @param pos       Position of buf[from]
+     */
+    TableLexer(char[] buf, int from, int to, int line, int pos) {
+        super(buf, from, to, line, pos);
+    }
+
+    private static int classify(char c) {
+        if (c == '\u0000') {
+            return EOF;
+        } else if (c == '\n') {
+            return NL;
+        } else if (Character.isWhitespace(c)) {
+            return WS;
+        } else if (c >= '0' && c <= '9') {
+            return DIGIT;
+        } else if (Character.isLetterOrDigit(c) || c == '_') {
+            return LETTER;
+        }
+        return OTHER;
+    }
+
+    private static int classOf(char c) {
+        return c < 128 ? CLASSES[c] : classify(c);
+    }
+
+    /**
+     * Gets the next token from the source code by running the DFA
+     * @return      The next token in the source code
+     */
+    @Override
+    Token getToken() {
+        while (true) {
+            int end = this.chr == '\n' ? this.line : this.line + 1;
+            this.mark = -1;
+            skipWhitespace();
+            int cls = classOf(this.chr);
+            if (cls == EOF) {
+                return endOfInput(end);
+            }
+            this.content = true;
+            int line = this.line, pos = this.pos;
+            this.mark = this.position;
+
+            int state = START, next;
+            while ((next = NEXT[state * CLASS_COUNT + cls]) >= 0) {
+                if (DISCARD[next]) {
+                    this.mark = -1;
+                }
+                cls = classOf(getNextChar());
+                state = next;
+            }
+
+            int length = this.position - this.mark;
+            switch (ACCEPT[state]) {
+                case SKIP:
+                    continue;
+                case IDENT:
+                    if (length == 0) {
+                        error(line, pos, "Unrecognized character '" + this.chr + "'");
+                    }
+                    TokenType keyword = keyword(this.buf, this.mark, length);
+                    return new Token(keyword != null ? keyword : TokenType.Identifier, this.buf, this.mark, length, line, pos);
+                case INTEGER:
+                    return new Token(TokenType.Integer, this.buf, this.mark, length, line, pos);
+                case STRING:
+                    return new Token(TokenType.String, this.buf, this.mark + 1, length - 2, line, pos);
+                case CHAR:
+                    return new Token(TokenType.Integer, "" + charValue(), line, pos);
+                case ERR_COMMENT:
+                    error(line, pos, "EOF in comment");
+                    return null;
+                case ERR_STRING:
+                    error(line, pos, "EOF while scanning string literal");
+                    return null;
+                default:
+                    TokenType type = TOKEN_TYPES[ACCEPT[state]];
+                    if (type == TokenType.Op_subtract && this.prevToken != TokenType.Integer
+                            && this.prevToken != TokenType.Identifier) {
+                        type = TokenType.Op_negate;
+                    }
+                    return new Token(type, "", line, pos);
+            }
+        }
+    }
+
+    /**
+     * Works out the value of the character literal just scanned
+     * @return      Character code of the literal
+     */
+    private int charValue() {
+        char c = charAt(this.mark + 1);
+        if (c != '\\') {
+            return c;
+        }
+        return charAt(this.mark + 2) == 'n' ? 10 : 92;
+    }
+
+    private char charAt(int i) {
+        // past the end of the input the window holds zeros, which read as EOF
+        return i < this.buf.length ? this.buf[i] : '\u0000';
+    }
+
+    /**
+     * Builds the transition table one state at a time.
+     */
+    private static final class Builder {
+        private final List<int[]> rows = new ArrayList<>();
+        private final List<Integer> accepts = new ArrayList<>();
+        private final List<Boolean> discards = new ArrayList<>();
+
+        int state(int accept) {
+            int[] row = new int[CLASS_COUNT];
+            Arrays.fill(row, -1);
+            this.rows.add(row);
+            this.accepts.add(accept);
+            this.discards.add(false);
+            return this.rows.size() - 1;
+        }
+
+        // a state whose text is not kept, for comments
+        int discarding(int accept) {
+            int s = state(accept);
+            this.discards.set(s, true);
+            return s;
+        }
+
+        void edge(int from, int cls, int to) {
+            this.rows.get(from)[cls] = to;
+        }
+
+        int target(int from, int cls) {
+            return this.rows.get(from)[cls];
+        }
+
+        // edges on every class except the ones given
+        void anyBut(int from, int to, int... except) {
+            for (int cls = 0; cls < CLASS_COUNT; cls++) {
+                boolean skip = false;
+                for (int e : except) {
+                    skip |= e == cls;
+                }
+                if (!skip) {
+                    edge(from, cls, to);
+                }
+            }
+        }
+
+        void literal(int start, String lexeme, int accept) {
+            int s = start;
+            for (char c : lexeme.toCharArray()) {
+                if (c == '?') {
+                    int t = state(NONE);
+                    anyBut(s, t);
+                    s = t;
+                } else {
+                    int t = target(s, CLASSES[c]);
+                    if (t < 0) {
+                        t = state(NONE);
+                        edge(s, CLASSES[c], t);
+                    }
+                    s = t;
+                }
+            }
+            this.accepts.set(s, accept);
+        }
+
+        int[] next() {
+            int[] next = new int[this.rows.size() * CLASS_COUNT];
+            for (int s = 0; s < this.rows.size(); s++) {
+                System.arraycopy(this.rows.get(s), 0, next, s * CLASS_COUNT, CLASS_COUNT);
+            }
+            return next;
+        }
+
+        int[] accept() {
+            return this.accepts.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        boolean[] discard() {
+            boolean[] discard = new boolean[this.discards.size()];
+            for (int s = 0; s < discard.length; s++) {
+                discard[s] = this.discards.get(s);
+            }
+            return discard;
+        }
+    }
+}
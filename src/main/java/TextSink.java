@@ -0,0 +1,325 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * TextSink writes the .lex and .par text layouts through one reusable
+ * character buffer. Numbers are written digit by digit and columns are
+ * padded by hand, so nothing goes through String.format, and the buffer
+ * is only encoded and written to its channel when it fills up or is
+ * flushed.
+ *
+ * A TextSink can also hand its buffer to any Appendable, such as a
+ * StringBuilder or a Writer, each time it fills up. A TextSink made with
+ * neither just collects the text, which is how Token.toString gets its
+ * layout. A TextSink is not thread-safe.
+ */
+class TextSink {
+    // Size of the buffer in front of a channel
+    static final int BUFFER = 1 << 16;
+
+    // True to turn off the console echo of the command line tools
+    static boolean quiet;
+    private static TextSink console;
+
+    private static final char[] SPACES = new char[64];
+    static {
+        Arrays.fill(SPACES, ' ');
+    }
+
+    private char[] buf;
+    private int len;
+    private final WritableByteChannel ch;
+    private final Appendable target;
+    private CharsetEncoder encoder;
+    private ByteBuffer bytes;
+
+    /**
+     * Constructs a TextSink Object that collects its text in memory.
+     */
+    TextSink() {
+        this.buf = new char[64];
+        this.ch = null;
+        this.target = null;
+    }
+
+    /**
+     * Constructs a TextSink Object that writes to a channel, encoded
+     * with the default charset like FileWriter does
+     * @param ch    Channel to write to
+     */
+    TextSink(WritableByteChannel ch) {
+        this.buf = new char[BUFFER];
+        this.ch = ch;
+        this.target = null;
+        this.encoder = Charset.defaultCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.bytes = ByteBuffer.allocate((int) (BUFFER * this.encoder.maxBytesPerChar()));
+    }
+
+    /**
+     * Constructs a TextSink Object that appends to an Appendable
+     * @param target    Appendable to hand the text to
+     */
+    TextSink(Appendable target) {
+        this.buf = new char[BUFFER];
+        this.ch = null;
+        this.target = target;
+    }
+
+    /**
+     * Gets the sink the command line tools echo their output to
+     * @return      Sink writing to System.out, or null in quiet mode
+     */
+    static TextSink console() {
+        if (quiet) {
+            return null;
+        }
+        if (console == null) {
+            console = new TextSink(Channels.newChannel(System.out));
+        }
+        return console;
+    }
+
+    private void room(int n) {
+        if (this.len + n <= this.buf.length) {
+            return;
+        }
+        if (this.ch != null || this.target != null) {
+            flush();
+        }
+        if (this.len + n > this.buf.length) {
+            this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length * 2, this.len + n));
+        }
+    }
+
+    TextSink append(char c) {
+        room(1);
+        this.buf[this.len++] = c;
+        return this;
+    }
+
+    TextSink append(String s) {
+        room(s.length());
+        s.getChars(0, s.length(), this.buf, this.len);
+        this.len += s.length();
+        return this;
+    }
+
+    TextSink append(char[] src, int start, int length) {
+        room(length);
+        System.arraycopy(src, start, this.buf, this.len, length);
+        this.len += length;
+        return this;
+    }
+
+    /**
+     * Appends a number right-aligned in a column, like %5d
+     * @param n         Number to append
+     * @param width     Width of the column
+     * @return          This sink
+     */
+    TextSink append(int n, int width) {
+        room(Math.max(width, 11));
+        int digits = 1;
+        for (long m = Math.abs((long) n); m >= 10; m /= 10) {
+            digits++;
+        }
+        if (n < 0) {
+            digits++;
+        }
+        pad(width - digits);
+        int end = this.len + digits;
+        long m = Math.abs((long) n);
+        for (int i = end - 1; i >= this.len; i--) {
+            this.buf[i] = (char) ('0' + m % 10);
+            m /= 10;
+        }
+        if (n < 0) {
+            this.buf[this.len] = '-';
+        }
+        this.len = end;
+        return this;
+    }
+
+    /**
+     * Appends spaces
+     * @param n     Number of spaces, nothing if it is not positive
+     * @return      This sink
+     */
+    TextSink pad(int n) {
+        while (n > 0) {
+            int k = Math.min(n, SPACES.length);
+            append(SPACES, 0, k);
+            n -= k;
+        }
+        return this;
+    }
+
+    /**
+     * Appends one token in the .lex layout, without a newline
+     * @param type      Type of the token
+     * @param line      Line number where the token is
+     * @param pos       Position where the token is
+     * @param value     Value of the token
+     * @return          This sink
+     */
+    TextSink token(TokenType type, int line, int pos, String value) {
+        header(type, line, pos);
+        switch (type) {
+            case Integer:
+                append("  ").pad(4 - value.length()).append(value);
+                break;
+            case Identifier:
+                append(' ').append(value);
+                break;
+            case String:
+                append(" \"").append(value).append('"');
+                break;
+        }
+        return this;
+    }
+
+    /**
+     * Appends one token in the .lex layout, without a newline. The value
+     * is copied straight from a character array.
+     * @param type      Type of the token
+     * @param line      Line number where the token is
+     * @param pos       Position where the token is
+     * @param src       Characters holding the value
+     * @param start     Offset of the value in src
+     * @param length    Length of the value
+     * @return          This sink
+     */
+    TextSink token(TokenType type, int line, int pos, char[] src, int start, int length) {
+        header(type, line, pos);
+        switch (type) {
+            case Integer:
+                append("  ").pad(4 - length).append(src, start, length);
+                break;
+            case Identifier:
+                append(' ').append(src, start, length);
+                break;
+            case String:
+                append(" \"").append(src, start, length).append('"');
+                break;
+        }
+        return this;
+    }
+
+    /**
+     * Appends token i of a token stream in the .lex layout, without a newline
+     * @param tokens    Token stream
+     * @param i         Index of the token
+     * @return          This sink
+     */
+    TextSink token(TokenBuffer tokens, int i) {
+        return token(tokens.type(i), tokens.line(i), tokens.pos(i), tokens.text(), tokens.valueStart(i),
+                tokens.valueLength(i));
+    }
+
+    private void header(TokenType type, int line, int pos) {
+        String name = type.name();
+        append(line, 5).append("  ").append(pos, 5).append(' ').append(name).pad(15 - name.length());
+    }
+
+    /**
+     * Appends one AST node in the .par layout, with its newline. A null
+     * node is written as ';'.
+     * @param t         Node to append
+     * @param width     Width to pad the node type to, 0 for none
+     * @return          This sink
+     */
+    TextSink node(Parser.Node t, int width) {
+        if (t == null) {
+            return append(";\n");
+        }
+        String name = t.nt.toString();
+        append(name).pad(width - name.length());
+        if (t.nt == Parser.NodeType.nd_String) {
+            append(" \"").append(t.value).append("\"\n");
+        } else if (t.nt == Parser.NodeType.nd_Ident || t.nt == Parser.NodeType.nd_Integer) {
+            append(' ').append(t.value).append('\n');
+        } else {
+            append('\n');
+        }
+        return this;
+    }
+
+    /**
+     * Writes out everything in the buffer. Does nothing for a sink
+     * without a channel or Appendable.
+     */
+    void flush() {
+        if (this.len == 0) {
+            return;
+        }
+        if (this.target != null) {
+            try {
+                this.target.append(CharBuffer.wrap(this.buf, 0, this.len));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            this.len = 0;
+            return;
+        }
+        if (this.ch == null) {
+            return;
+        }
+        CharBuffer chars = CharBuffer.wrap(this.buf, 0, this.len);
+        try {
+            while (true) {
+                CoderResult r = this.encoder.encode(chars, this.bytes, true);
+                write();
+                if (!r.isOverflow()) {
+                    break;
+                }
+            }
+            this.encoder.flush(this.bytes);
+            write();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.encoder.reset();
+        this.len = 0;
+    }
+
+    private void write() throws IOException {
+        this.bytes.flip();
+        while (this.bytes.hasRemaining()) {
+            this.ch.write(this.bytes);
+        }
+        this.bytes.clear();
+    }
+
+    /**
+     * Flushes the sink and closes its channel
+     */
+    void close() {
+        flush();
+        if (this.ch != null) {
+            try {
+                this.ch.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    int length() {
+        return this.len;
+    }
+
+    @Override
+    public String toString() {
+        return new String(this.buf, 0, this.len);
+    }
+}
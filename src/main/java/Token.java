@@ -0,0 +1,104 @@
+/**
+ * Represents a token with its type, value, line, and position.
+ * The value is kept as an offset and length into the source and is
+ * only turned into a String the first time it is read.
+ */
+class Token {
+    public TokenType tokentype;
+    public int line;
+    public int pos;
+    private String value;
+    private final char[] source;
+    private final int start;
+    private final int length;
+
+    /**
+     * Constructs a new Token Object.
+     * @param token     Type of Token
+     * @param value     Value of Token
+     * @param line      Line number where the token is
+     * @param pos       Position where token is
+     */
+    Token(TokenType token, String value, int line, int pos) {
+        this.tokentype = token; this.value = value; this.line = line; this.pos = pos;
+        this.source = null; this.start = 0; this.length = 0;
+    }
+
+    /**
+     * Constructs a new Token Object whose value is a slice of the source.
+     * @param token     Type of Token
+     * @param source    Source code the token was scanned from
+     * @param start     Offset of the value in the source
+     * @param length    Length of the value
+     * @param line      Line number where the token is
+     * @param pos       Position where token is
+     */
+    Token(TokenType token, char[] source, int start, int length, int line, int pos) {
+        this.tokentype = token; this.line = line; this.pos = pos;
+        this.source = source; this.start = start; this.length = length;
+    }
+
+    /**
+     * Gets the value of the token, creating the String on first use
+     * @return      Value of Token, or null for a token made without one
+     */
+    String getValue() {
+        if (this.value == null && this.source != null) {
+            this.value = new String(this.source, this.start, this.length);
+        }
+        return this.value;
+    }
+
+    /**
+     * Gives a value that is still a slice of the source a String of its own,
+     * for when the source is about to be written over
+     */
+    void detach() {
+        if (this.value == null && this.source != null) {
+            this.value = new String(this.source, this.start, this.length);
+        }
+    }
+
+    /**
+     * Converts the Token Object to string
+     * @return      String of the Token Object
+     */
+    @Override
+    public String toString() {
+        return printTo(new TextSink()).toString();
+    }
+
+    /**
+     * Appends the token in the .lex layout, without a newline. A value that
+     * is still a slice of the source is copied from there, not made a String.
+     * @param out   Sink to append to
+     * @return      The sink
+     */
+    TextSink printTo(TextSink out) {
+        if (this.value == null && this.source != null) {
+            return out.token(this.tokentype, this.line, this.pos, this.source, this.start, this.length);
+        }
+        return out.token(this.tokentype, this.line, this.pos, this.value == null ? "" : this.value);
+    }
+
+    /**
+     * Appends the token to a packed token stream. Only Integer, Identifier
+     * and String tokens carry their value into the stream.
+     * @param tokens    Token stream to append to
+     */
+    void addTo(TokenBuffer tokens) {
+        switch (this.tokentype) {
+            case Integer:
+            case Identifier:
+            case String:
+                if (this.value == null && this.source != null) {
+                    tokens.add(this.tokentype, this.line, this.pos, this.source, this.start, this.length);
+                } else {
+                    tokens.add(this.tokentype, this.line, this.pos, this.value == null ? "" : this.value);
+                }
+                break;
+            default:
+                tokens.add(this.tokentype, this.line, this.pos, "");
+        }
+    }
+}
@@ -0,0 +1,316 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.StringTokenizer;
+
+/**
+ * TokenBuffer stores a token stream as columns of primitive arrays
+ * instead of one object per token. Each token has a type ordinal, a line,
+ * a position and the offset of its value in one shared character pool.
+ * The value of token i runs from its offset to the offset of token i + 1.
+ *
+ * A TokenBuffer can be saved to and loaded from a binary .lexb file, so a
+ * separate Parser run does not have to read the .lex text back in.
+ */
+class TokenBuffer {
+    private static final int MAGIC = 0x4C455842; // "LEXB"
+    private static final int VERSION = 1;
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private byte[] types;
+    private int[] lines;
+    private int[] positions;
+    private int[] values;
+    private int size;
+    private char[] text;
+    private int textLength;
+
+    /**
+     * Constructs an empty TokenBuffer.
+     */
+    TokenBuffer() {
+        this(256);
+    }
+
+    /**
+     * Constructs an empty TokenBuffer with room for the given number of tokens.
+     * @param capacity  Number of tokens to make room for
+     */
+    TokenBuffer(int capacity) {
+        capacity = Math.max(capacity, 1);
+        this.types = new byte[capacity];
+        this.lines = new int[capacity];
+        this.positions = new int[capacity];
+        this.values = new int[capacity + 1];
+        this.text = new char[capacity * 4];
+    }
+
+    /**
+     * Adds a token whose value is a slice of a character array
+     * @param type      Type of the token
+     * @param line      Line number where the token is
+     * @param pos       Position where the token is
+     * @param src       Characters holding the value
+     * @param start     Offset of the value in src
+     * @param length    Length of the value
+     */
+    void add(TokenType type, int line, int pos, char[] src, int start, int length) {
+        int i = next(type, line, pos, length);
+        System.arraycopy(src, start, this.text, this.textLength, length);
+        this.textLength += length;
+        this.values[i + 1] = this.textLength;
+    }
+
+    /**
+     * Adds a token with the given value
+     * @param type      Type of the token
+     * @param line      Line number where the token is
+     * @param pos       Position where the token is
+     * @param value     Value of the token
+     */
+    void add(TokenType type, int line, int pos, String value) {
+        int i = next(type, line, pos, value.length());
+        value.getChars(0, value.length(), this.text, this.textLength);
+        this.textLength += value.length();
+        this.values[i + 1] = this.textLength;
+    }
+
+    /**
+     * Adds the first tokens of another TokenBuffer to the end of this one
+     * @param other     Tokens to add
+     * @param count     Number of tokens of other to add
+     */
+    void append(TokenBuffer other, int count) {
+        int length = other.values[count] - other.values[0];
+        ensureCapacity(this.size + count, this.textLength + length);
+        System.arraycopy(other.types, 0, this.types, this.size, count);
+        System.arraycopy(other.lines, 0, this.lines, this.size, count);
+        System.arraycopy(other.positions, 0, this.positions, this.size, count);
+        System.arraycopy(other.text, other.values[0], this.text, this.textLength, length);
+        int shift = this.textLength - other.values[0];
+        for (int i = 1; i <= count; i++) {
+            this.values[this.size + i] = other.values[i] + shift;
+        }
+        this.size += count;
+        this.textLength += length;
+    }
+
+    /**
+     * Replaces a range of tokens with all the tokens of another TokenBuffer
+     * @param from      Index of the first token to replace
+     * @param to        Index just past the last token to replace
+     * @param other     Tokens to put in their place
+     */
+    void splice(int from, int to, TokenBuffer other) {
+        int count = other.size;
+        int length = other.values[count] - other.values[0];
+        int removed = this.values[to] - this.values[from];
+        int tail = this.size - to;
+        int tailText = this.textLength - this.values[to];
+        ensureCapacity(this.size - (to - from) + count, this.textLength - removed + length);
+        int at = from + count;
+        System.arraycopy(this.types, to, this.types, at, tail);
+        System.arraycopy(this.lines, to, this.lines, at, tail);
+        System.arraycopy(this.positions, to, this.positions, at, tail);
+        System.arraycopy(this.text, this.values[to], this.text, this.values[from] + length, tailText);
+        int shift = length - removed;
+        // same direction as an overlapping arraycopy would go
+        if (at > to) {
+            for (int i = tail; i >= 1; i--) {
+                this.values[at + i] = this.values[to + i] + shift;
+            }
+        } else {
+            for (int i = 1; i <= tail; i++) {
+                this.values[at + i] = this.values[to + i] + shift;
+            }
+        }
+        System.arraycopy(other.types, 0, this.types, from, count);
+        System.arraycopy(other.lines, 0, this.lines, from, count);
+        System.arraycopy(other.positions, 0, this.positions, from, count);
+        System.arraycopy(other.text, other.values[0], this.text, this.values[from], length);
+        int base = this.values[from] - other.values[0];
+        for (int i = 1; i <= count; i++) {
+            this.values[from + i] = other.values[i] + base;
+        }
+        this.size += count - (to - from);
+        this.textLength += shift;
+    }
+
+    /**
+     * Moves tokens to new lines and positions after an edit of the source
+     * above them
+     * @param from          Index of the first token to move
+     * @param line          Tokens on this line also move along it
+     * @param posDelta      How far tokens on that line move along it
+     * @param lineDelta     How many lines all the tokens move down
+     */
+    void shift(int from, int line, int posDelta, int lineDelta) {
+        for (int i = from; i < this.size; i++) {
+            if (this.lines[i] == line) {
+                this.positions[i] += posDelta;
+            }
+            this.lines[i] += lineDelta;
+        }
+    }
+
+    private int next(TokenType type, int line, int pos, int length) {
+        ensureCapacity(this.size + 1, this.textLength + length);
+        this.types[this.size] = (byte) type.ordinal();
+        this.lines[this.size] = line;
+        this.positions[this.size] = pos;
+        return this.size++;
+    }
+
+    private void ensureCapacity(int tokens, int textLength) {
+        if (tokens > this.types.length) {
+            int capacity = Math.max(this.types.length * 2, tokens);
+            this.types = Arrays.copyOf(this.types, capacity);
+            this.lines = Arrays.copyOf(this.lines, capacity);
+            this.positions = Arrays.copyOf(this.positions, capacity);
+            this.values = Arrays.copyOf(this.values, capacity + 1);
+        }
+        if (textLength > this.text.length) {
+            this.text = Arrays.copyOf(this.text, Math.max(this.text.length * 2, textLength));
+        }
+    }
+
+    int size() { return this.size; }
+    TokenType type(int i) { return TOKEN_TYPES[this.types[i]]; }
+    int line(int i) { return this.lines[i]; }
+    int pos(int i) { return this.positions[i]; }
+    int valueLength(int i) { return this.values[i + 1] - this.values[i]; }
+    void setType(int i, TokenType type) { this.types[i] = (byte) type.ordinal(); }
+    // the value of token i is text()[valueStart(i)] for valueLength(i) characters
+    char[] text() { return this.text; }
+    int valueStart(int i) { return this.values[i]; }
+
+    /**
+     * Gets the value of a token
+     * @param i     Index of the token
+     * @return      Value of the token as a new String
+     */
+    String value(int i) {
+        return new String(this.text, this.values[i], this.values[i + 1] - this.values[i]);
+    }
+
+    /**
+     * Gets a token as a Token Object
+     * @param i     Index of the token
+     * @return      Token at the index
+     */
+    Token get(int i) {
+        return new Token(type(i), value(i), this.lines[i], this.positions[i]);
+    }
+
+    /**
+     * Writes the tokens to a binary .lexb file. The file holds a header
+     * (magic, version, token count, text length), then the line, position
+     * and value offset columns as ints, the value text as chars, and last
+     * the type column as bytes.
+     * @param fileName      Name of the file to write
+     * @throws IOException  If the file cannot be written
+     */
+    void write(String fileName) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(16 + this.size * 12 + 4 + this.textLength * 2 + this.size);
+        bb.putInt(MAGIC).putInt(VERSION).putInt(this.size).putInt(this.textLength);
+        bb.asIntBuffer().put(this.lines, 0, this.size);
+        bb.position(bb.position() + this.size * 4);
+        bb.asIntBuffer().put(this.positions, 0, this.size);
+        bb.position(bb.position() + this.size * 4);
+        bb.asIntBuffer().put(this.values, 0, this.size + 1);
+        bb.position(bb.position() + (this.size + 1) * 4);
+        bb.asCharBuffer().put(this.text, 0, this.textLength);
+        bb.position(bb.position() + this.textLength * 2);
+        bb.put(this.types, 0, this.size);
+        bb.flip();
+        try (FileChannel ch = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (bb.hasRemaining()) {
+                ch.write(bb);
+            }
+        }
+    }
+
+    /**
+     * Reads tokens from a binary .lexb file written by write
+     * @param fileName      Name of the file to read
+     * @return              Tokens in the file
+     * @throws IOException  If the file cannot be read or is not a .lexb file
+     */
+    static TokenBuffer read(String fileName) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer bb = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (bb.remaining() < 16 || bb.getInt() != MAGIC || bb.getInt() != VERSION) {
+                throw new IOException(fileName + " is not a .lexb file");
+            }
+            int size = bb.getInt();
+            int textLength = bb.getInt();
+            // a truncated or damaged file is turned away before anything is made for it
+            if (size < 0 || textLength < 0 || 16 + size * 13L + 4 + textLength * 2L != bb.capacity()) {
+                throw new IOException(fileName + " is not a .lexb file");
+            }
+            TokenBuffer tokens = new TokenBuffer(size);
+            tokens.size = size;
+            tokens.textLength = textLength;
+            tokens.text = new char[Math.max(textLength, 1)];
+            bb.asIntBuffer().get(tokens.lines, 0, size);
+            bb.position(bb.position() + size * 4);
+            bb.asIntBuffer().get(tokens.positions, 0, size);
+            bb.position(bb.position() + size * 4);
+            bb.asIntBuffer().get(tokens.values, 0, size + 1);
+            bb.position(bb.position() + (size + 1) * 4);
+            bb.asCharBuffer().get(tokens.text, 0, textLength);
+            bb.position(bb.position() + textLength * 2);
+            bb.get(tokens.types, 0, size);
+            for (int i = 0; i < size; i++) {
+                if (tokens.types[i] < 0 || tokens.types[i] >= TOKEN_TYPES.length
+                        || tokens.values[i] < 0 || tokens.values[i] > tokens.values[i + 1]) {
+                    throw new IOException(fileName + " is not a .lexb file");
+                }
+            }
+            if (tokens.values[size] > textLength) {
+                throw new IOException(fileName + " is not a .lexb file");
+            }
+            return tokens;
+        }
+    }
+
+    /**
+     * Reads tokens from the text .lex format written by the Lexer
+     * @param in            Reader for the .lex text
+     * @return              Tokens in the text
+     * @throws IOException  If the text cannot be read or names an unknown token
+     */
+    static TokenBuffer readText(BufferedReader in) throws IOException {
+        TokenBuffer tokens = new TokenBuffer();
+        String str;
+        while ((str = in.readLine()) != null) {
+            StringTokenizer st = new StringTokenizer(str);
+            if (!st.hasMoreTokens()) {
+                continue;
+            }
+            int line = Integer.parseInt(st.nextToken());
+            int pos = Integer.parseInt(st.nextToken());
+            String name = st.nextToken();
+            TokenType type;
+            try {
+                type = TokenType.valueOf(name);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Token not found: '" + name + "'");
+            }
+            String value = "";
+            if (type == TokenType.Integer || type == TokenType.Identifier || type == TokenType.String) {
+                value = str.substring(str.indexOf(name) + name.length()).trim();
+                if (type == TokenType.String && value.length() >= 2) {
+                    value = value.substring(1, value.length() - 1);
+                }
+            }
+            tokens.add(type, line, pos, value);
+        }
+        return tokens;
+    }
+}
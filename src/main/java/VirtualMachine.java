@@ -0,0 +1,295 @@
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+/**
+ * VirtualMachine runs Bytecode. The operand stack and the variables are
+ * int arrays and the instructions are dispatched by one switch in one
+ * loop, with the program counter and stack pointer in locals.
+ *
+ * When a program is loaded its code is copied and the first opcode of some
+ * common runs of instructions is replaced by a superinstruction that does
+ * the whole run in one dispatch: a loop test like fetch, push, lt, jz, or
+ * an update like fetch, push, add, store. The rest of the run is left as it
+ * was, so a jump into the middle of it still finds the instructions it
+ * expects. The operand stack is sized once from the deepest the program
+ * can go, found before it runs.
+ *
+ * It prints what the Interpreter prints for the same program, and a
+ * division by zero ends the run with the same error.
+ */
+class VirtualMachine {
+    // Superinstructions, numbered on from the Bytecode opcodes
+    static final int FETCH_FETCH = Bytecode.OPCODES, FETCH_PUSH = FETCH_FETCH + 1, PUSH_STORE = FETCH_FETCH + 2,
+            // fetch a; push v; add or sub; store b
+            FETCH_PUSH_ADD_STORE = FETCH_FETCH + 3, FETCH_PUSH_SUB_STORE = FETCH_FETCH + 4,
+            // a comparison and the jz after it
+            LT_JZ = FETCH_FETCH + 5, GT_JZ = FETCH_FETCH + 6, LE_JZ = FETCH_FETCH + 7,
+            GE_JZ = FETCH_FETCH + 8, EQ_JZ = FETCH_FETCH + 9, NE_JZ = FETCH_FETCH + 10,
+            // fetch a; push v; a comparison; jz t
+            FETCH_PUSH_LT_JZ = FETCH_FETCH + 11, FETCH_PUSH_GT_JZ = FETCH_FETCH + 12, FETCH_PUSH_LE_JZ = FETCH_FETCH + 13,
+            FETCH_PUSH_GE_JZ = FETCH_FETCH + 14, FETCH_PUSH_EQ_JZ = FETCH_FETCH + 15, FETCH_PUSH_NE_JZ = FETCH_FETCH + 16;
+
+    private final int[] code;
+    private final String[] variables;
+    private final char[][] strings;
+    private final int[] globals;
+    private final int depth;
+    private int fused;
+
+    /**
+     * Loads a program, putting in its superinstructions
+     * @param program   The program to run
+     */
+    VirtualMachine(Bytecode program) {
+        int[] code = program.code;
+        this.code = Arrays.copyOf(code, program.length);
+        this.variables = program.variables;
+        this.strings = new char[program.strings.length][];
+        for (int i = 0; i < this.strings.length; i++) {
+            this.strings[i] = Interpreter.unescape(program.strings[i]);
+        }
+        this.globals = new int[program.variables.length];
+        this.depth = depth(program);
+
+        // runs are matched on the original code, so one that starts inside another is fused too
+        for (int pc = 0; pc < program.length; pc += Bytecode.hasOperand(code[pc]) ? 2 : 1) {
+            int fuse = superinstruction(code, pc, program.length);
+            if (fuse >= 0) {
+                this.code[pc] = fuse;
+                this.fused++;
+            }
+        }
+    }
+
+    /**
+     * Finds the superinstruction for the run of instructions at pc, the
+     * longest one there is
+     * @return  The superinstruction, or -1 if there is none
+     */
+    private static int superinstruction(int[] code, int pc, int length) {
+        int op = code[pc];
+        int second = pc + (Bytecode.hasOperand(op) ? 2 : 1);
+        if (second >= length) {
+            return -1;
+        }
+        int next = code[second];
+        if (op == Bytecode.FETCH && next == Bytecode.PUSH && pc + 6 < length) {
+            int third = code[pc + 4], fourth = code[pc + 5];
+            if (third >= Bytecode.LT && third <= Bytecode.NE && fourth == Bytecode.JZ) {
+                return FETCH_PUSH_LT_JZ + third - Bytecode.LT;
+            }
+            if ((third == Bytecode.ADD || third == Bytecode.SUB) && fourth == Bytecode.STORE) {
+                return third == Bytecode.ADD ? FETCH_PUSH_ADD_STORE : FETCH_PUSH_SUB_STORE;
+            }
+        }
+        if (op == Bytecode.FETCH && next == Bytecode.PUSH) {
+            return FETCH_PUSH;
+        }
+        if (op == Bytecode.FETCH && next == Bytecode.FETCH) {
+            return FETCH_FETCH;
+        }
+        if (op == Bytecode.PUSH && next == Bytecode.STORE) {
+            return PUSH_STORE;
+        }
+        if (op >= Bytecode.LT && op <= Bytecode.NE && next == Bytecode.JZ) {
+            return LT_JZ + op - Bytecode.LT;
+        }
+        return -1;
+    }
+
+    /**
+     * Works out the deepest the operand stack can go, following every
+     * path through the code
+     * @param program   The program
+     * @return          Number of values the stack needs room for
+     */
+    static int depth(Bytecode program) {
+        int[] code = program.code;
+        // depths[pc] is the stack depth on reaching pc, -1 until it is reached
+        int[] depths = new int[program.length + 1];
+        Arrays.fill(depths, -1);
+        int[] work = new int[16];
+        int count = 0, max = 0;
+        if (program.length > 0) {
+            depths[0] = 0;
+            work[count++] = 0;
+        }
+        while (count > 0) {
+            int pc = work[--count];
+            int d = depths[pc];
+            // follow the code on from pc until it stops or joins a path already taken
+            while (pc < program.length) {
+                int op = code[pc];
+                int next = pc + (Bytecode.hasOperand(op) ? 2 : 1);
+                if (op == Bytecode.HALT) {
+                    break;
+                }
+                if (op == Bytecode.FETCH || op == Bytecode.PUSH) {
+                    d++;
+                } else if (op != Bytecode.NEG && op != Bytecode.NOT && op != Bytecode.PRTS && op != Bytecode.JMP) {
+                    d--;
+                }
+                max = Math.max(max, d);
+                if (op == Bytecode.JMP || op == Bytecode.JZ) {
+                    int target = code[pc + 1];
+                    if (depths[target] < 0) {
+                        depths[target] = d;
+                        if (count == work.length) {
+                            work = Arrays.copyOf(work, count * 2);
+                        }
+                        work[count++] = target;
+                    }
+                    if (op == Bytecode.JMP) {
+                        break;
+                    }
+                }
+                if (depths[next] >= 0) {
+                    break;
+                }
+                depths[next] = d;
+                pc = next;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Runs the program from the start. Variables keep the values the run
+     * leaves them with.
+     * @param out   Sink the program prints to, flushed at the end
+     * @throws CompileError     If the program divides by zero
+     */
+    void run(TextSink out) {
+        Arrays.fill(this.globals, 0);
+        try {
+            exec(out);
+        } catch (ArithmeticException e) {
+            throw new CompileError("Division by zero");
+        } finally {
+            out.flush();
+        }
+    }
+
+    private void exec(TextSink out) {
+        int[] code = this.code;
+        int[] globals = this.globals;
+        int[] stack = new int[this.depth + 1];
+        int pc = 0, sp = 0;
+        while (pc < code.length) {
+            switch (code[pc]) {
+                case Bytecode.FETCH: stack[sp++] = globals[code[pc + 1]]; pc += 2; break;
+                case Bytecode.STORE: globals[code[pc + 1]] = stack[--sp]; pc += 2; break;
+                case Bytecode.PUSH: stack[sp++] = code[pc + 1]; pc += 2; break;
+                case Bytecode.ADD: sp--; stack[sp - 1] += stack[sp]; pc++; break;
+                case Bytecode.SUB: sp--; stack[sp - 1] -= stack[sp]; pc++; break;
+                case Bytecode.MUL: sp--; stack[sp - 1] *= stack[sp]; pc++; break;
+                case Bytecode.DIV: sp--; stack[sp - 1] /= stack[sp]; pc++; break;
+                case Bytecode.MOD: sp--; stack[sp - 1] %= stack[sp]; pc++; break;
+                case Bytecode.LT: sp--; stack[sp - 1] = stack[sp - 1] < stack[sp] ? 1 : 0; pc++; break;
+                case Bytecode.GT: sp--; stack[sp - 1] = stack[sp - 1] > stack[sp] ? 1 : 0; pc++; break;
+                case Bytecode.LE: sp--; stack[sp - 1] = stack[sp - 1] <= stack[sp] ? 1 : 0; pc++; break;
+                case Bytecode.GE: sp--; stack[sp - 1] = stack[sp - 1] >= stack[sp] ? 1 : 0; pc++; break;
+                case Bytecode.EQ: sp--; stack[sp - 1] = stack[sp - 1] == stack[sp] ? 1 : 0; pc++; break;
+                case Bytecode.NE: sp--; stack[sp - 1] = stack[sp - 1] != stack[sp] ? 1 : 0; pc++; break;
+                case Bytecode.NEG: stack[sp - 1] = -stack[sp - 1]; pc++; break;
+                case Bytecode.NOT: stack[sp - 1] = stack[sp - 1] == 0 ? 1 : 0; pc++; break;
+                case Bytecode.JMP: pc = code[pc + 1]; break;
+                case Bytecode.JZ: pc = stack[--sp] == 0 ? code[pc + 1] : pc + 2; break;
+                case Bytecode.PRTC: out.append((char) stack[--sp]); pc++; break;
+                case Bytecode.PRTS: {
+                    char[] s = this.strings[code[pc + 1]];
+                    out.append(s, 0, s.length);
+                    pc += 2;
+                    break;
+                }
+                case Bytecode.PRTI: out.append(stack[--sp], 0); pc++; break;
+                case Bytecode.HALT: return;
+
+                case FETCH_FETCH:
+                    stack[sp] = globals[code[pc + 1]];
+                    stack[sp + 1] = globals[code[pc + 3]];
+                    sp += 2;
+                    pc += 4;
+                    break;
+                case FETCH_PUSH:
+                    stack[sp] = globals[code[pc + 1]];
+                    stack[sp + 1] = code[pc + 3];
+                    sp += 2;
+                    pc += 4;
+                    break;
+                case PUSH_STORE: globals[code[pc + 3]] = code[pc + 1]; pc += 4; break;
+                case FETCH_PUSH_ADD_STORE: globals[code[pc + 6]] = globals[code[pc + 1]] + code[pc + 3]; pc += 7; break;
+                case FETCH_PUSH_SUB_STORE: globals[code[pc + 6]] = globals[code[pc + 1]] - code[pc + 3]; pc += 7; break;
+                case LT_JZ: sp -= 2; pc = stack[sp] < stack[sp + 1] ? pc + 3 : code[pc + 2]; break;
+                case GT_JZ: sp -= 2; pc = stack[sp] > stack[sp + 1] ? pc + 3 : code[pc + 2]; break;
+                case LE_JZ: sp -= 2; pc = stack[sp] <= stack[sp + 1] ? pc + 3 : code[pc + 2]; break;
+                case GE_JZ: sp -= 2; pc = stack[sp] >= stack[sp + 1] ? pc + 3 : code[pc + 2]; break;
+                case EQ_JZ: sp -= 2; pc = stack[sp] == stack[sp + 1] ? pc + 3 : code[pc + 2]; break;
+                case NE_JZ: sp -= 2; pc = stack[sp] != stack[sp + 1] ? pc + 3 : code[pc + 2]; break;
+                case FETCH_PUSH_LT_JZ: pc = globals[code[pc + 1]] < code[pc + 3] ? pc + 7 : code[pc + 6]; break;
+                case FETCH_PUSH_GT_JZ: pc = globals[code[pc + 1]] > code[pc + 3] ? pc + 7 : code[pc + 6]; break;
+                case FETCH_PUSH_LE_JZ: pc = globals[code[pc + 1]] <= code[pc + 3] ? pc + 7 : code[pc + 6]; break;
+                case FETCH_PUSH_GE_JZ: pc = globals[code[pc + 1]] >= code[pc + 3] ? pc + 7 : code[pc + 6]; break;
+                case FETCH_PUSH_EQ_JZ: pc = globals[code[pc + 1]] == code[pc + 3] ? pc + 7 : code[pc + 6]; break;
+                case FETCH_PUSH_NE_JZ: pc = globals[code[pc + 1]] != code[pc + 3] ? pc + 7 : code[pc + 6]; break;
+                default: throw new IllegalStateException("Bad opcode " + code[pc] + " at " + pc);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of superinstructions put in when the program was loaded
+     * @return      How many runs of instructions were fused
+     */
+    int fused() {
+        return this.fused;
+    }
+
+    /**
+     * Gets the value a variable was left with
+     * @param name  Name of the variable
+     * @return      Its value, 0 if the program never uses it
+     */
+    int value(String name) {
+        for (int i = 0; i < this.variables.length; i++) {
+            if (this.variables[i].equals(name)) {
+                return this.globals[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compiles a source file to bytecode, runs it and prints what it prints
+     * to System.out.
+     * @param args      Source file name, with --fold before it to fold constants first
+     */
+    public static void main(String[] args) {
+        try {
+            boolean fold = args.length > 1 && args[0].equals("--fold");
+            if (fold) {
+                args = Arrays.copyOfRange(args, 1, args.length);
+            }
+            if (args.length == 0) {
+                Parser.error(-1, -1, "No args");
+            }
+            TokenBuffer tokens;
+            try (Lexer lexer = Lexer.open(args[0])) {
+                tokens = lexer.tokenize();
+            }
+            Parser parser = new Parser(tokens);
+            parser.recoverErrors();
+            Parser.Node tree = parser.parse();
+            parser.throwErrors();
+            if (fold) {
+                tree = new ConstantFolder().fold(tree);
+            }
+            new VirtualMachine(CodeGenerator.generate(tree)).run(new TextSink(Channels.newChannel(System.out)));
+        } catch (IOException e) {
+            new CompileError("Exception: " + e.getMessage()).exit();
+        } catch (CompileError e) {
+            e.exit();
+        }
+    }
+}
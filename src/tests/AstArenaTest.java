@@ -0,0 +1,112 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the AstArena the Parser builds holds the same tree the
+ * Parser.Node objects did.
+ */
+class AstArenaTest {
+
+    @Test
+    public void testInterning() {
+        AstArena ast = new AstArena();
+        int a = ast.make_leaf(Parser.NodeType.nd_Ident, "count");
+        int b = ast.make_leaf(Parser.NodeType.nd_Ident, "count".toCharArray(), 0, 5);
+        int c = ast.make_leaf(Parser.NodeType.nd_Integer, "1");
+        int n = ast.make_node(Parser.NodeType.nd_Assign, a, c);
+        assertEquals(ast.valueIndex(a), ast.valueIndex(b));
+        assertNotEquals(ast.valueIndex(a), ast.valueIndex(c));
+        assertEquals(2, ast.valueCount());
+        assertEquals(Parser.NodeType.nd_Assign, ast.kind(n));
+        assertEquals(a, ast.left(n));
+        assertEquals(c, ast.right(n));
+        assertEquals("", ast.value(n));
+        assertSame(ast.value(a), ast.value(b));
+        int p = ast.make_node(Parser.NodeType.nd_Prtc, AstArena.NIL);
+        assertEquals(AstArena.NIL, ast.left(p));
+        assertNull(ast.toNode(p).left);
+        assertEquals("count", ast.toNode(n).left.value);
+    }
+
+    @Test
+    public void testManyValues() {
+        AstArena ast = new AstArena(1);
+        for (int i = 0; i < 10000; i++) {
+            ast.make_leaf(Parser.NodeType.nd_Integer, Integer.toString(i));
+        }
+        for (int i = 0; i < 10000; i++) {
+            int n = ast.make_leaf(Parser.NodeType.nd_Integer, Integer.toString(i));
+            assertEquals(i, ast.valueIndex(n));
+            assertEquals(Integer.toString(i), ast.value(n));
+        }
+        assertEquals(20000, ast.size());
+    }
+
+    @Test
+    public void testPrintMatchesNodes() throws Exception {
+        for (String name : new String[] {"fizzbuzz.c", "99bottles.c", "count.c", "prime.c", "testFile1.c"}) {
+            String source = new String(Files.readAllBytes(Paths.get("src/main/resources", name)));
+            TextSink expected = new TextSink();
+            Parser.appendAST(new Parser(new Lexer(source).tokenize()).parse(), expected);
+            Parser p = new Parser(new Lexer(source).tokenize());
+            TextSink actual = new TextSink();
+            p.arena().print(p.parseArena(), actual);
+            assertEquals(expected.toString(), actual.toString(), name);
+        }
+    }
+
+    @Test
+    public void testSharing() {
+        String source = "a = i % 3 == 0; b = i % 3 == 0; if (i % 3 == 0) a = 1; else b = 1;";
+        Parser plain = new Parser(new Lexer(source).tokenize());
+        int plainRoot = plain.parseArena();
+        AstArena shared = new AstArena(16, true);
+        Parser p = new Parser(new Lexer(source).tokenize(), shared);
+        int root = p.parseArena();
+        assertTrue(shared.shares());
+        assertFalse(plain.arena().shares());
+        // i, 3, 0, %, == and 1 once each, however many times they are written
+        assertTrue(shared.size() < plain.arena().size() - 10);
+
+        TextSink expected = new TextSink();
+        plain.arena().print(plainRoot, expected);
+        TextSink actual = new TextSink();
+        shared.print(root, actual);
+        assertEquals(expected.toString(), actual.toString());
+
+        Parser.Node tree = shared.toNode(root);
+        Parser.Node a = tree.left.left.right.right;
+        Parser.Node b = tree.left.right.right;
+        assertEquals(Parser.NodeType.nd_Eql, a.nt);
+        assertSame(a, b);
+        assertSame(tree.right.left, a);
+        assertEquals(shared.make_leaf(Parser.NodeType.nd_Integer, "3"), shared.make_leaf(Parser.NodeType.nd_Integer, "3"));
+    }
+
+    @Test
+    public void testSharedFile() throws Exception {
+        AstArena ast = new AstArena(16, true);
+        int e = ast.make_leaf(Parser.NodeType.nd_Ident, "x");
+        for (int i = 0; i < 12; i++) {
+            e = ast.make_node(Parser.NodeType.nd_Add, e, ast.make_node(Parser.NodeType.nd_Add, e, e));
+        }
+        // 25 nodes in the arena stand for a tree of 3^12 * 2 - 1 nodes
+        assertEquals(25, ast.size());
+        Path file = Files.createTempFile("ast", ".parb");
+        try {
+            AstFile.write(ast, e, file.toString());
+            TextSink expected = new TextSink();
+            Parser.appendAST(ast.toNode(e), expected);
+            TextSink actual = new TextSink();
+            AstFile.read(file.toString()).print(actual, 0);
+            assertEquals(expected.toString(), actual.toString());
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
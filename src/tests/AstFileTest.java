@@ -0,0 +1,77 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that an AST saved in the binary .parb format reads back as the
+ * same tree.
+ */
+class AstFileTest {
+
+    private static AstFile roundTrip(String source) throws IOException {
+        Parser p = new Parser(new Lexer(source).tokenize());
+        int root = p.parseArena();
+        Path file = Files.createTempFile("ast", ".parb");
+        try {
+            AstFile.write(p.arena(), root, file.toString());
+            return AstFile.read(file.toString());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testSameText() throws IOException {
+        for (String name : new String[] {"fizzbuzz.c", "99bottles.c", "count.c", "prime.c", "testFile1.c"}) {
+            String source = new String(Files.readAllBytes(Paths.get("src/main/resources", name)));
+            TextSink expected = new TextSink();
+            Parser.appendAST(new Parser(new Lexer(source).tokenize()).parse(), expected);
+            TextSink actual = new TextSink();
+            roundTrip(source).print(actual, 0);
+            assertEquals(expected.toString(), actual.toString(), name);
+        }
+    }
+
+    @Test
+    public void testWalk() throws IOException {
+        AstFile ast = roundTrip("x = 1 - y; print(\"x\");");
+        // Sequence(Sequence(;, Assign(x, Subtract(1, y))), Sequence(;, Prts("x", ;)))
+        assertEquals(Parser.NodeType.nd_Sequence, ast.kind(0));
+        int assign = ast.right(ast.left(0));
+        assertEquals(Parser.NodeType.nd_Assign, ast.kind(assign));
+        assertEquals("x", ast.value(ast.left(assign)));
+        int sub = ast.right(assign);
+        assertEquals(Parser.NodeType.nd_Sub, ast.kind(sub));
+        assertEquals("1", ast.value(ast.left(sub)));
+        assertEquals("y", ast.value(ast.right(sub)));
+        int prts = ast.right(ast.right(0));
+        assertEquals(Parser.NodeType.nd_Prts, ast.kind(prts));
+        assertEquals("x", ast.value(ast.left(prts)));
+        assertEquals(ast.valueIndex(ast.left(assign)), ast.valueIndex(ast.left(prts)));
+        assertTrue(ast.isNone(ast.right(prts)));
+        assertNull(ast.kind(ast.right(prts)));
+    }
+
+    @Test
+    public void testEmptyProgram() throws IOException {
+        AstFile ast = roundTrip("");
+        assertEquals(1, ast.size());
+        assertTrue(ast.isNone(0));
+    }
+
+    @Test
+    public void testNotParb() throws IOException {
+        Path file = Files.createTempFile("ast", ".parb");
+        try {
+            Files.write(file, "Sequence\n;\n;\n".getBytes());
+            assertThrows(IOException.class, () -> AstFile.read(file.toString()));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the code the CodeGenerator emits and the listing of it.
+ */
+class CodeGeneratorTest {
+
+    private static Bytecode generate(String source) {
+        return CodeGenerator.generate(new Parser(new Lexer(source).tokenize()).parse());
+    }
+
+    private static String list(Bytecode program) {
+        TextSink out = new TextSink();
+        program.list(out);
+        return out.toString();
+    }
+
+    /**
+     * Checks every instruction is a known opcode with its operand in range,
+     * and every jump lands on an instruction
+     */
+    private static void assertWellFormed(Bytecode program) {
+        boolean[] starts = new boolean[program.length + 1];
+        for (int pc = 0; pc < program.length; pc += Bytecode.hasOperand(program.code[pc]) ? 2 : 1) {
+            starts[pc] = true;
+        }
+        for (int pc = 0; pc < program.length; pc += Bytecode.hasOperand(program.code[pc]) ? 2 : 1) {
+            int op = program.code[pc];
+            assertTrue(op >= 0 && op < Bytecode.OPCODES);
+            if (op == Bytecode.JMP || op == Bytecode.JZ) {
+                assertTrue(starts[program.code[pc + 1]], "jump at " + pc);
+            } else if (op == Bytecode.FETCH || op == Bytecode.STORE) {
+                assertTrue(program.code[pc + 1] < program.variables.length);
+            } else if (op == Bytecode.PRTS) {
+                assertTrue(program.code[pc + 1] < program.strings.length);
+            }
+        }
+        assertEquals(Bytecode.HALT, program.code[program.length - 1]);
+    }
+
+    @Test
+    public void testListing() throws Exception {
+        String source = new String(Files.readAllBytes(Paths.get("src/main/resources", "count.c")));
+        assertEquals("Datasize: 1 Strings: 2\n"
+                + "\"count is: \"\n"
+                + "\"\\n\"\n"
+                + "    0 push   1\n"
+                + "    2 store  [0]\n"
+                + "    4 fetch  [0]\n"
+                + "    6 push   10\n"
+                + "    8 lt\n"
+                + "    9 jz     (17) 27\n"
+                + "   11 prts   \"count is: \"\n"
+                + "   13 fetch  [0]\n"
+                + "   15 prti\n"
+                + "   16 prts   \"\\n\"\n"
+                + "   18 fetch  [0]\n"
+                + "   20 push   1\n"
+                + "   22 add\n"
+                + "   23 store  [0]\n"
+                + "   25 jmp    (-22) 4\n"
+                + "   27 halt\n", list(generate(source)));
+        assertEquals("Datasize: 0 Strings: 0\n    0 halt\n", list(generate("")));
+    }
+
+    @Test
+    public void testBranches() {
+        // no else: jz goes straight past the then branch
+        assertEquals("Datasize: 2 Strings: 0\n"
+                + "    0 fetch  [0]\n"
+                + "    2 jz     (5) 8\n"
+                + "    4 push   1\n"
+                + "    6 store  [1]\n"
+                + "    8 halt\n", list(generate("if (a) b = 1;")));
+        assertTrue(list(generate("if (a) b = 1; else b = 2;"))
+                .contains("    2 jz     (7) 10\n    4 push   1\n    6 store  [1]\n    8 jmp    (5) 14\n   10 push   2\n"));
+        // && and || jump over their right side and leave 1 or 0
+        assertTrue(list(generate("x = a && b;"))
+                .contains("    2 jz     (8) 11\n    4 fetch  [1]\n    6 push   0\n    8 ne\n    9 jmp    (3) 13\n   11 push   0\n   13 store  [2]\n"));
+        assertTrue(list(generate("x = a || b;"))
+                .contains("    2 jz     (5) 8\n    4 push   1\n    6 jmp    (6) 13\n    8 fetch  [1]\n   10 push   0\n   12 ne\n   13 store  [2]\n"));
+    }
+
+    @Test
+    public void testSlotsAndStrings() {
+        Bytecode program = generate("a = 1; b = a; a = b + c; print(\"x\", \"y\\n\", \"x\"); putc(a);");
+        assertArrayEquals(new String[] {"a", "b", "c"}, program.variables);
+        assertArrayEquals(new String[] {"x", "y\\n"}, program.strings);
+        assertWellFormed(program);
+    }
+
+    @Test
+    public void testSamples() throws Exception {
+        for (String name : new String[] {"fizzbuzz.c", "99bottles.c", "count.c", "prime.c", "testFile1.c"}) {
+            String source = new String(Files.readAllBytes(Paths.get("src/main/resources", name)));
+            assertWellFormed(generate(source));
+        }
+    }
+
+    @Test
+    public void testDeepProgram() throws InterruptedException {
+        StringBuilder source = new StringBuilder("x = 0;");
+        int depth = 20000;
+        for (int i = 0; i < depth; i++) {
+            source.append("while (x < ").append(i + 1).append(" && (1 || x)) { ");
+        }
+        source.append("x = x + 1;");
+        for (int i = 0; i < depth; i++) {
+            source.append(" }");
+        }
+        Bytecode[] result = new Bytecode[1];
+        Thread t = new Thread(null, () -> result[0] = generate(source.toString()), "generate", 256 * 1024);
+        t.start();
+        t.join();
+        assertNotNull(result[0]);
+        assertWellFormed(result[0]);
+    }
+}
@@ -0,0 +1,212 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that a CompileServer answers requests from several clients with
+ * the same token and AST text a compile in the same process gives.
+ */
+class CompileServerTest {
+
+    private static String lex(String source) {
+        TokenBuffer tokens = new Lexer(new StringReader(source)).tokenize();
+        TextSink out = new TextSink();
+        for (int i = 0; i < tokens.size(); i++) {
+            if (i > 0) {
+                out.append('\n');
+            }
+            out.token(tokens, i);
+        }
+        return out.toString();
+    }
+
+    private static String par(String source) {
+        TextSink out = new TextSink();
+        Parser.appendAST(new Parser(new Lexer(new StringReader(source)).tokenize()).parse(), out);
+        return out.toString();
+    }
+
+    @Test
+    public void testRequests() throws Exception {
+        Path dir = Files.createTempDirectory("server");
+        Path socket = dir.resolve("test.sock");
+        Thread accept;
+        try (CompileServer server = new CompileServer(socket)) {
+            accept = new Thread(() -> {
+                try {
+                    server.serve();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            accept.start();
+
+            String[] names = {"fizzbuzz.c", "99bottles.c", "count.c", "prime.c", "testFile1.c"};
+            Throwable[] failure = new Throwable[names.length];
+            Thread[] clients = new Thread[names.length];
+            for (int i = 0; i < names.length; i++) {
+                int k = i;
+                clients[i] = new Thread(() -> {
+                    try (CompileClient client = new CompileClient(socket)) {
+                        Path file = Paths.get("src/main/resources", names[k]).toAbsolutePath();
+                        String source = new String(Files.readAllBytes(file));
+                        for (int round = 0; round < 20; round++) {
+                            List<String> out = client.compileFile("lex,par", file.toString());
+                            assertEquals(lex(source), out.get(0), names[k]);
+                            assertEquals(par(source), out.get(1), names[k]);
+                            assertEquals(par(source), client.compileText("par", source).get(0), names[k]);
+                        }
+                    } catch (Throwable e) {
+                        failure[k] = e;
+                    }
+                });
+                clients[i].start();
+            }
+            for (int i = 0; i < names.length; i++) {
+                clients[i].join();
+                assertNull(failure[i], names[i]);
+            }
+
+            try (CompileClient client = new CompileClient(socket)) {
+                CompileError e = assertThrows(CompileError.class, () -> client.compileText("lex,par", "x = 1;\ny 2;\nz = (3;\n"));
+                assertEquals(2, e.getMessage().split("\n").length);
+                assertTrue(e.getMessage().startsWith("assign: Expecting 'Op_assign', found: 'Integer' in line 2"));
+                // the connection is still good after an error
+                assertEquals("Sequence\n;\nAssign\nIdentifier x\nInteger 1\n", client.compileText("par", "x = 1;").get(0));
+                assertThrows(CompileError.class, () -> client.compileFile("par", dir.resolve("missing.c").toString()));
+                assertThrows(CompileError.class, () -> client.compileText("ast", "x = 1;"));
+                // a character the language does not have, and a file that is not UTF-8
+                e = assertThrows(CompileError.class, () -> client.compileText("lex", "#include"));
+                assertTrue(e.getMessage().startsWith("Unrecognized character '#'"));
+                Path latin1 = dir.resolve("latin1.c");
+                Files.write(latin1, new byte[] {'x', ' ', '=', ' ', (byte) 0xe9, ';'});
+                try {
+                    e = assertThrows(CompileError.class, () -> client.compileFile("lex", latin1.toString()));
+                    assertTrue(e.getMessage().startsWith("Exception: "));
+                } finally {
+                    Files.delete(latin1);
+                }
+                assertEquals("Sequence\n;\nAssign\nIdentifier x\nInteger 1\n", client.compileText("par", "x = 1;").get(0));
+            }
+        } finally {
+            Files.deleteIfExists(socket);
+            Files.delete(dir);
+        }
+        accept.join();
+        assertFalse(Files.exists(socket));
+    }
+
+    @Test
+    public void testBadFileClosed() throws IOException {
+        // a file the Lexer stops on is closed all the same, so the server does not run out of them
+        Path fds = Paths.get("/proc/self/fd");
+        Path bad = Files.createTempFile("bad", ".c");
+        try {
+            Files.write(bad, "x = 1;\ny = #;\n".getBytes());
+            int before = Files.isDirectory(fds) ? fds.toFile().list().length : 0;
+            for (int i = 0; i < 100; i++) {
+                assertThrows(CompileError.class, () -> CompileServer.compile("lex file " + bad));
+            }
+            if (Files.isDirectory(fds)) {
+                assertTrue(fds.toFile().list().length < before + 10);
+            }
+        } finally {
+            Files.delete(bad);
+        }
+    }
+
+    @Test
+    public void testOpenConnections() throws Exception {
+        // more clients holding a connection open than there are processors are all answered
+        Path dir = Files.createTempDirectory("server");
+        Path socket = dir.resolve("test.sock");
+        CompileServer server = new CompileServer(socket);
+        Thread accept = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        accept.start();
+        List<CompileClient> clients = new ArrayList<>();
+        try {
+            for (int i = 0; i <= Runtime.getRuntime().availableProcessors(); i++) {
+                clients.add(new CompileClient(socket));
+            }
+            Throwable[] failure = new Throwable[1];
+            Thread requests = new Thread(() -> {
+                try {
+                    for (CompileClient client : clients) {
+                        assertEquals(par("x = 1;"), client.compileText("par", "x = 1;").get(0));
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            });
+            requests.start();
+            requests.join(30000);
+            assertFalse(requests.isAlive());
+            assertNull(failure[0]);
+        } finally {
+            for (CompileClient client : clients) {
+                client.close();
+            }
+            server.close();
+            Files.delete(dir);
+        }
+        accept.join();
+    }
+
+    @Test
+    public void testSocketPath() throws Exception {
+        Path dir = Files.createTempDirectory("server");
+        Path socket = dir.resolve("test.sock");
+        try {
+            // a file at the path is not deleted
+            Files.write(socket, "keep".getBytes());
+            assertThrows(IOException.class, () -> new CompileServer(socket));
+            assertEquals("keep", new String(Files.readAllBytes(socket)));
+            Files.delete(socket);
+
+            // a socket a server still listens on is not taken over, one left behind is
+            CompileServer server = new CompileServer(socket);
+            try {
+                assertThrows(IOException.class, () -> new CompileServer(socket));
+            } finally {
+                server.close();
+            }
+            ServerSocketChannel stale = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            stale.bind(UnixDomainSocketAddress.of(socket));
+            stale.close();
+            assertTrue(Files.exists(socket));
+            new CompileServer(socket).close();
+            assertFalse(Files.exists(socket));
+        } finally {
+            Files.deleteIfExists(socket);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testBadLength() {
+        for (int length : new int[] {-1, CompileServer.MAX_MESSAGE + 1}) {
+            byte[] b = {(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length};
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+            assertThrows(IOException.class, () -> CompileServer.readMessage(in));
+        }
+    }
+}
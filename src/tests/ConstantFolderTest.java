@@ -0,0 +1,96 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the rewrites the ConstantFolder makes and the counts it reports.
+ */
+class ConstantFolderTest {
+
+    private static Parser.Node parse(String source) {
+        return new Parser(new Lexer(source).tokenize()).parse();
+    }
+
+    private static String ast(Parser.Node root) {
+        TextSink out = new TextSink();
+        Parser.appendAST(root, out);
+        return out.toString();
+    }
+
+    /**
+     * Folds the statements of a program and checks they come to the same
+     * AST as another program
+     */
+    private static ConstantFolder assertFolds(String expected, String source) {
+        ConstantFolder folder = new ConstantFolder();
+        assertEquals(ast(new ConstantFolder().fold(parse(expected))), ast(folder.fold(parse(source))), source);
+        return folder;
+    }
+
+    @Test
+    public void testArithmetic() {
+        ConstantFolder f = assertFolds("x = 14; y = -3; z = 1; w = -1;", "x = 2 + 3 * 4; y = -(7 / 2); z = 7 % 3 < 2; w = -7 % 3;");
+        assertEquals(14, f.removed(ConstantFolder.Rule.FOLD));
+        assertFolds("x = -2147483647 - 1; y = 0;", "x = 2147483647 + 1; y = (1 > 2) || 0 && 1 / 0;");
+        // division by zero is left for the program to fail on when it runs
+        assertFolds("x = 1 / 0;", "x = 1 / 0;");
+        assertFolds("x = a % 0;", "x = a % (3 - 3);");
+    }
+
+    @Test
+    public void testIdentities() {
+        ConstantFolder f = assertFolds("x = a; y = b; z = c; w = d; v = -e;", "x = a * 1; y = 0 + b; z = c - (2 - 2); w = --d / 1; v = -(-(-e));");
+        assertEquals(8, f.removed(ConstantFolder.Rule.IDENTITY));
+        assertEquals(4, f.removed(ConstantFolder.Rule.DOUBLE_NEGATION));
+        // !!x is only x where just its truth matters
+        assertFolds("x = !!a; if (a) putc(b);", "x = !!a; if (!!a) putc(b);");
+        assertFolds("x = !a && b;", "x = !!!a && !!b;");
+    }
+
+    @Test
+    public void testDeadBranches() {
+        ConstantFolder f = assertFolds("a = 1; c = 3; d = 4;",
+                "if (1 < 2) a = 1; else b = 2; while (0) { x = x + 1; } if (!1) b = 2; else { c = 3; } if (0) e = 5; d = 4;");
+        assertEquals(0, f.removed(ConstantFolder.Rule.IDENTITY));
+        assertTrue(f.removed(ConstantFolder.Rule.DEAD_BRANCH) > 10);
+        assertTrue(f.removed(ConstantFolder.Rule.EMPTY_STATEMENT) > 0);
+        assertTrue(f.report().startsWith("constant folding  "));
+        // a loop that never ends is kept
+        assertFolds("while (1) putc(65);", "while (2 > 1) putc(65);");
+        assertNull(new ConstantFolder().fold(parse("if (0) x = 1;")));
+    }
+
+    @Test
+    public void testTreeUnchanged() throws Exception {
+        for (String name : new String[] {"fizzbuzz.c", "99bottles.c", "count.c", "prime.c", "testFile1.c"}) {
+            String source = new String(Files.readAllBytes(Paths.get("src/main/resources", name)));
+            Parser.Node tree = parse(source);
+            String before = ast(tree);
+            ConstantFolder folder = new ConstantFolder();
+            Parser.Node folded = folder.fold(tree);
+            assertEquals(before, ast(tree), name);
+            assertEquals(ConstantFolder.size(tree) - ConstantFolder.size(folded),
+                    folder.report().lines().filter(l -> l.startsWith("total")).mapToInt(l -> Integer.parseInt(l.substring(5).trim())).sum(), name);
+        }
+    }
+
+    @Test
+    public void testDeepTree() {
+        StringBuilder source = new StringBuilder("x = ");
+        for (int i = 0; i < 50000; i++) {
+            source.append("1 + ");
+        }
+        source.append("0;");
+        for (int i = 0; i < 50000; i++) {
+            source.append("\ny = y * 1;");
+        }
+        Parser.Node folded = new ConstantFolder().fold(parse(source.toString()));
+        String par = ast(folded);
+        assertTrue(par.startsWith("Sequence\n"));
+        assertTrue(par.contains("Assign\nIdentifier x\nInteger 50000\n"));
+        assertEquals(50000, par.split("Identifier y\nIdentifier y\n", -1).length - 1);
+    }
+}
@@ -0,0 +1,116 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that every back end prints what the Interpreter prints for the
+ * sample programs and the corners of the language. The tests of each back
+ * end use its helpers for the checks only that back end needs.
+ */
+class DifferentialTest {
+    static final String[] SAMPLES = {"fizzbuzz.c", "99bottles.c", "count.c", "prime.c", "testFile1.c"};
+
+    // each back end, running a program and printing to a sink
+    private static final Map<String, BiConsumer<Parser.Node, TextSink>> BACK_ENDS = new LinkedHashMap<>();
+    static {
+        BACK_ENDS.put("vm", (tree, out) -> new VirtualMachine(CodeGenerator.generate(tree)).run(out));
+        BACK_ENDS.put("jvm", (tree, out) -> new JvmCompiler(tree).run(out));
+        BACK_ENDS.put("ssa", (tree, out) -> new VirtualMachine(Ssa.build(tree).lower()).run(out));
+        BACK_ENDS.put("optimized", (tree, out) -> new VirtualMachine(new SsaOptimizer().optimize(Ssa.build(tree)).lower()).run(out));
+    }
+
+    static Parser.Node parse(String source) {
+        return new Parser(new Lexer(source).tokenize()).parse();
+    }
+
+    static String sample(String name) throws Exception {
+        return new String(Files.readAllBytes(Paths.get("src/main/resources", name)));
+    }
+
+    static String interpret(String source) {
+        TextSink out = new TextSink();
+        new Interpreter(parse(source)).run(out);
+        return out.toString();
+    }
+
+    /**
+     * Runs a program on one back end
+     * @param backEnd   Name of the back end
+     * @param source    Source of the program
+     * @return          What it prints
+     */
+    static String run(String backEnd, String source) {
+        TextSink out = new TextSink();
+        BACK_ENDS.get(backEnd).accept(parse(source), out);
+        return out.toString();
+    }
+
+    @Test
+    public void testSamples() throws Exception {
+        for (String name : SAMPLES) {
+            String source = sample(name);
+            String expected = interpret(source);
+            for (String backEnd : BACK_ENDS.keySet()) {
+                assertEquals(expected, run(backEnd, source), backEnd + " " + name);
+            }
+        }
+        for (String backEnd : BACK_ENDS.keySet()) {
+            assertEquals("", run(backEnd, ""), backEnd);
+        }
+    }
+
+    @Test
+    public void testOperators() {
+        String source = "a = -7; b = 2; print(a / b, \" \", a % b, \" \", -a % b, \" \", 2147483646 + 1, \" \", 2147483647 + 1, \" \","
+                + " a < b, \" \", a >= b, \" \", !0, \" \", !b, \" \", a != b, \" \", 3 == 3, \"\\n\");"
+                + " putc(65); putc('\\\\'); z = 0; print(z && 1 / z, \" \", 1 || 1 / z, \" \", 2 && 3, \" \", z || z);"
+                + " print(\" \", !(a < b) || !z, -(!a), \" \", 100000, \" \", 70000 * 3, !1, 1 && (a || 0));"
+                + " if (a <= b) if (a > b) putc(1); else putc(66); if (b == 2) putc(67); while (b) b = b - 1;"
+                + " while (b != 0) b = b - 1; if (0) putc(68); print(b);";
+        String expected = "-3 -1 1 2147483647 -2147483648 1 0 1 0 1 1\nA\\0 1 1 0 10 100000 21000001BC0";
+        assertEquals(expected, interpret(source));
+        for (String backEnd : BACK_ENDS.keySet()) {
+            assertEquals(expected, run(backEnd, source), backEnd);
+            // what was printed before it is still printed
+            TextSink out = new TextSink();
+            CompileError e = assertThrows(CompileError.class,
+                    () -> BACK_ENDS.get(backEnd).accept(parse("z = 0; print(\"x\"); x = 1 % z;"), out));
+            assertEquals("Division by zero", e.getMessage());
+            assertEquals("x", out.toString());
+        }
+    }
+
+    @Test
+    public void testIntegerRange() {
+        // a literal too big for an int is an error, not wrapped around
+        assertEquals("2147483647", interpret("print(2147483647);"));
+        for (String source : new String[] {"print(2147483648);", "x = -2147483648;", "x = 99999999999999999999;"}) {
+            String literal = source.replaceAll("[^0-9]", "");
+            CompileError e = assertThrows(CompileError.class, () -> interpret(source));
+            assertEquals("Integer too big: " + literal, e.getMessage());
+            for (String backEnd : BACK_ENDS.keySet()) {
+                e = assertThrows(CompileError.class, () -> run(backEnd, source));
+                assertEquals("Integer too big: " + literal, e.getMessage(), backEnd);
+            }
+        }
+    }
+
+    @Test
+    public void testMissingOperand() {
+        // a compile error before any back end is given a tree with a hole in it
+        for (String source : new String[] {"x = ;", "while () x = 1;", "print(-);", "if (1 < ) putc(65);"}) {
+            CompileError e = assertThrows(CompileError.class, () -> interpret(source));
+            assertTrue(e.getMessage().startsWith("Expecting a primary"), source);
+            for (String backEnd : BACK_ENDS.keySet()) {
+                e = assertThrows(CompileError.class, () -> run(backEnd, source));
+                assertTrue(e.getMessage().startsWith("Expecting a primary"), backEnd + " " + source);
+            }
+        }
+    }
+}
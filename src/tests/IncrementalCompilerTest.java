@@ -0,0 +1,100 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the IncrementalCompiler ends up with the same tokens and AST
+ * after each edit as lexing and parsing the whole edited source does.
+ */
+class IncrementalCompilerTest {
+
+    private static String tokens(TokenBuffer tokens) {
+        TextSink out = new TextSink();
+        for (int i = 0; i < tokens.size(); i++) {
+            out.token(tokens, i).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static String ast(Parser.Node root) {
+        TextSink out = new TextSink();
+        Parser.appendAST(root, out);
+        return out.toString();
+    }
+
+    /**
+     * Applies an edit and checks the result against a full run
+     * @param ic        Compiler to edit
+     * @param offset    Offset of the edit
+     * @param removed   Number of chars removed
+     * @param inserted  Text inserted
+     */
+    private static void edit(IncrementalCompiler ic, int offset, int removed, String inserted) {
+        String text = ic.text();
+        String expected = text.substring(0, offset) + inserted + text.substring(offset + removed);
+        ic.edit(offset, removed, inserted);
+        assertEquals(expected, ic.text());
+        TokenBuffer full = new Lexer(" " + expected).tokenize();
+        assertEquals(tokens(full), tokens(ic.tokens()));
+        assertEquals(ast(new Parser(full).parse()), ast(ic.tree()));
+    }
+
+    @Test
+    public void testEditsInsideBlock() {
+        IncrementalCompiler ic = new IncrementalCompiler("x = 1;\nwhile (x) {\n  y = x;\n  x = x - 1;\n}\nprint(y);\n");
+        Parser.Node tree = ic.tree();
+        int at = ic.text().indexOf("y = x");
+        edit(ic, at + 4, 1, "x * 2");
+        edit(ic, at, 0, "z = 3;\n  ");
+        // the block was parsed again on its own and the tree around it kept
+        assertSame(tree, ic.tree());
+        assertTrue(ic.reparsed() < ic.tokens().size());
+        assertTrue(ic.relexed() < 10);
+    }
+
+    @Test
+    public void testEditsAtTopLevel() {
+        IncrementalCompiler ic = new IncrementalCompiler("a = 1;\nb = 2;\nc = 3;\n");
+        edit(ic, 0, 0, "putc(65);\n");
+        edit(ic, ic.text().indexOf("b = 2"), 7, "");
+        edit(ic, ic.text().length(), 0, "if (a) { b = a; } else print(\"no\");\n");
+        edit(ic, ic.text().indexOf("c = 3"), 5, "c = -c");
+    }
+
+    @Test
+    public void testCommentAndString() {
+        IncrementalCompiler ic = new IncrementalCompiler("x = 1; /* note */ y = 2;\nprint(\"a;b\");\n");
+        edit(ic, ic.text().indexOf("note"), 0, "*/ z = 5; /* ");
+        edit(ic, ic.text().indexOf("a;b") + 1, 1, "");
+    }
+
+    @Test
+    public void testErrorThenUndo() {
+        String source = "while (i < 10) {\n  i = i + 1;\n}\n";
+        IncrementalCompiler ic = new IncrementalCompiler(source);
+        int at = source.indexOf('}');
+        CompileError e = assertThrows(CompileError.class, () -> ic.edit(at, 1, ""));
+        CompileError full = assertThrows(CompileError.class,
+                () -> new Parser(new Lexer(" " + ic.text()).tokenize()).parse());
+        assertEquals(full.getMessage(), e.getMessage());
+        edit(ic, at, 0, "}");
+        assertEquals(source, ic.text());
+        CompileError u = assertThrows(CompileError.class, () -> ic.edit(at, 0, "#"));
+        assertTrue(u.getMessage().startsWith("Unrecognized character"));
+        edit(ic, at, 1, "");
+    }
+
+    @Test
+    public void testSampleEdits() throws Exception {
+        for (String name : new String[] {"fizzbuzz.c", "99bottles.c", "count.c", "prime.c", "testFile1.c"}) {
+            String source = new String(Files.readAllBytes(Paths.get("src/main/resources", name)));
+            IncrementalCompiler ic = new IncrementalCompiler(source);
+            for (int at = source.indexOf('{'); at >= 0; at = ic.text().indexOf('{', at + 10)) {
+                edit(ic, at + 1, 0, " q = 7;");
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the Interpreter runs the sample programs and the corners of
+ * the language the way C would.
+ */
+class InterpreterTest {
+
+    private static Parser.Node parse(String source) {
+        return new Parser(new Lexer(source).tokenize()).parse();
+    }
+
+    private static String run(String source) {
+        TextSink out = new TextSink();
+        new Interpreter(parse(source)).run(out);
+        return out.toString();
+    }
+
+    private static String runFile(String name) throws Exception {
+        return run(new String(Files.readAllBytes(Paths.get("src/main/resources", name))));
+    }
+
+    @Test
+    public void testSamples() throws Exception {
+        StringBuilder fizzbuzz = new StringBuilder();
+        for (int i = 1; i <= 100; i++) {
+            fizzbuzz.append(i % 15 == 0 ? "FizzBuzz" : i % 3 == 0 ? "Fizz" : i % 5 == 0 ? "Buzz" : Integer.toString(i)).append('\n');
+        }
+        assertEquals(fizzbuzz.toString(), runFile("fizzbuzz.c"));
+
+        StringBuilder count = new StringBuilder();
+        for (int i = 1; i < 10; i++) {
+            count.append("count is: ").append(i).append('\n');
+        }
+        assertEquals(count.toString(), runFile("count.c"));
+
+        String prime = runFile("prime.c");
+        assertTrue(prime.startsWith("3 is prime\n5 is prime\n7 is prime\n11 is prime\n"));
+        assertTrue(prime.endsWith("101 is prime\nTotal primes found: 24\n92"));
+
+        String bottles = runFile("99bottles.c");
+        assertTrue(bottles.startsWith("99 bottles of beer on the wall\n99 bottles of beer\nTake one down, pass it around\n"));
+        assertTrue(bottles.endsWith("0 bottles of beer on the wall\n\n"));
+        assertEquals("Number is positive\n", runFile("testFile1.c"));
+    }
+
+    @Test
+    public void testOperators() {
+        assertEquals("-3 -1 1 2147483647 -2147483648 1 0 1 0 1 1\n",
+                run("a = -7; b = 2; print(a / b, \" \", a % b, \" \", -a % b, \" \", 2147483646 + 1, \" \", 2147483647 + 1, \" \","
+                        + " a < b, \" \", a >= b, \" \", !0, \" \", !b, \" \", a != b, \" \", 3 == 3, \"\\n\");"));
+        assertEquals("AB\\", run("putc(65); putc('B'); putc('\\\\');"));
+        // the right side of && and || is only worked out when it is needed
+        assertEquals("0 1 1 0", run("z = 0; print(z && 1 / z, \" \", 1 || 1 / z, \" \", 2 && 3, \" \", z || z);"));
+        CompileError e = assertThrows(CompileError.class, () -> run("z = 0; x = 1 / z;"));
+        assertEquals("Division by zero", e.getMessage());
+    }
+
+    @Test
+    public void testVariables() {
+        Interpreter in = new Interpreter(parse("i = 0; s = 0; while (i < 1000) { if (i % 3 == 0 || i % 5 == 0) s = s + i; i = i + 1; }"));
+        in.run(new TextSink());
+        assertEquals(233168, in.value("s"));
+        assertEquals(1000, in.value("i"));
+        assertEquals(0, in.value("never"));
+        // every run starts again from 0
+        in.run(new TextSink());
+        assertEquals(233168, in.value("s"));
+    }
+
+    @Test
+    public void testFoldedSameOutput() throws Exception {
+        for (String name : new String[] {"fizzbuzz.c", "99bottles.c", "count.c", "prime.c", "testFile1.c"}) {
+            String source = new String(Files.readAllBytes(Paths.get("src/main/resources", name)));
+            TextSink out = new TextSink();
+            new Interpreter(new ConstantFolder().fold(parse(source))).run(out);
+            assertEquals(run(source), out.toString(), name);
+        }
+        assertEquals("", run(""));
+    }
+
+    @Test
+    public void testDeepProgram() throws InterruptedException {
+        StringBuilder source = new StringBuilder("x = 0;");
+        int depth = 20000;
+        for (int i = 0; i < depth; i++) {
+            source.append("while (x < ").append(i + 1).append(") { ");
+        }
+        source.append("x = x + (1 + (0 * (2 - (3 + 4))));");
+        for (int i = 0; i < depth; i++) {
+            source.append(" }");
+        }
+        source.append(" print(x);");
+        String[] result = new String[1];
+        Thread t = new Thread(null, () -> result[0] = run(source.toString()), "run", 256 * 1024);
+        t.start();
+        t.join();
+        assertEquals(Integer.toString(depth), result[0]);
+    }
+}
@@ -0,0 +1,67 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the JvmCompiler on what only it has to get right: locals past the
+ * short forms, the size limit of one method and deep programs. What its
+ * programs print is checked by DifferentialTest.
+ */
+class JvmCompilerTest {
+
+    private static Parser.Node parse(String source) {
+        return DifferentialTest.parse(source);
+    }
+
+    private static String run(String source) {
+        return DifferentialTest.run("jvm", source);
+    }
+
+    @Test
+    public void testVariables() {
+        JvmCompiler program = new JvmCompiler(parse("i = 0; s = 0; while (i < 1000) { if (i % 3 == 0 || i % 5 == 0) s = s + i; i = i + 1; }"));
+        assertEquals(0, program.value("s"));
+        program.run(new TextSink());
+        assertEquals(233168, program.value("s"));
+        assertEquals(1000, program.value("i"));
+        assertEquals(0, program.value("never"));
+
+        // more locals than the short forms of iload and istore reach
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            source.append("v").append(i).append(" = ").append(i * 1000).append(";");
+        }
+        source.append("print(v3 + v299);");
+        assertEquals("302000", run(source.toString()));
+    }
+
+    @Test
+    public void testTooBig() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            source.append("x = x + ").append(i).append(";");
+        }
+        CompileError e = assertThrows(CompileError.class, () -> JvmCompiler.compile(parse("while (1) { " + source + " }")));
+        assertEquals("Program too big to compile to one JVM method", e.getMessage());
+    }
+
+    @Test
+    public void testDeepProgram() throws InterruptedException {
+        StringBuilder source = new StringBuilder("x = 0;");
+        int depth = 2000;
+        for (int i = 0; i < depth; i++) {
+            source.append("while (x < ").append(i + 1).append(") { ");
+        }
+        source.append("x = x + (1 + (0 * (2 - (3 + 4))));");
+        for (int i = 0; i < depth; i++) {
+            source.append(" }");
+        }
+        source.append(" print(x);");
+        byte[][] result = new byte[1][];
+        Thread t = new Thread(null, () -> result[0] = JvmCompiler.compile(parse(source.toString())), "compile", 256 * 1024);
+        t.start();
+        t.join();
+        assertNotNull(result[0]);
+        assertEquals(Integer.toString(depth), run(source.toString()));
+    }
+}
@@ -0,0 +1,57 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that ParallelLexer gives the same tokens as a single Lexer. The
+ * chunks are made tiny so the source is cut at every newline it can be.
+ */
+class ParallelLexerTest {
+
+    private static void assertSameTokens(TokenBuffer expected, TokenBuffer actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).toString(), actual.get(i).toString());
+        }
+    }
+
+    @Test
+    public void testSampleFiles() throws IOException {
+        String[] files = {"prime.c", "fizzbuzz.c", "99bottles.c", "count.c", "testFile1.c", "testFile2.c", "hello.t"};
+        for (String f : files) {
+            String name = "src/main/resources/" + f;
+            String source = " " + new String(Files.readAllBytes(Paths.get(name)));
+            for (boolean table : new boolean[] {false, true}) {
+                TokenBuffer expected;
+                try (Lexer lexer = Lexer.open(name, table)) {
+                    expected = lexer.tokenize();
+                }
+                assertSameTokens(expected, ParallelLexer.tokenize(source.toCharArray(), true, table, 1));
+                assertSameTokens(expected, ParallelLexer.tokenize(source.toCharArray(), true, table, 16));
+            }
+        }
+    }
+
+    @Test
+    public void testSeams() {
+        String[] sources = {
+            "x\n-1\n",
+            "x = 1\n- 2;\ny = (\n-3);\n",
+            "a\n/* comment\n */\n-b\n",
+            "print(\"one\ntwo\n\", '\\n');\n&&\n||\n&\n\nx\n",
+            "/** a\n*/ b\n/*/ c\n*/\n",
+            "\n\n   \n",
+            "x;\n// last line",
+            "x;\n'a'\n-1\n",
+        };
+        for (String src : sources) {
+            for (boolean table : new boolean[] {false, true}) {
+                assertSameTokens(new Lexer(src).tokenize(), ParallelLexer.tokenize(src.toCharArray(), false, table, 1));
+            }
+        }
+    }
+}
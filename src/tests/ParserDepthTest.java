@@ -0,0 +1,78 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the Parser and the AST walkers handle long and deeply nested
+ * programs without running out of thread stack.
+ */
+class ParserDepthTest {
+
+    /**
+     * Parses and prints a program on a thread with a small stack
+     * @param source    Program to parse
+     * @return          AST in the .par text format
+     */
+    private static String parseOnSmallStack(String source) throws InterruptedException {
+        String[] result = new String[1];
+        Throwable[] failure = new Throwable[1];
+        Thread t = new Thread(null, () -> {
+            try {
+                TextSink out = new TextSink();
+                Parser.appendAST(new Parser(new Lexer(source).tokenize()).parse(), out);
+                result[0] = out.toString();
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        }, "parse", 256 * 1024);
+        t.start();
+        t.join();
+        assertNull(failure[0]);
+        return result[0];
+    }
+
+    @Test
+    public void testLongProgram() throws InterruptedException {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            source.append("count = count + 1;\n");
+        }
+        String par = parseOnSmallStack(source.toString());
+        assertTrue(par.startsWith("Sequence\nSequence\n"));
+        assertTrue(par.endsWith("Assign\nIdentifier count\nAdd\nIdentifier count\nInteger 1\n"));
+    }
+
+    @Test
+    public void testDeepNesting() throws InterruptedException {
+        int depth = 50000;
+        StringBuilder source = new StringBuilder("x = ");
+        for (int i = 0; i < depth; i++) {
+            source.append("(-");
+        }
+        source.append('1');
+        for (int i = 0; i < depth; i++) {
+            source.append(')');
+        }
+        source.append(";\n");
+        for (int i = 0; i < depth; i++) {
+            source.append("while (x) { if (x) ");
+        }
+        source.append("putc(x);");
+        for (int i = 0; i < depth; i++) {
+            source.append(" else ; }");
+        }
+        String par = parseOnSmallStack(source.toString());
+        assertEquals(depth, par.split("Negate\n", -1).length - 1);
+        assertEquals(depth, par.split("While\n", -1).length - 1);
+        assertTrue(par.contains("Prtc\nIdentifier x\n;\n"));
+    }
+
+    @Test
+    public void testSameTreeAsBefore() throws InterruptedException {
+        String par = parseOnSmallStack("if (a < 1 || !b) { x = -(1 + 2) * 3; } else while (c) { print(\"s\", a); }");
+        assertEquals("Sequence\n;\nIf\nOr\nLess\nIdentifier a\nInteger 1\nNot\nIdentifier b\n;\n"
+                + "If\nSequence\n;\nAssign\nIdentifier x\nMultiply\nNegate\nAdd\nInteger 1\nInteger 2\n;\nInteger 3\n"
+                + "While\nIdentifier c\nSequence\n;\nSequence\nSequence\n;\nPrts\nString \"s\"\n;\nPrti\nIdentifier a\n;\n",
+                par);
+    }
+}
@@ -0,0 +1,90 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that a recovering Parser reports every syntax error in one parse
+ * and still builds the statements around them.
+ */
+class ParserRecoveryTest {
+
+    private static Parser recovering(String source) {
+        Parser p = new Parser(new Lexer(source).tokenize());
+        p.recoverErrors();
+        return p;
+    }
+
+    private static String ast(Parser.Node root) {
+        TextSink out = new TextSink();
+        Parser.appendAST(root, out);
+        return out.toString();
+    }
+
+    @Test
+    public void testEveryError() {
+        Parser p = recovering("x = 1;\nprint(\"a\" 3);\nwhile (x) { x = x - 1 }\nz = 2;\n");
+        String par = ast(p.parse());
+        List<Diagnostic> errors = p.diagnostics();
+        assertEquals(2, errors.size());
+        assertEquals(2, errors.get(0).line);
+        assertEquals(11, errors.get(0).pos);
+        assertEquals("Print: Expecting 'RightParen', found: 'Integer'", errors.get(0).message);
+        assertEquals("assign: Expecting 'Semicolon', found: 'RightBrace' in line 3, pos 23", errors.get(1).toString());
+        // the block is closed by its RightBrace and the statement after it is kept
+        assertTrue(par.contains("While\nIdentifier x\nSequence\n;\n;\n"));
+        assertTrue(par.endsWith("Assign\nIdentifier z\nInteger 2\n"));
+
+        CompileError e = assertThrows(CompileError.class, p::throwErrors);
+        assertEquals(errors, e.diagnostics());
+        assertEquals(errors.get(0) + "\n" + errors.get(1), e.getMessage());
+    }
+
+    @Test
+    public void testSynchronize() {
+        Parser p = recovering("x = (1 + ;\ny = 2;\nif (x) else q = 1; } r = 3;\n{ s = 4;");
+        String par = ast(p.parse());
+        assertEquals(4, p.diagnostics().size());
+        assertEquals("Expecting start of statement, found: Keyword_else", p.diagnostics().get(1).message);
+        assertEquals("Expecting start of statement, found: RightBrace", p.diagnostics().get(2).message);
+        assertEquals("LBrace: Expecting 'RightBrace', found: 'End_of_input'", p.diagnostics().get(3).message);
+        for (String name : new String[] {"y", "r", "s"}) {
+            assertTrue(par.contains("Assign\nIdentifier " + name + "\n"), name);
+        }
+    }
+
+    @Test
+    public void testMissingOperand() {
+        Parser p = recovering("x = ;\nwhile () x = 1;\nprint(1 + );\ny = 2;\n");
+        String par = ast(p.parse());
+        assertEquals(3, p.diagnostics().size());
+        assertEquals("Expecting a primary, found: Semicolon", p.diagnostics().get(0).message);
+        assertEquals("Expecting a primary, found: RightParen in line 2, pos 8", p.diagnostics().get(1).toString());
+        assertEquals("Expecting a primary, found: RightParen", p.diagnostics().get(2).message);
+        assertTrue(par.endsWith("Assign\nIdentifier y\nInteger 2\n"));
+    }
+
+    @Test
+    public void testFirstErrorWithoutRecovery() {
+        Parser p = new Parser(new Lexer("x = 1;\ny 2;\nz = ;\n").tokenize());
+        CompileError e = assertThrows(CompileError.class, p::parse);
+        assertEquals("assign: Expecting 'Op_assign', found: 'Integer' in line 2, pos 3", e.getMessage());
+        assertEquals(1, e.diagnostics().size());
+        assertEquals(2, e.diagnostics().get(0).line);
+        assertNull(p.diagnostics());
+    }
+
+    @Test
+    public void testSameTreeWithoutErrors() throws Exception {
+        for (String name : new String[] {"fizzbuzz.c", "99bottles.c", "count.c", "prime.c", "testFile1.c"}) {
+            String source = new String(Files.readAllBytes(Paths.get("src/main/resources", name)));
+            Parser p = recovering(source);
+            assertEquals(ast(new Parser(new Lexer(source).tokenize()).parse()), ast(p.parse()), name);
+            assertTrue(p.diagnostics().isEmpty(), name);
+            p.throwErrors();
+        }
+    }
+}
@@ -16,8 +16,8 @@ class ParserTest {
         File ogFile = new File("src/main/resources/isPrime.lex");
         Scanner s = new Scanner(ogFile);
         String lexOut = " ";
-        Map<String, Parser.TokenType> tokenMap = Parser.createHashMap();
-        List<Parser.Token> tokenList = new ArrayList<>();
+        Map<String, TokenType> tokenMap = Parser.createHashMap();
+        List<Token> tokenList = new ArrayList<>();
         StringBuilder sb = new StringBuilder();
         Main.updateTokenList(tokenList, tokenMap, s);
         Parser testParser = new Parser(tokenList);
@@ -48,16 +48,16 @@ class ParserTest {
 
     @Test
     public void testPrecedence(){
-        List<Parser.Token>list = new ArrayList<>();
-        list.add(new Parser.Token(Parser.TokenType.Identifier,"Count",1,1));
-        list.add(new Parser.Token(Parser.TokenType.Op_assign,"=",1,2));
-        list.add(new Parser.Token(Parser.TokenType.Integer,"3",1,3));
-        list.add(new Parser.Token(Parser.TokenType.Op_multiply,"*",1,4));
-        list.add(new Parser.Token(Parser.TokenType.Integer,"4",1,5));
-        list.add(new Parser.Token(Parser.TokenType.Op_add,"+",1,6));
-        list.add(new Parser.Token(Parser.TokenType.Integer,"6",1,7));
-        list.add(new Parser.Token(Parser.TokenType.Semicolon,";",1,8));
-        list.add(new Parser.Token(Parser.TokenType.End_of_input," ",1,9));
+        List<Token>list = new ArrayList<>();
+        list.add(new Token(TokenType.Identifier,"Count",1,1));
+        list.add(new Token(TokenType.Op_assign,"=",1,2));
+        list.add(new Token(TokenType.Integer,"3",1,3));
+        list.add(new Token(TokenType.Op_multiply,"*",1,4));
+        list.add(new Token(TokenType.Integer,"4",1,5));
+        list.add(new Token(TokenType.Op_add,"+",1,6));
+        list.add(new Token(TokenType.Integer,"6",1,7));
+        list.add(new Token(TokenType.Semicolon,";",1,8));
+        list.add(new Token(TokenType.End_of_input," ",1,9));
         Parser testParser = new Parser(list);
         Parser.Node root = testParser.parse();
         StringBuilder stringBuild = new StringBuilder();
@@ -78,19 +78,19 @@ class ParserTest {
 
     @Test
     public void testIf() {
-        List<Parser.Token>list=new ArrayList<>();
-        list.add(new Parser.Token(Parser.TokenType.Keyword_if,"Count",1,1));
-        list.add(new Parser.Token(Parser.TokenType.LeftParen,"",1,2));
-        list.add(new Parser.Token(Parser.TokenType.Identifier,"n",1,3));
-        list.add(new Parser.Token(Parser.TokenType.RightParen,"",1,4));
-        list.add(new Parser.Token(Parser.TokenType.Keyword_print,"",1,5));
-        list.add(new Parser.Token(Parser.TokenType.LeftParen,"",1,6));
-        list.add(new Parser.Token(Parser.TokenType.Identifier,"n",1,7));
-        list.add(new Parser.Token(Parser.TokenType.Comma," " ,1,8));
-        list.add(new Parser.Token(Parser.TokenType.String,"is a prime\n ",1,9));
-        list.add(new Parser.Token(Parser.TokenType.RightParen, "", 1, 10));
-        list.add(new Parser.Token(Parser.TokenType.Semicolon, ";", 1, 11));
-        list.add(new Parser.Token(Parser.TokenType.End_of_input, "", 1, 12));
+        List<Token>list=new ArrayList<>();
+        list.add(new Token(TokenType.Keyword_if,"Count",1,1));
+        list.add(new Token(TokenType.LeftParen,"",1,2));
+        list.add(new Token(TokenType.Identifier,"n",1,3));
+        list.add(new Token(TokenType.RightParen,"",1,4));
+        list.add(new Token(TokenType.Keyword_print,"",1,5));
+        list.add(new Token(TokenType.LeftParen,"",1,6));
+        list.add(new Token(TokenType.Identifier,"n",1,7));
+        list.add(new Token(TokenType.Comma," " ,1,8));
+        list.add(new Token(TokenType.String,"is a prime\n ",1,9));
+        list.add(new Token(TokenType.RightParen, "", 1, 10));
+        list.add(new Token(TokenType.Semicolon, ";", 1, 11));
+        list.add(new Token(TokenType.End_of_input, "", 1, 12));
         StringBuilder testStrBld = new StringBuilder();
         testStrBld.append("Sequence\n");
         testStrBld.append(";\n");
@@ -104,8 +104,8 @@ class ParserTest {
         testStrBld.append("Identifier n\n");
         testStrBld.append(";\n");
         testStrBld.append("Prts\n");
-        testStrBld.append("String is a prime\n");
-        testStrBld.append(" \n");
+        testStrBld.append("String \"is a prime\n");
+        testStrBld.append(" \"\n");
         testStrBld.append(";\n");
         testStrBld.append(";\n");
         Parser testParser = new Parser(list);
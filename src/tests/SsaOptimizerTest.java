@@ -0,0 +1,107 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks what each pass of the SsaOptimizer does to a program, and that a
+ * division that may fail is kept in its place. DifferentialTest checks that
+ * optimized programs still print what the Interpreter prints for them.
+ */
+class SsaOptimizerTest {
+
+    private static final String INVARIANT = "m = 0; while (m < 100) m = m + 1; i = 0; s = 0;"
+            + " while (i < 10) { c = m * m; s = s + c; i = i + 1; } print(s);";
+
+    private static Parser.Node parse(String source) {
+        return DifferentialTest.parse(source);
+    }
+
+    private static String interpret(String source) {
+        return DifferentialTest.interpret(source);
+    }
+
+    private static String run(Ssa program) {
+        TextSink out = new TextSink();
+        new VirtualMachine(program.lower()).run(out);
+        return out.toString();
+    }
+
+    @Test
+    public void testPasses() {
+        SsaOptimizer optimizer = new SsaOptimizer();
+        String source = "n = 0; while (n < 3) n = n + 1; x = 2 * 3; y = x; a = n + y; c = y + n;"
+                + " if (x > 5) print(a, c); else print(0); d = a / 1;";
+        Ssa program = Ssa.build(parse(source));
+        optimizer.optimize(program);
+        assertEquals("pass                    instructions      in loops\n"
+                + "copy propagation          13 ->    11       3 ->     3\n"
+                + "constant propagation      11 ->     8       3 ->     3\n"
+                + "common subexpressions      8 ->     7       3 ->     3\n"
+                + "loop-invariant motion      7 ->     7       3 ->     3\n"
+                + "dead code                  7 ->     6       3 ->     3\n", optimizer.report());
+        assertEquals(11, optimizer.after(SsaOptimizer.Pass.COPY_PROPAGATION));
+        assertEquals(13, optimizer.before(SsaOptimizer.Pass.COPY_PROPAGATION));
+        // the branch on 6 > 5 is gone with its else block, n + 6 is worked out once and no one uses the division
+        TextSink out = new TextSink();
+        program.print(out);
+        assertFalse(out.toString().contains("prti 0"));
+        assertFalse(out.toString().contains("div"));
+        assertEquals(1, out.toString().split("add n.2 6", -1).length - 1);
+        assertEquals(interpret(source), run(program));
+        assertEquals(6, SsaOptimizer.evaluate(Ssa.Op.MUL, 2, 3));
+        assertEquals(-3, SsaOptimizer.evaluate(Ssa.Op.DIV, -7, 2));
+        assertEquals(1, SsaOptimizer.evaluate(Ssa.Op.NE, -7, 2));
+    }
+
+    @Test
+    public void testInvariants() {
+        SsaOptimizer optimizer = new SsaOptimizer();
+        Ssa program = optimizer.optimize(Ssa.build(parse(INVARIANT)));
+        assertEquals(8, SsaOptimizer.inLoops(program));
+        assertEquals(interpret(INVARIANT), run(program));
+        assertEquals("pass                    instructions      in loops\n"
+                + "copy propagation          14 ->    11      10 ->    10\n"
+                + "constant propagation      11 ->    11      10 ->    10\n"
+                + "common subexpressions     11 ->    11      10 ->    10\n"
+                + "loop-invariant motion     11 ->    11      10 ->     9\n"
+                + "dead code                 11 ->    10       9 ->     8\n", optimizer.report());
+    }
+
+    @Test
+    public void testDivision() {
+        // a division by 0 is neither removed nor moved out of a loop that never runs
+        for (String source : new String[] {"z = 0; x = 1 / z; print(1);", "z = 0; print(1); x = 5 % z;"}) {
+            Ssa program = new SsaOptimizer().optimize(Ssa.build(parse(source)));
+            TextSink out = new TextSink();
+            CompileError e = assertThrows(CompileError.class, () -> new VirtualMachine(program.lower()).run(out));
+            assertEquals("Division by zero", e.getMessage());
+        }
+        String source = "z = 0; i = 0; while (i < 0) { x = 1 / z; i = i + 1; } print(i);";
+        assertEquals("0", run(new SsaOptimizer().optimize(Ssa.build(parse(source)))));
+        source = "z = 0; i = 0; n = 3; while (i < n) { print(i); x = 1 / z; i = i + 1; }";
+        Ssa program = new SsaOptimizer().optimize(Ssa.build(parse(source)));
+        TextSink out = new TextSink();
+        assertThrows(CompileError.class, () -> new VirtualMachine(program.lower()).run(out));
+        assertEquals("0", out.toString());
+    }
+
+    @Test
+    public void testDeepProgram() throws InterruptedException {
+        StringBuilder source = new StringBuilder("x = 0;");
+        int depth = 2000;
+        for (int i = 0; i < depth; i++) {
+            source.append("while (x < ").append(i + 1).append(") { ");
+        }
+        source.append("x = x + (1 + (0 * (2 - (3 + 4))));");
+        for (int i = 0; i < depth; i++) {
+            source.append(" }");
+        }
+        source.append(" print(x);");
+        String[] result = new String[1];
+        Thread t = new Thread(null, () -> result[0] = run(new SsaOptimizer().optimize(Ssa.build(parse(source.toString())))),
+                "run", 256 * 1024);
+        t.start();
+        t.join();
+        assertEquals(Integer.toString(depth), result[0]);
+    }
+}
@@ -0,0 +1,83 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the Ssa form built for programs and the code it is lowered to:
+ * the order of a division and a print, and the slots phis share. What the
+ * lowered programs print is checked by DifferentialTest.
+ */
+class SsaTest {
+
+    private static Parser.Node parse(String source) {
+        return DifferentialTest.parse(source);
+    }
+
+    private static String run(String source) {
+        return DifferentialTest.run("ssa", source);
+    }
+
+    @Test
+    public void testPrint() {
+        Ssa program = Ssa.build(parse("x = 1; y = x + 2; if (y < 5) x = y; else x = 0; print(x);"));
+        TextSink out = new TextSink();
+        program.print(out);
+        assertEquals("b0:\n"
+                + "    x.1 = copy 1\n"
+                + "    y.3 = add x.1 2\n"
+                + "    %5 = lt y.3 5\n"
+                + "    br %5 b1 b2\n"
+                + "b1:  <- b0\n"
+                + "    x.6 = copy y.3\n"
+                + "    jmp b3\n"
+                + "b2:  <- b0\n"
+                + "    x.8 = copy 0\n"
+                + "    jmp b3\n"
+                + "b3:  <- b1 b2\n"
+                + "    x.9 = phi x.6 x.8\n"
+                + "    prti x.9\n"
+                + "    halt\n", out.toString());
+        assertEquals(4, program.blockCount());
+        assertEquals(7, program.size());
+    }
+
+    @Test
+    public void testDivisionOrder() {
+        // the division is left on the stack for its use, but must still end the program before the print
+        TextSink out = new TextSink();
+        Bytecode code = Ssa.build(parse("z = 0; x = 1 / z; print(\"x\"); print(x);")).lower();
+        CompileError e = assertThrows(CompileError.class, () -> new VirtualMachine(code).run(out));
+        assertEquals("Division by zero", e.getMessage());
+        assertEquals("", out.toString());
+    }
+
+    @Test
+    public void testLoops() {
+        String source = "i = 0; s = 0; while (i < 1000) { if (i % 3 == 0 || i % 5 == 0) s = s + i; i = i + 1; } print(s);";
+        assertEquals("233168", run(source));
+        // the phis of i share a slot with the values that flow into them
+        Bytecode code = Ssa.build(parse("i = 0; while (i < 10) i = i + 1; print(i);")).lower();
+        assertEquals(1, code.variables.length);
+        // two phis whose values swap each time round need a slot each
+        assertEquals("21", run("a = 1; b = 2; i = 0; while (i < 3) { t = a; a = b; b = t; i = i + 1; } print(a, b);"));
+    }
+
+    @Test
+    public void testDeepProgram() throws InterruptedException {
+        StringBuilder source = new StringBuilder("x = 0;");
+        int depth = 2000;
+        for (int i = 0; i < depth; i++) {
+            source.append("while (x < ").append(i + 1).append(") { ");
+        }
+        source.append("x = x + (1 + (0 * (2 - (3 + 4))));");
+        for (int i = 0; i < depth; i++) {
+            source.append(" }");
+        }
+        source.append(" print(x);");
+        String[] result = new String[1];
+        Thread t = new Thread(null, () -> result[0] = run(source.toString()), "run", 256 * 1024);
+        t.start();
+        t.join();
+        assertEquals(Integer.toString(depth), result[0]);
+    }
+}
@@ -0,0 +1,103 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that identifiers get dense ids that AST leaves carry, and that
+ * variables get slots by them.
+ */
+class SymbolTableTest {
+
+    @Test
+    public void testInterning() {
+        SymbolTable symbols = new SymbolTable();
+        assertEquals(0, symbols.intern("count"));
+        assertEquals(1, symbols.intern("x"));
+        assertEquals(0, symbols.intern("a count".toCharArray(), 2, 5));
+        assertEquals(2, symbols.size());
+        assertEquals("count", symbols.name(0));
+        assertSame(symbols.name(1), symbols.name(1));
+        assertEquals(1, symbols.find("x"));
+        assertEquals(-1, symbols.find("y"));
+        assertEquals(2, symbols.size());
+
+        // past the first few rehashes every name keeps its id
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i + 2, symbols.intern("v" + i));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i + 2, symbols.find("v" + i));
+            assertEquals("v" + i, symbols.name(i + 2));
+        }
+    }
+
+    @Test
+    public void testLeaves() {
+        String source = "count = 1; while (count < 10) { print(count, \" \", total); total = total + count; count = count + 1; }";
+        Parser parser = new Parser(new Lexer(source).tokenize());
+        Parser.Node tree = parser.parse();
+        assertEquals(2, parser.symbols().size());
+        Parser.preorder(tree, n -> {
+            if (n != null && n.nt == Parser.NodeType.nd_Ident) {
+                assertEquals(parser.symbols().intern(n.value), n.id);
+            } else if (n != null) {
+                assertEquals(-1, n.id);
+            }
+        });
+        AstArena ast = parser.arena();
+        int leaf = ast.make_leaf(Parser.NodeType.nd_Ident, "total");
+        assertEquals(1, ast.symbol(leaf));
+        assertEquals(-1, ast.symbol(ast.make_leaf(Parser.NodeType.nd_Integer, "1")));
+    }
+
+    @Test
+    public void testSlots() {
+        // one arena for two programs: the ids go on from the first, the slots start again
+        AstArena ast = new AstArena();
+        new Parser(new Lexer("a = 1; b = 2;").tokenize(), ast).parseArena();
+        Parser second = new Parser(new Lexer("c = b; b = c + d;").tokenize(), ast);
+        Parser.Node tree = ast.toNode(second.parseArena());
+        assertEquals(4, ast.symbols().size());
+        SymbolTable.Slots slots = new SymbolTable.Slots();
+        Parser.preorder(tree, n -> {
+            if (n != null && n.nt == Parser.NodeType.nd_Ident) {
+                slots.slot(n);
+            }
+        });
+        assertArrayEquals(new String[] {"c", "b", "d"}, slots.names());
+        assertEquals(3, slots.size());
+
+        // the code generator numbers b first, as it fetches b before it stores c
+        Bytecode code = CodeGenerator.generate(tree);
+        assertArrayEquals(new String[] {"b", "c", "d"}, code.variables);
+        Interpreter program = new Interpreter(tree);
+        program.run(new TextSink());
+        assertEquals(0, program.value("b"));
+        assertEquals(0, program.value("a"));
+    }
+
+    @Test
+    public void testLeavesWithoutIds() {
+        // x = 7; print(x); made by hand, with no arena to give the leaves ids
+        Parser.Node assign = Parser.Node.make_node(Parser.NodeType.nd_Assign,
+                Parser.Node.make_leaf(Parser.NodeType.nd_Ident, "x"), Parser.Node.make_leaf(Parser.NodeType.nd_Integer, "7"));
+        Parser.Node print = Parser.Node.make_node(Parser.NodeType.nd_Prti, Parser.Node.make_leaf(Parser.NodeType.nd_Ident, "x"));
+        Parser.Node tree = Parser.Node.make_node(Parser.NodeType.nd_Sequence, assign, print);
+        assertEquals(-1, assign.left.id);
+
+        TextSink out = new TextSink();
+        new Interpreter(tree).run(out);
+        new VirtualMachine(CodeGenerator.generate(tree)).run(out);
+        new JvmCompiler(tree).run(out);
+        new VirtualMachine(Ssa.build(tree).lower()).run(out);
+        assertEquals("7777", out.toString());
+
+        // a hand-made leaf names the same variable as a parsed one
+        Parser.Node parsed = new Parser(new Lexer("x = 5;").tokenize()).parse();
+        SymbolTable.Slots slots = new SymbolTable.Slots();
+        assertEquals(0, slots.slot(parsed.right.left));
+        assertEquals(0, slots.slot(print.left));
+        assertEquals(1, slots.slot(Parser.Node.make_leaf(Parser.NodeType.nd_Ident, "y")));
+        assertArrayEquals(new String[] {"x", "y"}, slots.names());
+    }
+}
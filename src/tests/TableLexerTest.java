@@ -0,0 +1,87 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the table-driven TableLexer gives the same tokens as the Lexer.
+ */
+class TableLexerTest {
+
+    private static void assertSameTokens(Lexer expected, Lexer actual) {
+        Iterator<Token> a = expected.tokens();
+        Iterator<Token> b = actual.tokens();
+        while (a.hasNext()) {
+            assertTrue(b.hasNext());
+            assertEquals(a.next().toString(), b.next().toString());
+        }
+        assertFalse(b.hasNext());
+    }
+
+    @Test
+    public void testSampleFiles() throws IOException {
+        String[] files = {"prime.c", "fizzbuzz.c", "99bottles.c", "count.c", "testFile1.c", "testFile2.c", "hello.t"};
+        for (String f : files) {
+            String name = "src/main/resources/" + f;
+            try (Lexer expected = Lexer.open(name); Lexer actual = Lexer.open(name, true)) {
+                assertSameTokens(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testOperatorsAndLiterals() {
+        String[] sources = {
+            "a=b==c<=d>=e!=f<g>h!i",
+            "x = -1 - -y - 2-3;",
+            "if (a && b || !c) print(\"s t r\", 'a', '\\n', '\\\\');",
+            "while(i<10){i=i+1;}// trailing comment",
+            "/* block\n comment */ x = 12ab + 007 / 2 % 3 * 4;",
+            "putc(x); else whilex printy",
+        };
+        for (String src : sources) {
+            assertSameTokens(new Lexer(src), new TableLexer(src));
+        }
+    }
+
+    @Test
+    public void testUnrecognizedCharacter() {
+        // both lexers stop on it instead of giving an empty Identifier and never moving on
+        for (String src : new String[] {"#include", "x = 1;\n  y @ 2;"}) {
+            CompileError a = assertThrows(CompileError.class, () -> new Lexer(src).tokenize());
+            CompileError b = assertThrows(CompileError.class, () -> new TableLexer(src).tokenize());
+            assertEquals(a.getMessage(), b.getMessage());
+            assertTrue(a.getMessage().contains("Unrecognized character"));
+        }
+    }
+
+    @Test
+    public void testWindows() {
+        // tokens kept from earlier windows still have their values once the window is reused
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 3 * Lexer.WINDOW; i++) {
+            sb.append("count").append(i).append(" = ").append(i).append("; print(\"line ").append(i).append("\");\n");
+        }
+        // a string longer than a window makes it grow
+        sb.append("s = \"");
+        for (int i = 0; i < Lexer.WINDOW; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        sb.append("\"; last = 1;\n");
+        String src = sb.toString();
+        for (boolean table : new boolean[] {false, true}) {
+            Lexer streamed = table ? new TableLexer(new StringReader(src)) : new Lexer(new StringReader(src));
+            List<Token> kept = new ArrayList<>();
+            streamed.tokens().forEachRemaining(kept::add);
+            Iterator<Token> expected = new Lexer(" " + src).tokens();
+            for (Token t : kept) {
+                assertEquals(expected.next().toString(), t.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that TextSink lays out tokens and AST nodes the way the
+ * String.format calls it replaces did.
+ */
+class TextSinkTest {
+
+    @Test
+    public void testTokenLayout() {
+        String[] values = {"", "7", "42", "1234", "123456", "x", "a long value"};
+        int[] numbers = {0, 1, 9, 10, 99999, 100000, 1234567};
+        for (TokenType type : TokenType.values()) {
+            for (String value : values) {
+                for (int n : numbers) {
+                    String expected = String.format("%5d  %5d %-15s", n, n + 3, type);
+                    switch (type) {
+                        case Integer:
+                            expected += String.format("  %4s", value);
+                            break;
+                        case Identifier:
+                            expected += String.format(" %s", value);
+                            break;
+                        case String:
+                            expected += String.format(" \"%s\"", value);
+                            break;
+                    }
+                    assertEquals(expected, new TextSink().token(type, n, n + 3, value).toString());
+                    assertEquals(expected, new Token(type, value, n, n + 3).toString());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTokenWithoutValue() {
+        // a Token made with a null value prints and parses as an empty one
+        Token ident = new Token(TokenType.Identifier, null, 1, 1);
+        assertNull(ident.getValue());
+        assertEquals(new Token(TokenType.Identifier, "", 1, 1).toString(), ident.toString());
+        List<Token> tokens = Arrays.asList(new Token(TokenType.Keyword_print, null, 1, 1),
+                new Token(TokenType.LeftParen, null, 1, 6), new Token(TokenType.Integer, "1", 1, 7),
+                new Token(TokenType.RightParen, null, 1, 8), new Token(TokenType.Semicolon, null, 1, 9),
+                new Token(TokenType.End_of_input, null, 2, 1));
+        TextSink out = new TextSink();
+        Parser.appendAST(new Parser(tokens).parse(), out);
+        assertEquals("Sequence\n;\nSequence\n;\nPrti\nInteger 1\n;\n", out.toString());
+    }
+
+    @Test
+    public void testNodeLayout() {
+        Parser.Node leaf = Parser.Node.make_leaf(Parser.NodeType.nd_String, "hi");
+        assertEquals(String.format("%-14s", "String") + " \"hi\"\n", new TextSink().node(leaf, 14).toString());
+        Parser.Node node = Parser.Node.make_node(Parser.NodeType.nd_Sequence, null, leaf);
+        assertEquals("Sequence\n", new TextSink().node(node, 0).toString());
+        assertEquals(";\n", new TextSink().node(null, 14).toString());
+    }
+
+    @Test
+    public void testTokenStream() {
+        TokenBuffer tokens = new Lexer("count = 1;\nprint(\"x\", count);").tokenize();
+        TextSink out = new TextSink();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < tokens.size(); i++) {
+            out.token(tokens, i).append('\n');
+            expected.append(String.format("%5d  %5d %-15s", tokens.line(i), tokens.pos(i), tokens.type(i)));
+            switch (tokens.type(i)) {
+                case Integer:
+                    expected.append(String.format("  %4s", tokens.value(i)));
+                    break;
+                case Identifier:
+                    expected.append(" ").append(tokens.value(i));
+                    break;
+                case String:
+                    expected.append(" \"").append(tokens.value(i)).append("\"");
+                    break;
+            }
+            expected.append('\n');
+        }
+        assertEquals(expected.toString(), out.toString());
+    }
+
+    @Test
+    public void testStreamedAST() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            source.append("count = count + ").append(i).append(";\n");
+        }
+        Parser.Node tree = new Parser(new Lexer(source.toString()).tokenize()).parse();
+        TextSink expected = new TextSink();
+        Parser.appendAST(tree, expected);
+        assertTrue(expected.length() > TextSink.BUFFER);
+
+        StringBuilder sb = new StringBuilder();
+        Parser.writeAST(tree, sb);
+        assertEquals(expected.toString(), sb.toString());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Parser.writeAST(tree, Channels.newChannel(bytes));
+        assertEquals(expected.toString(), new String(bytes.toByteArray()));
+    }
+}
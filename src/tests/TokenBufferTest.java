@@ -0,0 +1,60 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that tokens saved in the binary .lexb format read back the same,
+ * and that a damaged file is turned away.
+ */
+class TokenBufferTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        TokenBuffer tokens = new Lexer("count = 1; print(\"count \", count);").tokenize();
+        Path file = Files.createTempFile("tokens", ".lexb");
+        try {
+            tokens.write(file.toString());
+            TokenBuffer read = TokenBuffer.read(file.toString());
+            assertEquals(tokens.size(), read.size());
+            for (int i = 0; i < tokens.size(); i++) {
+                assertEquals(tokens.get(i).toString(), read.get(i).toString());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testDamagedFile() throws IOException {
+        Path file = Files.createTempFile("tokens", ".lexb");
+        try {
+            new Lexer("x = 1;").tokenize().write(file.toString());
+            byte[] bytes = Files.readAllBytes(file);
+
+            // cut short
+            Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+            assertThrows(IOException.class, () -> TokenBuffer.read(file.toString()));
+
+            // a token count far bigger than the file
+            byte[] huge = bytes.clone();
+            ByteBuffer.wrap(huge).putInt(8, Integer.MAX_VALUE);
+            Files.write(file, huge);
+            assertThrows(IOException.class, () -> TokenBuffer.read(file.toString()));
+
+            // a value offset past the end of the text
+            byte[] offset = bytes.clone();
+            int size = ByteBuffer.wrap(bytes).getInt(8);
+            ByteBuffer.wrap(offset).putInt(16 + size * 8 + 4, 1000);
+            Files.write(file, offset);
+            assertThrows(IOException.class, () -> TokenBuffer.read(file.toString()));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the superinstructions and stack depth of the VirtualMachine, and
+ * deep programs. What its programs print is checked by DifferentialTest.
+ */
+class VirtualMachineTest {
+
+    private static Parser.Node parse(String source) {
+        return DifferentialTest.parse(source);
+    }
+
+    private static String run(String source) {
+        return DifferentialTest.run("vm", source);
+    }
+
+    @Test
+    public void testSuperinstructions() {
+        VirtualMachine vm = new VirtualMachine(CodeGenerator.generate(
+                parse("i = 0; s = 0; while (i < 1000) { if (i % 3 == 0 || i % 5 == 0) s = s + i; i = i + 1; }")));
+        assertTrue(vm.fused() >= 5);
+        vm.run(new TextSink());
+        assertEquals(233168, vm.value("s"));
+        assertEquals(1000, vm.value("i"));
+        assertEquals(0, vm.value("never"));
+        // every run starts again from 0
+        vm.run(new TextSink());
+        assertEquals(233168, vm.value("s"));
+
+        // a jump into the middle of a fused run: fetch [0]; push 5; add; store [0], entered at the push
+        int[] code = {
+            Bytecode.PUSH, 1, Bytecode.JMP, 6,
+            Bytecode.FETCH, 0, Bytecode.PUSH, 5, Bytecode.ADD, Bytecode.STORE, 0,
+            Bytecode.FETCH, 0, Bytecode.PRTI, Bytecode.HALT};
+        VirtualMachine jump = new VirtualMachine(new Bytecode(code, code.length, new String[] {"x"}, new String[0]));
+        assertEquals(1, jump.fused());
+        TextSink out = new TextSink();
+        jump.run(out);
+        assertEquals("6", out.toString());
+    }
+
+    @Test
+    public void testDepth() {
+        assertEquals(0, VirtualMachine.depth(CodeGenerator.generate(parse(""))));
+        assertEquals(2, VirtualMachine.depth(CodeGenerator.generate(parse("x = a && b;"))));
+        assertEquals(4, VirtualMachine.depth(CodeGenerator.generate(parse("x = 1 + (2 + (3 + 4)); print(x);"))));
+    }
+
+    @Test
+    public void testDeepProgram() throws InterruptedException {
+        StringBuilder source = new StringBuilder("x = 0;");
+        int depth = 20000;
+        for (int i = 0; i < depth; i++) {
+            source.append("while (x < ").append(i + 1).append(") { ");
+        }
+        source.append("x = x + (1 + (0 * (2 - (3 + 4))));");
+        for (int i = 0; i < depth; i++) {
+            source.append(" }");
+        }
+        source.append(" print(x);");
+        String[] result = new String[1];
+        Thread t = new Thread(null, () -> result[0] = run(source.toString()), "run", 256 * 1024);
+        t.start();
+        t.join();
+        assertEquals(Integer.toString(depth), result[0]);
+    }
+}